@@ -0,0 +1,90 @@
+package hello.jdbc.bench;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.memory.MemberIndex;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 메모리 회원 저장소 : MemberIndex(open addressing, 배열) vs ConcurrentHashMap<String, Member>
+ * 회원 한 명당 메모리는 Setup 에서 GC 후 힙 사용량 차이로 계산해서 출력한다. (DB 불필요)
+ * 벤치마크 결과는 memberId 조회 처리량
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g"})
+@Threads(4)
+public class MemberIndexBenchmark {
+
+    private static final String PREFIX = "idx";
+
+    @Param({"1000000"})
+    int members;
+
+    @Param({"index", "concurrentHashMap"})
+    String structure;
+
+    MemberIndex index;
+    ConcurrentHashMap<String, Member> map;
+    String[] memberIds; //조회용. 저장소의 키와 다른 String 객체
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        long before = usedHeap();
+        if (structure.equals("index")) {
+            index = new MemberIndex(members);
+            for (int i = 0; i < members; i++) {
+                index.insert(PREFIX + i, i);
+            }
+        } else {
+            map = new ConcurrentHashMap<>();
+            for (int i = 0; i < members; i++) {
+                map.put(PREFIX + i, new Member(PREFIX + i, i));
+            }
+        }
+        long retained = usedHeap() - before;
+        System.out.printf("%n%s : %d bytes/member%n", structure, retained / members);
+
+        memberIds = new String[members];
+        for (int i = 0; i < members; i++) {
+            memberIds[i] = PREFIX + i;
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Benchmark
+    public int findById() {
+        String memberId = memberIds[ThreadLocalRandom.current().nextInt(members)];
+        if (index != null) {
+            return MemberIndex.money(index.get(memberId));
+        }
+        return map.get(memberId).getMoney();
+    }
+
+    @Benchmark
+    public int addMoney() {
+        String memberId = memberIds[ThreadLocalRandom.current().nextInt(members)];
+        if (index != null) {
+            return index.add(memberId, 1) ? 1 : 0;
+        }
+        //Member 는 변경 가능 객체라서 CHM 은 compute 로 원자적으로 증가
+        map.computeIfPresent(memberId, (id, member) -> {
+            member.setMoney(member.getMoney() + 1);
+            return member;
+        });
+        return 1;
+    }
+}
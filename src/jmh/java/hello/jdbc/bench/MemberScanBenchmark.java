@@ -0,0 +1,74 @@
+package hello.jdbc.bench;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV5;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+
+/**
+ * 정산용 전체 스캔 : RowMapper(Member 생성, 컬럼 이름 조회) vs scan(MemberVisitor, 컬럼 인덱스 조회)
+ * 행당 할당량은 gc 프로파일러 결과의 gc.alloc.rate.norm 으로 비교한다.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemberScanBenchmark {
+
+    private static final String PREFIX = "scan";
+
+    @Param({"10000"})
+    int rows;
+
+    HikariDataSource dataSource;
+    JdbcTemplate template;
+    MemberRepositoryV5 repository;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        template = new JdbcTemplate(dataSource);
+        repository = new MemberRepositoryV5(dataSource);
+        repository.setFetchSize(1000);
+
+        template.update("delete from member where member_id like '" + PREFIX + "%'");
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < rows; i++) {
+            members.add(new Member(PREFIX + i, i));
+        }
+        repository.saveAll(members);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        template.update("delete from member where member_id like '" + PREFIX + "%'");
+        dataSource.close();
+    }
+
+    @Benchmark
+    public long rowMapper() {
+        try (Stream<Member> stream = repository.streamAll()) {
+            return stream.mapToLong(Member::getMoney).sum();
+        }
+    }
+
+    @Benchmark
+    public long visitor() {
+        long[] sum = new long[1];
+        repository.scan((memberId, money) -> sum[0] += money);
+        return sum[0];
+    }
+}
@@ -0,0 +1,105 @@
+package hello.jdbc.bench;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.memory.IndexedMemberRepository;
+import hello.jdbc.repository.memory.OffHeapMemberRepository;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * 메모리 회원 저장소의 힙 사용량과 GC 시간 : off-heap(OffHeapMemberRepository) vs on-heap
+ * onHeap : ConcurrentHashMap<String, Member>, index : IndexedMemberRepository (큰 배열 몇 개)
+ * 저장 후 힙 사용량은 Setup 에서, 측정 구간의 GC 횟수/시간은 iteration 마다 출력한다. (DB 불필요)
+ * 조회마다 Member 를 만들어서 요청 처리 중의 짧은 객체 할당을 흉내 낸다. 살아 있는 객체가 많을수록 GC 가 느려진다.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgs = {"-Xmx4g", "-XX:MaxDirectMemorySize=4g"})
+@Threads(4)
+public class OffHeapStoreBenchmark {
+
+    private static final String PREFIX = "off";
+
+    @Param({"5000000"})
+    int members;
+
+    @Param({"offHeap", "index", "onHeap"})
+    String store;
+
+    MemberRepository repository;
+    ConcurrentHashMap<String, Member> map;
+    String[] memberIds;
+
+    long gcCount;
+    long gcMillis;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        long before = usedHeap();
+        if (store.equals("onHeap")) {
+            map = new ConcurrentHashMap<>(members);
+            for (int i = 0; i < members; i++) {
+                map.put(PREFIX + i, new Member(PREFIX + i, i));
+            }
+        } else {
+            repository = store.equals("offHeap") ? new OffHeapMemberRepository(members) : new IndexedMemberRepository(members);
+            for (int i = 0; i < members; i++) {
+                repository.save(new Member(PREFIX + i, i));
+            }
+        }
+        long retained = usedHeap() - before;
+        System.out.printf("%n%s : heap %d MB (%d bytes/member)%n", store, retained >> 20, retained / members);
+
+        memberIds = new String[members];
+        for (int i = 0; i < members; i++) {
+            memberIds[i] = PREFIX + i;
+        }
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    @Setup(Level.Iteration)
+    public void startGcCount() {
+        gcCount = 0;
+        gcMillis = 0;
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount -= gc.getCollectionCount();
+            gcMillis -= gc.getCollectionTime();
+        }
+    }
+
+    @TearDown(Level.Iteration)
+    public void printGcCount() {
+        for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+            gcCount += gc.getCollectionCount();
+            gcMillis += gc.getCollectionTime();
+        }
+        System.out.printf("%n%s : gc count %d, gc time %d ms%n", store, gcCount, gcMillis);
+    }
+
+    @Benchmark
+    public Member findById() {
+        String memberId = memberIds[ThreadLocalRandom.current().nextInt(members)];
+        if (map != null) {
+            Member member = map.get(memberId);
+            //저장소 객체를 그대로 내보내지 않고 복사 (리포지토리 findById 와 같은 할당)
+            return new Member(member.getMemberId(), member.getMoney());
+        }
+        return repository.findById(memberId);
+    }
+}
@@ -0,0 +1,106 @@
+package hello.jdbc.bench;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV5;
+import hello.jdbc.repository.MemberSchemaInitializer;
+import hello.jdbc.service.MemberServiceV4;
+import hello.jdbc.service.TransferExecutor;
+import hello.jdbc.service.TransferMode;
+import org.openjdk.jmh.annotations.*;
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.annotation.AnnotationTransactionAttributeSource;
+import org.springframework.transaction.interceptor.TransactionInterceptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+
+/**
+ * 동시 이체 : 비관적 락(ORDERED_LOCK) vs 낙관적 락(OPTIMISTIC)
+ * uniform : 전체 계좌에서 고르게 선택 (충돌 적음)
+ * hot     : 90% 의 이체가 소수의 hot 계좌에 몰림 (충돌 많음)
+ * 재시도 횟수는 TearDown 에서 출력한다.
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@State(Scope.Benchmark)
+@Warmup(iterations = 2, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+@Threads(8)
+public class TransferContentionBenchmark {
+
+    private static final String PREFIX = "cont";
+    private static final int ACCOUNTS = 1000;
+    private static final int HOT_ACCOUNTS = 4;
+
+    @Param({"ORDERED_LOCK", "OPTIMISTIC"})
+    TransferMode mode;
+
+    @Param({"uniform", "hot"})
+    String skew;
+
+    HikariDataSource dataSource;
+    JdbcTemplate template;
+    TransferExecutor transferExecutor;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        dataSource.setMaximumPoolSize(16);
+        template = new JdbcTemplate(dataSource);
+        new MemberSchemaInitializer(dataSource).initialize();
+
+        MemberRepositoryV5 repository = new MemberRepositoryV5(dataSource);
+        template.update("delete from member where member_id like '" + PREFIX + "%'");
+        List<Member> members = new ArrayList<>();
+        for (int i = 0; i < ACCOUNTS; i++) {
+            members.add(new Member(PREFIX + i, 1_000_000_000));
+        }
+        repository.saveAll(members);
+
+        //스프링 컨테이너 없이 @Transactional 프록시 생성
+        ProxyFactory proxyFactory = new ProxyFactory(new MemberServiceV4(repository));
+        proxyFactory.setProxyTargetClass(true);
+        proxyFactory.addAdvice(new TransactionInterceptor(new DataSourceTransactionManager(dataSource),
+                new AnnotationTransactionAttributeSource()));
+        transferExecutor = new TransferExecutor((MemberServiceV4) proxyFactory.getProxy());
+        transferExecutor.setMaxAttempts(100);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        System.out.printf("%n[%s/%s] transfers = %d, retries = %d, failures = %d, backoff = %dms%n", mode, skew,
+                transferExecutor.getTransferCount(), transferExecutor.getRetryCount(),
+                transferExecutor.getFailureCount(), transferExecutor.getBackoffMillis());
+        template.update("delete from member where member_id like '" + PREFIX + "%'");
+        dataSource.close();
+    }
+
+    @Benchmark
+    public void transfer() {
+        int from = pick();
+        int to = pick();
+        while (to == from) {
+            to = pick();
+        }
+        transferExecutor.accountTransfer(PREFIX + from, PREFIX + to, 1, mode);
+    }
+
+    private int pick() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (skew.equals("hot") && random.nextInt(10) < 9) {
+            return random.nextInt(HOT_ACCOUNTS);
+        }
+        return random.nextInt(ACCOUNTS);
+    }
+}
@@ -1,7 +1,11 @@
 package hello.jdbc;
 
+import hello.jdbc.repository.MemberSchemaInitializer;
 import org.springframework.boot.SpringApplication;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.context.annotation.Bean;
+
+import javax.sql.DataSource;
 
 @SpringBootApplication
 public class JdbcApplication {
@@ -10,4 +14,10 @@ public class JdbcApplication {
 		SpringApplication.run(JdbcApplication.class, args);
 	}
 
+	//member 테이블에 version 컬럼, TRANSFER_V1 함수 설치
+	@Bean(initMethod = "initialize")
+	public MemberSchemaInitializer memberSchemaInitializer(DataSource dataSource) {
+		return new MemberSchemaInitializer(dataSource);
+	}
+
 }
@@ -0,0 +1,143 @@
+package hello.jdbc.config;
+
+import hello.jdbc.repository.MemberIdAllocator;
+import hello.jdbc.repository.MemberLedgerRepository;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberRepositoryV5;
+import hello.jdbc.repository.MemberSchemaInitializer;
+import hello.jdbc.repository.decorator.BatchingMemberRepository;
+import hello.jdbc.repository.decorator.BloomFilterMemberRepository;
+import hello.jdbc.repository.decorator.CachingMemberRepository;
+import hello.jdbc.repository.decorator.IdAssigningMemberRepository;
+import hello.jdbc.repository.decorator.SingleFlightMemberRepository;
+import hello.jdbc.repository.memory.FsyncPolicy;
+import hello.jdbc.repository.memory.IndexedMemberRepository;
+import hello.jdbc.repository.memory.JournaledMemberRepository;
+import hello.jdbc.repository.memory.MvccMemberRepository;
+import hello.jdbc.repository.memory.OffHeapCachedMemberRepository;
+import hello.jdbc.repository.memory.OffHeapMemberRepository;
+import hello.jdbc.service.MemberServiceV4;
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import javax.sql.DataSource;
+import java.nio.file.Paths;
+
+/**
+ * member.engine 설정으로 MemberServiceV4 가 사용할 리포지토리(저장 엔진)를 고른다.
+ * jdbc : MemberRepositoryV5, ledger : MemberLedgerRepository, journal : JournaledMemberRepository,
+ * index : IndexedMemberRepository, offheap : OffHeapMemberRepository, mvcc : MvccMemberRepository (DB 없이 메모리에만 보관)
+ * jdbc 는 member.jdbc.offheap-cache=true 이면 OffHeapCachedMemberRepository 캐시 계층을 앞에 두고,
+ * member.batch.max-size 를 설정하면 BatchingMemberRepository 로 여러 스레드의 조회를 IN 쿼리로 모으고,
+ * member.bloom.enabled=true 이면 BloomFilterMemberRepository 로 없는 회원 조회를 DB 에 보내지 않고,
+ * member.single-flight.max-in-flight 를 설정하면 SingleFlightMemberRepository 로 동시 조회를 합치고,
+ * member.cache.maximum-size 를 설정하면 CachingMemberRepository(segmented LRU) 를 앞에 둔다. (캐시 미스만 합쳐진다)
+ * member.id.block-size 를 설정하면 memberId 없이 저장하는 회원에게 MemberIdAllocator 로 memberId 를 붙인다.
+ * 설정하지 않으면 아무 빈도 등록하지 않는다. (테스트는 각자 TestConfig 사용)
+ */
+@Configuration
+@ConditionalOnProperty(name = "member.engine")
+public class MemberEngineConfig {
+
+    //리포지토리는 version 컬럼이 생긴 뒤에 만들어야 하므로 initializer 를 주입받는다.
+    @Bean
+    @ConditionalOnProperty(name = "member.engine", havingValue = "jdbc")
+    public MemberRepository jdbcMemberRepository(DataSource dataSource, MemberSchemaInitializer initializer,
+                                                 ObjectProvider<MemberIdAllocator> idAllocator,
+                                                 @Value("${member.jdbc.offheap-cache:false}") boolean offHeapCache,
+                                                 @Value("${member.index.expected-members:1000000}") int expectedMembers,
+                                                 @Value("${member.batch.max-size:0}") int batchSize,
+                                                 @Value("${member.batch.window-micros:200}") long batchWindowMicros,
+                                                 @Value("${member.bloom.enabled:false}") boolean bloomFilter,
+                                                 @Value("${member.bloom.false-positive-rate:0.01}") double falsePositiveRate,
+                                                 @Value("${member.bloom.max-bytes:67108864}") long bloomMaxBytes,
+                                                 @Value("${member.single-flight.max-in-flight:0}") int maxInFlight,
+                                                 @Value("${member.cache.maximum-size:0}") int cacheSize,
+                                                 @Value("${member.cache.ttl-millis:0}") long cacheTtlMillis) {
+        MemberRepository repository = new MemberRepositoryV5(dataSource);
+        if (batchSize > 0) {
+            repository = new BatchingMemberRepository(repository, batchSize, batchWindowMicros);
+        }
+        if (bloomFilter) {
+            BloomFilterMemberRepository bloom =
+                    new BloomFilterMemberRepository(repository, expectedMembers, falsePositiveRate, bloomMaxBytes);
+            bloom.load();
+            repository = bloom;
+        }
+        if (offHeapCache) {
+            repository = new OffHeapCachedMemberRepository(repository, expectedMembers);
+        }
+        if (maxInFlight > 0) {
+            repository = new SingleFlightMemberRepository(repository, maxInFlight);
+        }
+        if (cacheSize > 0) {
+            repository = new CachingMemberRepository(repository, cacheSize, cacheTtlMillis);
+        }
+        MemberIdAllocator allocator = idAllocator.getIfAvailable();
+        if (allocator != null) {
+            repository = new IdAssigningMemberRepository(repository, allocator);
+        }
+        return repository;
+    }
+
+    //member_id_block 테이블이 생긴 뒤에 만들어야 하므로 initializer 를 주입받는다.
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "member.id.block-size")
+    public MemberIdAllocator memberIdAllocator(DataSource dataSource, MemberSchemaInitializer initializer,
+                                               @Value("${member.id.block-size}") int blockSize,
+                                               @Value("${member.id.prefetch-ratio:0.25}") double prefetchRatio,
+                                               @Value("${member.id.prefix:" + MemberIdAllocator.DEFAULT_PREFIX + "}") String prefix) {
+        return new MemberIdAllocator(dataSource, blockSize, prefetchRatio, prefix);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "member.engine", havingValue = "ledger")
+    public MemberRepository ledgerMemberRepository(DataSource dataSource, MemberSchemaInitializer initializer,
+                                                   @Value("${member.ledger.compaction-millis:1000}") long compactionMillis) {
+        MemberLedgerRepository repository = new MemberLedgerRepository(dataSource);
+        repository.startCompaction(compactionMillis);
+        return repository;
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "member.engine", havingValue = "journal")
+    public MemberRepository journaledMemberRepository(DataSource dataSource, MemberSchemaInitializer initializer,
+                                                      @Value("${member.journal.directory:./member-journal}") String directory,
+                                                      @Value("${member.journal.capacity:" + JournaledMemberRepository.DEFAULT_JOURNAL_CAPACITY + "}") int capacity,
+                                                      @Value("${member.journal.fsync:INTERVAL}") FsyncPolicy fsyncPolicy,
+                                                      @Value("${member.journal.fsync-millis:100}") long fsyncMillis,
+                                                      @Value("${member.journal.checkpoint-millis:5000}") long checkpointMillis) {
+        JournaledMemberRepository repository =
+                new JournaledMemberRepository(dataSource, Paths.get(directory), capacity, fsyncPolicy, fsyncMillis);
+        repository.startCheckpoints(checkpointMillis);
+        return repository;
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "member.engine", havingValue = "index")
+    public MemberRepository indexedMemberRepository(@Value("${member.index.expected-members:1000000}") int expectedMembers) {
+        return new IndexedMemberRepository(expectedMembers);
+    }
+
+    @Bean
+    @ConditionalOnProperty(name = "member.engine", havingValue = "offheap")
+    public MemberRepository offHeapMemberRepository(@Value("${member.index.expected-members:1000000}") int expectedMembers) {
+        return new OffHeapMemberRepository(expectedMembers);
+    }
+
+    @Bean(destroyMethod = "close")
+    @ConditionalOnProperty(name = "member.engine", havingValue = "mvcc")
+    public MemberRepository mvccMemberRepository(@Value("${member.mvcc.gc-millis:100}") long gcMillis) {
+        MvccMemberRepository repository = new MvccMemberRepository();
+        repository.startGarbageCollection(gcMillis);
+        return repository;
+    }
+
+    @Bean
+    public MemberServiceV4 memberServiceV4(MemberRepository memberRepository) {
+        return new MemberServiceV4(memberRepository);
+    }
+}
@@ -4,4 +4,9 @@ public abstract class ConnectionConst {  //생성하지 못하도록 abstract cl
     public static final String URL = "jdbc:h2:tcp://localhost/~/test";
     public static final String USERNAME = "sa";
     public static final String PASSWORD = "";
+
+    //DBConnectionUtil 커넥션 풀 설정
+    public static final int POOL_MINIMUM_IDLE = 1;
+    public static final int POOL_MAXIMUM_SIZE = 10;
+    public static final int POOL_STATEMENT_CACHE_SIZE = 32;
 }
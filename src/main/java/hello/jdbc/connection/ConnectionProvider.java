@@ -0,0 +1,51 @@
+package hello.jdbc.connection;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.support.JdbcUtils;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+
+/**
+ * 커넥션 획득/반납 전략
+ * 모든 리포지토리는 주입받은 DataSource 에서 커넥션을 얻는다.
+ * 스프링 트랜잭션이 진행 중이면 트랜잭션 동기화 매니저에 보관된 커넥션을 그대로 사용하므로
+ * 트랜잭션 하나에 물리 커넥션 하나만 사용된다.
+ */
+@Slf4j
+public class ConnectionProvider {
+
+    private final DataSource dataSource;
+
+    public ConnectionProvider(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    public Connection getConnection() throws SQLException {
+        //주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils을 사용해야된다.
+        //doGetConnection 은 SQLException 을 그대로 던지므로 리포지토리의 예외 변환을 그대로 탄다.
+        Connection con = DataSourceUtils.doGetConnection(dataSource);
+        log.info("get connection = {}, class = {}",con,con.getClass());
+        return con;
+    }
+
+    public void release(Connection con) {
+        //트랜잭션 동기화 중인 커넥션은 닫지 않고, 그렇지 않으면 닫는다(풀이면 반납).
+        DataSourceUtils.releaseConnection(con, dataSource);
+    }
+
+    public void close(Connection con, Statement stmt, ResultSet rs) {
+        //역순으로 close
+        JdbcUtils.closeResultSet(rs);
+        JdbcUtils.closeStatement(stmt);
+        release(con);
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+}
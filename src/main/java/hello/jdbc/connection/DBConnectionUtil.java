@@ -2,23 +2,55 @@ package hello.jdbc.connection;
 
 import lombok.extern.slf4j.Slf4j;
 
+import javax.sql.DataSource;
 import java.sql.Connection;
-import java.sql.DriverManager;
 import java.sql.SQLException;
+import java.util.Collection;
 
 import static hello.jdbc.connection.ConnectionConst.*;
 
 @Slf4j
 public class DBConnectionUtil {
+
+    //매번 DriverManager 로 새 커넥션(TCP 연결 + 로그인)을 맺지 않도록 커넥션 풀을 사용한다.
+    //풀 설정은 -Dpool.minimumIdle, -Dpool.maximumPoolSize, -Dpool.statementCacheSize 로 바꿀 수 있다.
+    private static final int statementCacheSize = Integer.getInteger("pool.statementCacheSize", POOL_STATEMENT_CACHE_SIZE);
+    private static final SimpleConnectionPool dataSource = createDataSource();
+
     public static Connection getConnection() {
         try {
             // Connection은 자바 인터페이스이다
-            // DriverManager.getConnection가 각 데이터베이스 드라이버 (Oracle, Mysql, H2 등등)를 보고 커넥션을 맺는다. return은 Connection의 구현체
-            Connection connection = DriverManager.getConnection(URL, USERNAME, PASSWORD);
+            // 풀에서 꺼낸 커넥션은 프록시이고, close() 하면 물리 커넥션을 닫지 않고 풀에 반납한다.
+            Connection connection = dataSource.getConnection();
             log.info("get connection = {}, class = {}",connection, connection.getClass());
             return connection;
         } catch (SQLException e) {
             throw new IllegalStateException(e);
         }
     }
+
+    public static DataSource getDataSource() {
+        return dataSource;
+    }
+
+    /**
+     * 커넥션을 만들 때 미리 prepare 할 SQL 을 등록한다. 풀은 SQL 을 모르므로 사용하는 쪽(리포지토리)이 넘겨준다.
+     * 등록 이후에 만들어지는 커넥션부터 적용되므로 커넥션을 빌리기 전에 호출해야 한다.
+     */
+    public static synchronized void setPreparedStatementCatalog(Collection<String> catalog) {
+        if (statementCacheSize <= 0) {
+            return;
+        }
+        //캐시가 카탈로그보다 작으면 준비한 statement 가 바로 밀려난다.
+        dataSource.setStatementCacheSize(Math.max(statementCacheSize, catalog.size()));
+        dataSource.setPreparedStatementCatalog(catalog);
+    }
+
+    private static SimpleConnectionPool createDataSource() {
+        SimpleConnectionPool pool = new SimpleConnectionPool(URL, USERNAME, PASSWORD);
+        pool.setMinimumIdle(Integer.getInteger("pool.minimumIdle", POOL_MINIMUM_IDLE));
+        pool.setMaximumPoolSize(Integer.getInteger("pool.maximumPoolSize", POOL_MAXIMUM_SIZE));
+        pool.setStatementCacheSize(statementCacheSize);
+        return pool;
+    }
 }
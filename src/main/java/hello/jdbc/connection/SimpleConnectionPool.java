@@ -0,0 +1,646 @@
+package hello.jdbc.connection;
+
+import lombok.extern.slf4j.Slf4j;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.SQLTransientConnectionException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.logging.Logger;
+
+/**
+ * 커넥션 풀 - DataSource 구현
+ * 커넥션 획득 순서
+ * 1. 스레드 로컬 : 같은 스레드가 마지막에 반납한 커넥션을 먼저 재사용한다.
+ * 2. 공유 리스트 : 유휴 커넥션을 CAS 로 획득한다. (락 없음)
+ * 3. 신규 생성 : maximumPoolSize 를 넘지 않으면 새 커넥션을 만든다.
+ * 4. 핸드오프 : 풀이 가득 차면 대기하고, 반납되는 커넥션을 SynchronousQueue 로 바로 전달받는다.
+ *
+ * statementCacheSize 를 지정하면 물리 커넥션마다 PreparedStatement 를 LRU 로 캐시한다.
+ * 캐시된 PreparedStatement 는 close() 해도 닫히지 않고 다음 prepareStatement(sql) 에서 재사용된다.
+ */
+@Slf4j
+public class SimpleConnectionPool implements DataSource, Closeable {
+
+    private static final int NOT_IN_USE = 0;
+    private static final int IN_USE = 1;
+    private static final int REMOVED = -1;
+
+    private final String url;
+    private final String username;
+    private final String password;
+
+    private int minimumIdle = 0;
+    private int maximumPoolSize = 10;
+    private long connectionTimeout = 30_000; //ms
+    private int validationTimeout = 5; //sec, Connection.isValid() 기준
+    private long aliveBypassWindow = 500; //ms, 최근에 사용된 커넥션은 검증 생략
+    private int statementCacheSize = 0; //0 이면 캐시 사용 안함
+    private List<String> preparedStatementCatalog = List.of(); //커넥션 생성 시 미리 준비할 SQL
+
+    private final CopyOnWriteArrayList<PoolEntry> sharedList = new CopyOnWriteArrayList<>();
+    private final ThreadLocal<PoolEntry> lastUsed = new ThreadLocal<>();
+    private final SynchronousQueue<PoolEntry> handoffQueue = new SynchronousQueue<>(true);
+    private final AtomicInteger waiters = new AtomicInteger();
+    private final AtomicInteger totalConnections = new AtomicInteger();
+    private final LongAdder statementCacheHits = new LongAdder();
+    private final LongAdder statementCacheMisses = new LongAdder();
+
+    private volatile boolean initialized;
+    private volatile boolean closed;
+
+    public SimpleConnectionPool(String url, String username, String password) {
+        this.url = url;
+        this.username = username;
+        this.password = password;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        if (closed) {
+            throw new SQLException("connection pool is closed");
+        }
+        initialize();
+
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(connectionTimeout);
+        do {
+            PoolEntry entry = borrow(deadline);
+            if (entry == null) {
+                break;
+            }
+            if (isAlive(entry)) {
+                return entry.createProxy();
+            }
+            log.info("invalid connection removed = {}", entry.connection);
+            remove(entry);
+        } while (System.nanoTime() < deadline);
+
+        throw new SQLTransientConnectionException("connection is not available, request timed out after " + connectionTimeout + "ms"
+                + " (total=" + getTotalConnections() + ", active=" + getActiveConnections() + ", waiting=" + waiters.get() + ")");
+    }
+
+    private PoolEntry borrow(long deadline) throws SQLException {
+        //1. 같은 스레드가 마지막에 사용한 커넥션
+        PoolEntry entry = lastUsed.get();
+        if (entry != null && entry.compareAndSet(NOT_IN_USE, IN_USE)) {
+            return entry;
+        }
+
+        //2. 공유 리스트에서 유휴 커넥션
+        entry = scanSharedList();
+        if (entry != null) {
+            return entry;
+        }
+
+        //3. 여유가 있으면 새로 생성
+        entry = tryCreate(IN_USE);
+        if (entry != null) {
+            return entry;
+        }
+
+        //4. 반납되는 커넥션을 기다린다.
+        waiters.incrementAndGet();
+        try {
+            long timeout;
+            while ((timeout = deadline - System.nanoTime()) > 0) {
+                //대기 등록 전에 반납된 커넥션 또는 제거되어 생긴 여유를 다시 확인
+                entry = scanSharedList();
+                if (entry == null) {
+                    entry = tryCreate(IN_USE);
+                }
+                if (entry != null) {
+                    return entry;
+                }
+
+                entry = handoffQueue.poll(Math.min(timeout, TimeUnit.MILLISECONDS.toNanos(100)), TimeUnit.NANOSECONDS);
+                if (entry != null && entry.compareAndSet(NOT_IN_USE, IN_USE)) {
+                    return entry;
+                }
+            }
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new SQLException("interrupted while waiting for connection", e);
+        } finally {
+            waiters.decrementAndGet();
+        }
+    }
+
+    private PoolEntry scanSharedList() {
+        for (PoolEntry entry : sharedList) {
+            if (entry.compareAndSet(NOT_IN_USE, IN_USE)) {
+                return entry;
+            }
+        }
+        return null;
+    }
+
+    private PoolEntry tryCreate(int initialState) throws SQLException {
+        for (;;) {
+            int total = totalConnections.get();
+            if (total >= maximumPoolSize) {
+                return null;
+            }
+            if (totalConnections.compareAndSet(total, total + 1)) {
+                break;
+            }
+        }
+
+        try {
+            Connection connection = DriverManager.getConnection(url, username, password);
+            PoolEntry entry = new PoolEntry(connection, initialState);
+            entry.prepareCatalog();
+            sharedList.add(entry);
+            log.info("new connection added = {}, total = {}", connection, totalConnections.get());
+            return entry;
+        } catch (SQLException e) {
+            totalConnections.decrementAndGet();
+            throw e;
+        }
+    }
+
+    private boolean isAlive(PoolEntry entry) {
+        if (System.currentTimeMillis() - entry.lastAccessed < aliveBypassWindow) {
+            return true;
+        }
+        try {
+            return entry.connection.isValid(validationTimeout);
+        } catch (SQLException e) {
+            return false;
+        }
+    }
+
+    void release(PoolEntry entry) {
+        entry.lastAccessed = System.currentTimeMillis();
+        if (closed) {
+            remove(entry);
+            return;
+        }
+        entry.state.set(NOT_IN_USE);
+
+        //대기 중인 스레드가 있으면 직접 전달
+        for (int i = 0; waiters.get() > 0; i++) {
+            if (entry.state.get() != NOT_IN_USE || handoffQueue.offer(entry)) {
+                break;
+            }
+            if ((i & 0xff) == 0xff) {
+                LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(10));
+            } else {
+                Thread.yield();
+            }
+        }
+        lastUsed.set(entry);
+    }
+
+    private void remove(PoolEntry entry) {
+        entry.state.set(REMOVED);
+        if (sharedList.remove(entry)) {
+            totalConnections.decrementAndGet();
+        }
+        try {
+            entry.connection.close();
+        } catch (SQLException e) {
+            log.error("error", e);
+        }
+    }
+
+    private void initialize() throws SQLException {
+        if (initialized) {
+            return;
+        }
+        synchronized (this) {
+            if (initialized) {
+                return;
+            }
+            while (totalConnections.get() < minimumIdle) {
+                if (tryCreate(NOT_IN_USE) == null) {
+                    break;
+                }
+            }
+            initialized = true;
+        }
+    }
+
+    @Override
+    public void close() {
+        closed = true;
+        for (PoolEntry entry : sharedList) {
+            //사용 중인 커넥션은 반납될 때 닫는다.
+            if (entry.compareAndSet(NOT_IN_USE, REMOVED)) {
+                remove(entry);
+            }
+        }
+    }
+
+    public int getTotalConnections() {
+        return totalConnections.get();
+    }
+
+    public int getIdleConnections() {
+        int idle = 0;
+        for (PoolEntry entry : sharedList) {
+            if (entry.state.get() == NOT_IN_USE) {
+                idle++;
+            }
+        }
+        return idle;
+    }
+
+    public int getActiveConnections() {
+        int active = 0;
+        for (PoolEntry entry : sharedList) {
+            if (entry.state.get() == IN_USE) {
+                active++;
+            }
+        }
+        return active;
+    }
+
+    public long getStatementCacheHits() {
+        return statementCacheHits.sum();
+    }
+
+    public long getStatementCacheMisses() {
+        return statementCacheMisses.sum();
+    }
+
+    public void setMinimumIdle(int minimumIdle) {
+        this.minimumIdle = minimumIdle;
+    }
+
+    public void setMaximumPoolSize(int maximumPoolSize) {
+        if (maximumPoolSize < 1) {
+            throw new IllegalArgumentException("maximumPoolSize must be greater than 0");
+        }
+        this.maximumPoolSize = maximumPoolSize;
+    }
+
+    public void setConnectionTimeout(long connectionTimeoutMs) {
+        this.connectionTimeout = connectionTimeoutMs;
+    }
+
+    public void setValidationTimeout(int validationTimeoutSeconds) {
+        this.validationTimeout = validationTimeoutSeconds;
+    }
+
+    public void setAliveBypassWindow(long aliveBypassWindowMs) {
+        this.aliveBypassWindow = aliveBypassWindowMs;
+    }
+
+    public void setStatementCacheSize(int statementCacheSize) {
+        this.statementCacheSize = statementCacheSize;
+    }
+
+    public void setPreparedStatementCatalog(Collection<String> catalog) {
+        this.preparedStatementCatalog = List.copyOf(catalog);
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    public PrintWriter getLogWriter() {
+        return null;
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) {
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) {
+    }
+
+    @Override
+    public int getLoginTimeout() {
+        return 0;
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        throw new SQLFeatureNotSupportedException();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        if (iface.isInstance(this)) {
+            return (T) this;
+        }
+        throw new SQLException("wrapped DataSource is not an instance of " + iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) {
+        return iface.isInstance(this);
+    }
+
+    /**
+     * 물리 커넥션 하나와 그 상태 (NOT_IN_USE, IN_USE, REMOVED)
+     * 커넥션은 한 번에 한 스레드만 사용하므로 statementCache 는 동기화하지 않는다.
+     */
+    final class PoolEntry {
+        private final Connection connection;
+        private final AtomicInteger state;
+        private final Map<String, CachedStatement> statementCache;
+        private final List<ProxyStatementHandler> borrowed = new ArrayList<>(); //이번 대여에서 빌려준 캐시 statement
+        private volatile long lastAccessed = System.currentTimeMillis();
+
+        PoolEntry(Connection connection, int initialState) {
+            this.connection = connection;
+            this.state = new AtomicInteger(initialState);
+            this.statementCache = statementCacheSize > 0 ? new StatementCache(statementCacheSize) : null;
+        }
+
+        void prepareCatalog() {
+            if (statementCache == null) {
+                return;
+            }
+            for (String sql : preparedStatementCatalog) {
+                try {
+                    statementCache.put(sql, new CachedStatement(connection.prepareStatement(sql)));
+                } catch (SQLException e) {
+                    log.warn("statement prepare failed sql = {}", sql, e);
+                }
+            }
+        }
+
+        PreparedStatement prepareStatement(Connection proxy, String sql) throws SQLException {
+            CachedStatement cached = statementCache.get(sql);
+            if (cached != null && !cached.inUse) {
+                statementCacheHits.increment();
+                return borrow(cached, proxy);
+            }
+
+            statementCacheMisses.increment();
+            PreparedStatement pstmt = connection.prepareStatement(sql);
+            if (cached != null) {
+                //같은 SQL 을 이미 사용 중이면 캐시하지 않은 PreparedStatement 를 준다.
+                return pstmt;
+            }
+            cached = new CachedStatement(pstmt);
+            statementCache.put(sql, cached);
+            return borrow(cached, proxy);
+        }
+
+        private PreparedStatement borrow(CachedStatement cached, Connection proxy) {
+            ProxyStatementHandler handler = new ProxyStatementHandler(cached, proxy);
+            borrowed.add(handler);
+            return cached.borrow(handler);
+        }
+
+        /**
+         * 커넥션을 반납할 때 닫지 않은 statement 를 대신 닫아서 캐시에 돌려놓는다.
+         * 그대로 두면 inUse 로 남아서 그 SQL 은 이 커넥션에서 다시 캐시되지 않는다.
+         */
+        void giveBackStatements() {
+            for (ProxyStatementHandler handler : borrowed) {
+                handler.close();
+            }
+            borrowed.clear();
+        }
+
+        boolean compareAndSet(int expect, int update) {
+            return state.compareAndSet(expect, update);
+        }
+
+        Connection createProxy() {
+            return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                    new Class[]{Connection.class}, new ProxyConnectionHandler(this));
+        }
+    }
+
+    /**
+     * accessOrder LinkedHashMap 으로 구현한 LRU. 밀려난 PreparedStatement 는 닫는다.
+     */
+    private static final class StatementCache extends LinkedHashMap<String, CachedStatement> {
+        private final int maxSize;
+
+        StatementCache(int maxSize) {
+            super(16, 0.75f, true);
+            this.maxSize = maxSize;
+        }
+
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, CachedStatement> eldest) {
+            if (size() <= maxSize) {
+                return false;
+            }
+            eldest.getValue().evict();
+            return true;
+        }
+    }
+
+    /**
+     * 캐시된 PreparedStatement. 사용하는 쪽에는 close() 를 가로채는 프록시를 준다.
+     */
+    private static final class CachedStatement {
+        private final PreparedStatement statement;
+        private final int defaultFetchSize;
+        private final int defaultMaxRows;
+        private final int defaultQueryTimeout;
+        private boolean inUse;
+        private boolean evicted;
+
+        CachedStatement(PreparedStatement statement) throws SQLException {
+            this.statement = statement;
+            this.defaultFetchSize = statement.getFetchSize();
+            this.defaultMaxRows = statement.getMaxRows();
+            this.defaultQueryTimeout = statement.getQueryTimeout();
+        }
+
+        PreparedStatement borrow(ProxyStatementHandler handler) {
+            inUse = true;
+            return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+                    new Class[]{PreparedStatement.class}, handler);
+        }
+
+        void giveBack(boolean dirty) {
+            inUse = false;
+            try {
+                statement.clearParameters();
+                statement.clearBatch();
+                if (dirty) {
+                    //JdbcTemplate, 트랜잭션 타임아웃 등이 바꾼 설정을 되돌린다.
+                    statement.setFetchSize(defaultFetchSize);
+                    statement.setMaxRows(defaultMaxRows);
+                    statement.setQueryTimeout(defaultQueryTimeout);
+                }
+            } catch (SQLException e) {
+                log.error("error", e);
+                evicted = true;
+            }
+            if (evicted) {
+                closeQuietly();
+            }
+        }
+
+        void evict() {
+            evicted = true;
+            if (!inUse) {
+                closeQuietly();
+            }
+        }
+
+        private void closeQuietly() {
+            try {
+                statement.close();
+            } catch (SQLException e) {
+                log.error("error", e);
+            }
+        }
+    }
+
+    private static final class ProxyStatementHandler implements InvocationHandler {
+        private final CachedStatement cached;
+        private final Connection connectionProxy;
+        private boolean closed;
+        private boolean dirty;
+
+        ProxyStatementHandler(CachedStatement cached, Connection connectionProxy) {
+            this.cached = cached;
+            this.connectionProxy = connectionProxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    return closed || cached.statement.isClosed();
+                case "getConnection":
+                    return connectionProxy;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "CachedStatement[" + cached.statement + "]";
+                case "setFetchSize":
+                case "setMaxRows":
+                case "setQueryTimeout":
+                    dirty = true;
+                    break;
+            }
+
+            if (closed) {
+                throw new SQLException("statement is closed");
+            }
+            try {
+                return method.invoke(cached.statement, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        //사용하는 쪽의 close() 또는 커넥션 반납. 한 번만 돌려준다.
+        void close() {
+            if (!closed) {
+                closed = true;
+                cached.giveBack(dirty);
+            }
+        }
+    }
+
+    /**
+     * close() 호출 시 물리 커넥션을 닫지 않고 풀에 반납한다.
+     */
+    private final class ProxyConnectionHandler implements InvocationHandler {
+        private final PoolEntry entry;
+        private volatile boolean closed;
+
+        ProxyConnectionHandler(PoolEntry entry) {
+            this.entry = entry;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "close":
+                    if (!closed) {
+                        closed = true;
+                        resetAndRelease();
+                    }
+                    return null;
+                case "isClosed":
+                    return closed || entry.connection.isClosed();
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return "PooledConnection[" + entry.connection + "]";
+                case "unwrap":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return proxy;
+                    }
+                    //물리 커넥션을 꺼내면 풀 모르게 닫거나 반납 후에도 쓸 수 있다.
+                    if (Connection.class.isAssignableFrom((Class<?>) args[0])) {
+                        throw new SQLException("pooled connection cannot be unwrapped to " + args[0]);
+                    }
+                    break;
+                case "isWrapperFor":
+                    if (((Class<?>) args[0]).isInstance(proxy)) {
+                        return true;
+                    }
+                    if (Connection.class.isAssignableFrom((Class<?>) args[0])) {
+                        return false;
+                    }
+                    break;
+            }
+
+            if (closed) {
+                throw new SQLException("connection is closed");
+            }
+            if (entry.statementCache != null && method.getName().equals("prepareStatement") && args.length == 1) {
+                return entry.prepareStatement((Connection) proxy, (String) args[0]);
+            }
+            try {
+                return method.invoke(entry.connection, args);
+            } catch (InvocationTargetException e) {
+                throw e.getCause();
+            }
+        }
+
+        private void resetAndRelease() {
+            if (entry.statementCache != null) {
+                entry.giveBackStatements();
+            }
+            try {
+                //커밋되지 않은 작업이 남아있으면 롤백하고 오토커밋 상태로 되돌린 후 반납
+                if (!entry.connection.getAutoCommit()) {
+                    entry.connection.rollback();
+                    entry.connection.setAutoCommit(true);
+                }
+                release(entry);
+            } catch (SQLException e) {
+                log.error("error", e);
+                remove(entry);
+            }
+        }
+    }
+}
@@ -9,6 +9,7 @@ public class Member {
 
     private String memberId;
     private int money;
+    private long version; //낙관적 락. money 를 변경할 때마다 1 증가
 
     public Member(String memberId, int money) {
         this.memberId = memberId;
@@ -0,0 +1,76 @@
+package hello.jdbc.repository;
+
+import java.sql.BatchUpdateException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+
+/**
+ * JDBC 배치 공통 처리
+ */
+abstract class BatchSupport {  //생성하지 못하도록 abstract class
+
+    static final int DEFAULT_BATCH_SIZE = 1000;
+
+    static int checkBatchSize(int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("batchSize must be greater than 0");
+        }
+        return batchSize;
+    }
+
+    /**
+     * 실패한 행의 memberId 목록.
+     * 드라이버가 끝까지 실행하면 updateCounts 에 EXECUTE_FAILED 로 표시되고,
+     * 첫 실패에서 멈추면 updateCounts 길이가 곧 실패한 행의 위치다.
+     */
+    static <T> List<String> failedMemberIds(BatchUpdateException e, List<T> chunk, Function<T, String> memberIdOf) {
+        int[] updateCounts = e.getUpdateCounts();
+        List<String> failed = new ArrayList<>();
+        if (updateCounts == null) {
+            return failed;
+        }
+        for (int i = 0; i < updateCounts.length && i < chunk.size(); i++) {
+            if (updateCounts[i] == Statement.EXECUTE_FAILED) {
+                failed.add(memberIdOf.apply(chunk.get(i)));
+            }
+        }
+        if (updateCounts.length < chunk.size()) {
+            failed.add(memberIdOf.apply(chunk.get(updateCounts.length)));
+        }
+        return failed;
+    }
+
+    /**
+     * ids[from] 부터 shape 개의 IN 절 파라미터. 모자라는 자리는 마지막 memberId 를 반복해서 채운다.
+     */
+    static String[] inListArgs(List<String> ids, int from, int shape) {
+        int last = Math.min(from + shape, ids.size()) - 1;
+        String[] args = new String[shape];
+        for (int i = 0; i < shape; i++) {
+            args[i] = ids.get(Math.min(from + i, last));
+        }
+        return args;
+    }
+
+    static List<String> missingIds(List<String> ids, Map<String, ?> found) {
+        List<String> missing = new ArrayList<>();
+        for (String id : ids) {
+            if (!found.containsKey(id)) {
+                missing.add(id);
+            }
+        }
+        return missing;
+    }
+
+    static BatchUpdateException findBatchUpdateException(Throwable e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof BatchUpdateException) {
+                return (BatchUpdateException) cause;
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,203 @@
+package hello.jdbc.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * hi-lo 방식 memberId 발급기
+ * member_id_block 테이블에서 blockSize 개의 번호 구간을 한 번에 예약하고, 구간 안의 번호는 DB 없이 CAS 로 나눠 준다.
+ * 여러 애플리케이션이 같은 테이블을 써도 구간이 겹치지 않는다. 재시작하면 쓰지 않은 번호는 버려진다. (번호에 빈 구멍이 생긴다)
+ *
+ * memberId 는 prefix + 36진수 번호. member_id 가 varchar(10) 이므로 넘으면 IllegalStateException.
+ * 직접 정한 memberId 와 겹치지 않도록 prefix 는 다른 memberId 가 쓰지 않는 문자열로 정한다.
+ *
+ * 예약은 애플리케이션 트랜잭션과 상관없이 별도 커넥션(자동 커밋)으로 실행한다.
+ * 트랜잭션에 참여하면 커밋할 때까지 시퀀스 행 잠금을 잡아서 다른 발급을 모두 막는다.
+ * prefetchRatio 가 0 보다 크면 구간이 그만큼 남았을 때 다음 구간을 백그라운드에서 미리 예약한다.
+ */
+@Slf4j
+public class MemberIdAllocator implements AutoCloseable {
+
+    public static final String SEQUENCE_NAME = "member";
+    public static final String DEFAULT_PREFIX = "id-";
+    static final int MAX_MEMBER_ID_LENGTH = 10; //member_id varchar(10)
+
+    //갱신한 행을 같은 문장에서 돌려받는다. (H2 data change delta table) 예약 한 번에 DB 왕복 한 번
+    static final String RESERVE = "select next_value from final table"
+            + " (update member_id_block set next_value = next_value + ? where name = ?)";
+
+    private final DataSource dataSource;
+    private final SQLExceptionTranslator exTranslator;
+    private final int blockSize;
+    private final int prefetchThreshold; //남은 번호가 이만큼이 되면 다음 구간을 미리 예약. 0 이면 안 함
+    private final String prefix;
+
+    private volatile Block current = Block.EMPTY;
+    private CompletableFuture<Block> prefetched; //this 로 보호
+    private ExecutorService prefetcher;
+
+    //메트릭
+    private final LongAdder reservations = new LongAdder();
+    private final LongAdder allocated = new LongAdder();
+    private final LongAdder prefetchMisses = new LongAdder();
+
+    private static final class Block {
+        private static final Block EMPTY = new Block(0, 0);
+
+        private final AtomicLong next;
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    public MemberIdAllocator(DataSource dataSource, int blockSize) {
+        this(dataSource, blockSize, 0.25, DEFAULT_PREFIX);
+    }
+
+    /**
+     * @param blockSize 한 번에 예약할 번호 수
+     * @param prefetchRatio 구간에서 이 비율만큼 남으면 다음 구간을 미리 예약 (0 이면 다 쓴 뒤에 예약)
+     */
+    public MemberIdAllocator(DataSource dataSource, int blockSize, double prefetchRatio, String prefix) {
+        if (blockSize < 1) {
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        }
+        if (prefetchRatio < 0 || prefetchRatio >= 1) {
+            throw new IllegalArgumentException("prefetchRatio must be in [0, 1): " + prefetchRatio);
+        }
+        this.dataSource = dataSource;
+        this.exTranslator = new SQLErrorCodeSQLExceptionTranslator(dataSource);
+        this.blockSize = blockSize;
+        this.prefetchThreshold = (int) (blockSize * prefetchRatio);
+        this.prefix = prefix;
+    }
+
+    public String nextId() {
+        return format(nextValue());
+    }
+
+    /**
+     * 발급할 번호. 구간 안에서는 잠금 없이 getAndIncrement 한 번이다.
+     */
+    public long nextValue() {
+        while (true) {
+            Block block = current;
+            long value = block.next.getAndIncrement();
+            if (value < block.end) {
+                allocated.increment();
+                if (prefetchThreshold > 0 && block.end - value == prefetchThreshold) {
+                    prefetch(); //정확히 한 스레드만 이 번호를 받는다.
+                }
+                return value;
+            }
+            refill(block);
+        }
+    }
+
+    private String format(long value) {
+        String memberId = prefix + Long.toString(value, Character.MAX_RADIX);
+        if (memberId.length() > MAX_MEMBER_ID_LENGTH) {
+            throw new IllegalStateException("memberId 길이 초과 memberId=" + memberId);
+        }
+        return memberId;
+    }
+
+    //다 쓴 구간을 본 스레드 중 하나만 바꾸고, 나머지는 바뀐 구간에서 다시 받는다.
+    private synchronized void refill(Block exhausted) {
+        if (current != exhausted) {
+            return;
+        }
+        Block next = null;
+        if (prefetched != null) {
+            CompletableFuture<Block> future = prefetched;
+            prefetched = null;
+            try {
+                next = future.join();
+            } catch (RuntimeException e) {
+                log.warn("member id prefetch failed, reserving synchronously", e);
+            }
+        } else if (prefetchThreshold > 0 && exhausted != Block.EMPTY) {
+            prefetchMisses.increment();
+        }
+        current = next != null ? next : reserve();
+    }
+
+    private synchronized void prefetch() {
+        if (prefetched != null) {
+            return;
+        }
+        if (prefetcher == null) {
+            prefetcher = Executors.newSingleThreadExecutor(r -> {
+                Thread thread = new Thread(r, "member-id-prefetcher");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+        prefetched = CompletableFuture.supplyAsync(this::reserve, prefetcher);
+    }
+
+    private Block reserve() {
+        try (Connection con = dataSource.getConnection();
+             PreparedStatement pstmt = con.prepareStatement(RESERVE)) {
+            con.setAutoCommit(true);
+            pstmt.setLong(1, blockSize);
+            pstmt.setString(2, SEQUENCE_NAME);
+            try (ResultSet rs = pstmt.executeQuery()) {
+                if (!rs.next()) {
+                    throw new DataAccessResourceFailureException("member_id_block 에 " + SEQUENCE_NAME + " 행이 없습니다. MemberSchemaInitializer 를 먼저 실행해야 합니다.");
+                }
+                long end = rs.getLong(1);
+                reservations.increment();
+                return new Block(end - blockSize, end);
+            }
+        } catch (SQLException e) {
+            throw exTranslator.translate("reserve member id block", RESERVE, e);
+        }
+    }
+
+    public long getReservationCount() {
+        return reservations.sum();
+    }
+
+    public long getAllocatedCount() {
+        return allocated.sum();
+    }
+
+    /**
+     * 미리 예약한 구간이 없어서 발급하던 스레드가 예약을 기다린 횟수
+     */
+    public long getPrefetchMissCount() {
+        return prefetchMisses.sum();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (prefetcher == null) {
+            return;
+        }
+        prefetcher.shutdown();
+        try {
+            prefetcher.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        prefetcher = null;
+    }
+}
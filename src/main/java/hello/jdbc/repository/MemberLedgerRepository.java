@@ -0,0 +1,308 @@
+package hello.jdbc.repository;
+
+import hello.jdbc.domain.Member;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * 원장(event sourcing) 방식 리포지토리
+ * money 를 제자리에서 덮어쓰지 않고 변경분(delta)을 member_ledger 에 추가만 한다. 조회는 스냅샷 + 원장 합계 (MemberLedgerSql)
+ * 백그라운드 압축(compact)이 원장을 member.money 스냅샷으로 접는다.
+ *
+ * 입금(addMoney)은 member 행을 잠그지 않고 원장에 추가만 하므로 같은 계좌로 몰리는 입금끼리 경합하지 않는다.
+ * 잔액을 확인해야 하는 출금, transfer, update 는 member 행을 잠근 뒤(select ... for update) 원장에 추가한다.
+ * 잠금과 추가가 한 트랜잭션이어야 하므로 진행 중인 트랜잭션이 없으면 txTemplate 으로 새로 시작한다.
+ * 잠금 없는 입금은 findByIdForUpdate 의 잠금을 기다리지 않는다. 그래서 update(memberId, money) 는 현재 잔액이 아니라
+ * 같은 트랜잭션에서 findById / findByIdForUpdate 가 돌려준 잔액과의 차이를 원장에 추가한다.
+ * 읽은 뒤에 들어온 입금을 덮어쓰지 않으므로 READ_MODIFY_WRITE, ORDERED_LOCK 서비스도 그대로 사용할 수 있다.
+ * 트랜잭션 밖에서 호출하거나 읽지 않은 회원이면 잠근 뒤의 현재 잔액과의 차이를 추가한다.
+ *
+ * 예외는 MemberRepositoryV5 와 같다. (없는 회원 조회 시 EmptyResultDataAccessException)
+ */
+@Slf4j
+public class MemberLedgerRepository implements MemberRepository, Closeable {
+
+    private final JdbcTemplate template;
+    private final TransactionTemplate txTemplate;
+
+    private int compactionBatchSize = 1000; //압축 한 번에 접을 최대 원장 건수
+    private ScheduledExecutorService compactor;
+    private final LongAdder compactedEntries = new LongAdder();
+
+    public MemberLedgerRepository(DataSource dataSource) {
+        this.template = new JdbcTemplate(dataSource);
+        this.txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    public void setCompactionBatchSize(int compactionBatchSize) {
+        this.compactionBatchSize = BatchSupport.checkBatchSize(compactionBatchSize);
+    }
+
+    @Override
+    public Member save(Member member) {
+        template.update(MemberSql.INSERT, member.getMemberId(), member.getMoney());
+        return member;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        Member member = read(memberId);
+        observe(memberId, member.getMoney());
+        return member;
+    }
+
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        Member member = lock(memberId);
+        if (member == null) {
+            throw new EmptyResultDataAccessException(1);
+        }
+        observe(memberId, member.getMoney());
+        return member;
+    }
+
+    private Member read(String memberId) {
+        return template.queryForObject(MemberLedgerSql.SELECT_BY_ID, memberRowMapper(), memberId);
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        Stream<Member> stream = template.queryForStream(con -> {
+            PreparedStatement pstmt = con.prepareStatement(MemberLedgerSql.SELECT_ALL);
+            pstmt.setFetchSize(ResultSetStreams.DEFAULT_FETCH_SIZE);
+            return pstmt;
+        }, memberRowMapper());
+        return ResultSetStreams.closingOnCompletion(stream);
+    }
+
+    private RowMapper<Member> memberRowMapper() {
+        return (rs, rowNum) -> {
+            Member member = new Member();
+            member.setMemberId(rs.getString("member_id"));
+            member.setMoney(rs.getInt("money"));
+            member.setVersion(rs.getLong("version"));
+            return member;
+        };
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        txTemplate.executeWithoutResult(status -> {
+            Integer observed = observedBalances().get(memberId);
+            Member member = lock(memberId);
+            if (member != null) {
+                append(memberId, money - (observed != null ? observed : member.getMoney()));
+            }
+        });
+    }
+
+    @Override
+    public int update(String memberId, int money, long expectedVersion) {
+        return txTemplate.execute(status -> {
+            Member member = lock(memberId);
+            if (member == null || member.getVersion() != expectedVersion) {
+                return 0;
+            }
+            append(memberId, money - member.getMoney());
+            return 1;
+        });
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        int appended = template.update(MemberLedgerSql.APPEND_IF_EXISTS, delta, memberId);
+        if (appended > 0) {
+            shiftObserved(memberId, delta);
+        }
+        return appended;
+    }
+
+    @Override
+    public int withdraw(String memberId, int amount) {
+        return txTemplate.execute(status -> {
+            Member member = lock(memberId);
+            if (member == null || member.getMoney() < amount) {
+                return 0;
+            }
+            append(memberId, -amount);
+            return 1;
+        });
+    }
+
+    @Override
+    public int transfer(String fromId, String toId, int money) {
+        if (fromId.equals(toId)) {
+            return 0;
+        }
+        return txTemplate.execute(status -> {
+            //ORDERED_LOCK 과 같은 순서(memberId 오름차순)로 잠근다.
+            boolean fromFirst = fromId.compareTo(toId) < 0;
+            Member first = lock(fromFirst ? fromId : toId);
+            Member second = lock(fromFirst ? toId : fromId);
+            Member fromMember = fromFirst ? first : second;
+            Member toMember = fromFirst ? second : first;
+            if (fromMember == null || toMember == null || fromMember.getMoney() < money) {
+                return 0;
+            }
+            shiftObserved(fromId, -money);
+            shiftObserved(toId, money);
+            return template.update(MemberLedgerSql.APPEND_TRANSFER, fromId, -money, toId, money);
+        });
+    }
+
+    @Override
+    public void delete(String memberId) {
+        //원장만 지워지고 member 가 남으면 잔액이 스냅샷으로 되돌아가므로 한 트랜잭션으로 지운다.
+        txTemplate.executeWithoutResult(status -> {
+            template.update(MemberLedgerSql.DELETE_BY_MEMBER_ID, memberId);
+            template.update(MemberSql.DELETE, memberId);
+        });
+    }
+
+    //member 행을 잠그고 현재 잔액을 조회한다. 없으면 null
+    private Member lock(String memberId) {
+        List<String> locked = template.query(MemberSql.SELECT_BY_ID_FOR_UPDATE, (rs, rowNum) -> rs.getString("member_id"), memberId);
+        return locked.isEmpty() ? null : read(memberId);
+    }
+
+    private void append(String memberId, int delta) {
+        if (delta != 0) {
+            template.update(MemberLedgerSql.APPEND, memberId, delta);
+            shiftObserved(memberId, delta);
+        }
+    }
+
+    //트랜잭션 안에서 읽은 잔액을 기억한다. 트랜잭션 밖이면 기억하지 않는다.
+    private void observe(String memberId, int money) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            observedBalances().put(memberId, money);
+        }
+    }
+
+    //이 트랜잭션이 추가한 원장만큼 기억한 잔액을 옮긴다. (다른 트랜잭션의 입금은 반영하지 않는다)
+    private void shiftObserved(String memberId, int delta) {
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            observedBalances().computeIfPresent(memberId, (id, money) -> money + delta);
+        }
+    }
+
+    //현재 트랜잭션에 묶인 memberId -> 읽은 잔액. 트랜잭션이 끝나면 버린다.
+    private Map<String, Integer> observedBalances() {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return Map.of();
+        }
+        ObservedBalances observed = (ObservedBalances) TransactionSynchronizationManager.getResource(this);
+        if (observed == null) {
+            observed = new ObservedBalances();
+            TransactionSynchronizationManager.bindResource(this, observed);
+            TransactionSynchronizationManager.registerSynchronization(observed);
+        }
+        return observed.balances;
+    }
+
+    private class ObservedBalances implements TransactionSynchronization {
+        private final Map<String, Integer> balances = new HashMap<>();
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(MemberLedgerRepository.this);
+        }
+    }
+
+    /**
+     * 오래된 원장부터 compactionBatchSize 건을 member.money 스냅샷으로 접는다.
+     * 접은 원장만 id 로 지우므로 압축 중에 추가된 원장은 다음 압축에서 처리된다.
+     *
+     * @return 접은 원장 건수
+     */
+    public int compact() {
+        Integer folded = txTemplate.execute(status -> {
+            List<Long> ledgerIds = new ArrayList<>();
+            Map<String, long[]> foldByMemberId = new TreeMap<>(); //memberId 순서로 잠그도록 정렬. {delta 합, 건수}
+            RowCallbackHandler handler = rs -> {
+                ledgerIds.add(rs.getLong(1));
+                long[] fold = foldByMemberId.computeIfAbsent(rs.getString(2), memberId -> new long[2]);
+                fold[0] += rs.getInt(3);
+                fold[1]++;
+            };
+            template.query(MemberLedgerSql.SELECT_OLDEST, handler, compactionBatchSize);
+            if (ledgerIds.isEmpty()) {
+                return 0;
+            }
+
+            List<Object[]> folds = new ArrayList<>(foldByMemberId.size());
+            foldByMemberId.forEach((memberId, fold) -> folds.add(new Object[]{Math.toIntExact(fold[0]), fold[1], memberId}));
+            template.batchUpdate(MemberLedgerSql.FOLD, folds);
+
+            List<Object[]> deletes = new ArrayList<>(ledgerIds.size());
+            ledgerIds.forEach(ledgerId -> deletes.add(new Object[]{ledgerId}));
+            template.batchUpdate(MemberLedgerSql.DELETE_BY_LEDGER_ID, deletes);
+            return ledgerIds.size();
+        });
+        int count = folded == null ? 0 : folded;
+        compactedEntries.add(count);
+        return count;
+    }
+
+    /**
+     * periodMillis 마다 쌓인 원장을 모두 압축하는 백그라운드 스레드를 시작한다.
+     */
+    public synchronized void startCompaction(long periodMillis) {
+        if (compactor != null) {
+            throw new IllegalStateException("compaction already started");
+        }
+        compactor = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "member-ledger-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(() -> {
+            try {
+                while (compact() == compactionBatchSize) {
+                    //한 번에 다 접지 못했으면 이어서 압축
+                }
+            } catch (RuntimeException e) {
+                log.warn("member ledger compaction failed", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getCompactedEntries() {
+        return compactedEntries.sum();
+    }
+
+    @Override
+    public synchronized void close() {
+        if (compactor == null) {
+            return;
+        }
+        compactor.shutdown();
+        try {
+            compactor.awaitTermination(10, TimeUnit.SECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        compactor = null;
+    }
+}
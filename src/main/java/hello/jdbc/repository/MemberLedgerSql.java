@@ -0,0 +1,29 @@
+package hello.jdbc.repository;
+
+/**
+ * member_ledger (이체 원장) SQL 모음. 테이블은 MemberSchemaInitializer 가 만든다.
+ *
+ * 잔액 = member.money(스냅샷) + 아직 접지 않은 원장 delta 의 합
+ * version = member.version + 아직 접지 않은 원장 건수 (원장 한 건이 변경 한 번)
+ * 압축(compaction)은 delta 합을 money 에, 건수를 version 에 더하고 원장을 지우므로 잔액과 version 은 그대로다.
+ */
+public abstract class MemberLedgerSql {  //생성하지 못하도록 abstract class
+    public static final String SELECT_BY_ID = "select m.member_id,"
+            + " m.money + (select coalesce(sum(l.delta), 0) from member_ledger l where l.member_id = m.member_id) as money,"
+            + " m.version + (select count(*) from member_ledger l where l.member_id = m.member_id) as version"
+            + " from member m where m.member_id = ?";
+    public static final String SELECT_ALL = "select m.member_id,"
+            + " m.money + coalesce(l.delta, 0) as money, m.version + coalesce(l.cnt, 0) as version"
+            + " from member m left join (select member_id, sum(delta) as delta, count(*) as cnt from member_ledger group by member_id) l"
+            + " on l.member_id = m.member_id";
+    //입금은 잠금 없이 추가만 한다. 회원이 없으면 0건
+    public static final String APPEND_IF_EXISTS = "insert into member_ledger(member_id, delta) select member_id, ? from member where member_id = ?";
+    public static final String APPEND = "insert into member_ledger(member_id, delta) values (?, ?)";
+    public static final String APPEND_TRANSFER = "insert into member_ledger(member_id, delta) values (?, ?), (?, ?)";
+    public static final String DELETE_BY_MEMBER_ID = "delete from member_ledger where member_id = ?";
+
+    //압축 : 오래된 원장부터 읽어서 접은 뒤, 읽은 원장만 id 로 지운다. (그 사이 커밋된 원장을 접지 않고 지우지 않도록)
+    public static final String SELECT_OLDEST = "select ledger_id, member_id, delta from member_ledger order by ledger_id limit ?";
+    public static final String FOLD = "update member set money = money + ?, version = version + ? where member_id = ?";
+    public static final String DELETE_BY_LEDGER_ID = "delete from member_ledger where ledger_id = ?";
+}
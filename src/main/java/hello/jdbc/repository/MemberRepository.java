@@ -1,12 +1,78 @@
 package hello.jdbc.repository;
 
 import hello.jdbc.domain.Member;
+import org.springframework.dao.EmptyResultDataAccessException;
 
 import java.sql.SQLException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.stream.Stream;
 
 public interface MemberRepository {
     Member save(Member member);
     Member findById(String memberId);
+
+    //조회하면서 행 잠금(select ... for update). 트랜잭션이 끝날 때까지 다른 트랜잭션은 이 행을 변경하거나 잠글 수 없다.
+    Member findByIdForUpdate(String memberId);
     void update(String memberId, int money);
+
+    //version 이 expectedVersion 일 때만 변경하고 version 을 증가시킨다. 다른 트랜잭션이 먼저 변경했으면 0
+    //증가 폭은 구현마다 다르다. (JDBC 구현은 1씩, JournaledMemberRepository 는 전역 시계 값) 읽은 version 을 그대로 넘기고 계산하지 않는다.
+    int update(String memberId, int money, long expectedVersion);
     void delete(String memberId);
+
+    //원자적 증감. 읽고-계산하고-쓰는 대신 DB 에서 money = money + delta 로 처리한다. 반환값은 변경된 행 수
+    int addMoney(String memberId, int delta);
+
+    //잔액이 amount 이상일 때만 차감한다. 회원이 없거나 잔액이 부족하면 0
+    int withdraw(String memberId, int amount);
+
+    //fromId 에서 toId 로 money 를 한 문장(1 round trip)으로 이체한다. 성공하면 2, 회원이 없거나 잔액이 부족하면 2 미만
+    int transfer(String fromId, String toId, int money);
+
+    //여러 건 조회. 없는 memberId 는 예외 없이 결과 Map 에서 빠진다.
+    //기본 구현은 한 건씩 조회하고, MemberRepositoryV4_2, MemberRepositoryV5 는 IN 절로 나눠서 조회한다.
+    default Map<String, Member> findAllById(Collection<String> memberIds) {
+        Map<String, Member> result = new HashMap<>();
+        for (String memberId : memberIds) {
+            try {
+                result.put(memberId, findById(memberId));
+            } catch (NoSuchElementException | EmptyResultDataAccessException e) {
+                //없는 회원은 결과에서 제외
+            }
+        }
+        return result;
+    }
+
+    //전체 조회. 열린 ResultSet 에서 한 행씩 읽으므로 반드시 try-with-resources 로 닫아야 한다.
+    Stream<Member> streamAll();
+
+    //전체 (memberId, money) 스캔. 기본 구현은 streamAll 을 사용하고, MemberRepositoryV5 는 Member 객체 없이 컬럼 인덱스로 읽는다.
+    default void scan(MemberVisitor visitor) {
+        try (Stream<Member> stream = streamAll()) {
+            stream.forEach(member -> visitor.visit(member.getMemberId(), member.getMoney()));
+        }
+    }
+
+    //변경이 모두 JDBC 커넥션 안에 있어서 savepoint 로 되돌릴 수 있으면 true. (TransferBatcher 가 이체마다 savepoint 를 사용)
+    //메모리 리포지토리는 savepoint 롤백이 메모리의 변경을 되돌리지 못하므로 false
+    default boolean supportsSavepoints() {
+        return true;
+    }
+
+    //배치 쓰기. 기본 구현은 한 건씩 처리하고, MemberRepositoryV4_2, MemberRepositoryV5 는 JDBC 배치로 처리한다.
+    //여러 청크로 나뉘어 실행되므로 전부 성공 또는 전부 실패를 원하면 트랜잭션 안에서 호출해야 한다.
+    default void saveAll(Collection<Member> members) {
+        members.forEach(this::save);
+    }
+
+    default void updateAll(Map<String, Integer> moneyByMemberId) {
+        moneyByMemberId.forEach(this::update);
+    }
+
+    default void deleteAll(Collection<String> memberIds) {
+        memberIds.forEach(this::delete);
+    }
 }
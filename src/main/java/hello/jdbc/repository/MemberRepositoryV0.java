@@ -1,5 +1,6 @@
 package hello.jdbc.repository;
 
+import hello.jdbc.connection.ConnectionProvider;
 import hello.jdbc.connection.DBConnectionUtil;
 import hello.jdbc.domain.Member;
 import lombok.extern.slf4j.Slf4j;
@@ -12,6 +13,14 @@ import java.util.NoSuchElementException;
  */
 @Slf4j
 public class MemberRepositoryV0 {
+
+    //DBConnectionUtil 의 커넥션 풀을 사용한다. 커넥션을 빌리기 전에 회원 SQL 을 미리 prepare 하도록 등록
+    static {
+        DBConnectionUtil.setPreparedStatementCatalog(MemberSql.ALL);
+    }
+
+    private final ConnectionProvider connectionProvider = new ConnectionProvider(DBConnectionUtil.getDataSource());
+
     public Member save(Member member) throws SQLException {
         String sql = "insert into member(member_id, money) values(?,?)";
 
@@ -41,7 +50,7 @@ public class MemberRepositoryV0 {
         ResultSet rs = null;
 
         try {
-            con = DBConnectionUtil.getConnection();
+            con = getConnection();
             pstmt = con.prepareStatement(sql);
             pstmt.setString(1,memberId);
             rs = pstmt.executeQuery(); //rs = 내부 커서를 이용하여 조회
@@ -104,34 +113,10 @@ public class MemberRepositoryV0 {
     }
 
     private void close(Connection con, Statement stmt, ResultSet rs) {
-        //역순으로 close
-
-        if(rs != null) {
-            try {
-                rs.close();
-            } catch (SQLException e) {
-                log.error("error",e);
-            }
-        }
-
-        if(stmt != null) {
-            try {
-                stmt.close();
-            } catch (SQLException e) {
-                log.error("error",e);
-            }
-        }
-
-        if(con != null) {
-            try {
-                con.close();
-            } catch (SQLException e) {
-                log.error("error",e);
-            }
-        }
+        connectionProvider.close(con, stmt, rs);
     }
 
-    private Connection getConnection() {
-        return DBConnectionUtil.getConnection();
+    private Connection getConnection() throws SQLException {
+        return connectionProvider.getConnection();
     }
 }
@@ -1,6 +1,6 @@
 package hello.jdbc.repository;
 
-import hello.jdbc.connection.DBConnectionUtil;
+import hello.jdbc.connection.ConnectionProvider;
 import hello.jdbc.domain.Member;
 import lombok.extern.slf4j.Slf4j;
 import org.springframework.jdbc.support.JdbcUtils;
@@ -19,10 +19,10 @@ public class MemberRepositoryV2 {
     //변경하지 않아도 된다. MemberRepositoryV1 는 DataSource 인터페이스에만 의존하기 때문이다.
     //이것이 DataSource 를 사용하는 장점이다.(DI + OCP)
     //DataSource는 커넥션을 획득하는 방법을 추상화한 인터페이스
-    private final DataSource dataSource;
+    private final ConnectionProvider connectionProvider;
 
     public MemberRepositoryV2(DataSource dataSource) {
-        this.dataSource = dataSource;
+        this.connectionProvider = new ConnectionProvider(dataSource);
     }
 
     public Member save(Member member) throws SQLException {
@@ -54,7 +54,7 @@ public class MemberRepositoryV2 {
         ResultSet rs = null;
 
         try {
-            con = DBConnectionUtil.getConnection();
+            con = getConnection();
             pstmt = con.prepareStatement(sql);
             pstmt.setString(1,memberId);
             rs = pstmt.executeQuery(); //rs = 내부 커서를 이용하여 조회
@@ -164,16 +164,10 @@ public class MemberRepositoryV2 {
     }
 
     private void close(Connection con, Statement stmt, ResultSet rs) {
-
-        //역순으로 close
-        JdbcUtils.closeResultSet(rs);
-        JdbcUtils.closeStatement(stmt);
-        JdbcUtils.closeConnection(con);
+        connectionProvider.close(con, stmt, rs);
     }
 
     private Connection getConnection() throws SQLException {
-        Connection con = dataSource.getConnection();
-        log.info("get connection = {}, class = {}",con,con.getClass());
-        return con;
+        return connectionProvider.getConnection();
     }
 }
@@ -1,10 +1,8 @@
 package hello.jdbc.repository;
 
-import hello.jdbc.connection.DBConnectionUtil;
+import hello.jdbc.connection.ConnectionProvider;
 import hello.jdbc.domain.Member;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.jdbc.datasource.DataSourceUtils;
-import org.springframework.jdbc.support.JdbcUtils;
 
 import javax.sql.DataSource;
 import java.sql.*;
@@ -22,14 +20,14 @@ public class MemberRepositoryV3 {
     //변경하지 않아도 된다. MemberRepositoryV1 는 DataSource 인터페이스에만 의존하기 때문이다.
     //이것이 DataSource 를 사용하는 장점이다.(DI + OCP)
     //DataSource는 커넥션을 획득하는 방법을 추상화한 인터페이스
-    private final DataSource dataSource;
+    private final ConnectionProvider connectionProvider;
 
     public MemberRepositoryV3(DataSource dataSource) {
-        this.dataSource = dataSource;
+        this.connectionProvider = new ConnectionProvider(dataSource);
     }
 
     public Member save(Member member) throws SQLException {
-        String sql = "insert into member(member_id, money) values(?,?)";
+        String sql = MemberSql.INSERT;
 
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -50,14 +48,14 @@ public class MemberRepositoryV3 {
     }
 
     public Member findById(String memberId) throws SQLException {
-        String sql = "select * from member where member_id = ?";
+        String sql = MemberSql.SELECT_BY_ID;
 
         Connection con = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
 
         try {
-            con = DBConnectionUtil.getConnection();
+            con = getConnection();
             pstmt = con.prepareStatement(sql);
             pstmt.setString(1,memberId);
             rs = pstmt.executeQuery(); //rs = 내부 커서를 이용하여 조회
@@ -80,7 +78,7 @@ public class MemberRepositoryV3 {
     }
 
     public void update(String memberId, int money) throws SQLException {
-        String sql = "update member set money = ? where member_id = ?";
+        String sql = MemberSql.UPDATE;
         Connection con = null;
         PreparedStatement pstmt = null;
 
@@ -101,7 +99,7 @@ public class MemberRepositoryV3 {
 
 
     public void delete(String memberId) throws SQLException {
-        String sql = "delete from member where member_id = ?";
+        String sql = MemberSql.DELETE;
 
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -121,20 +119,10 @@ public class MemberRepositoryV3 {
     }
 
     private void close(Connection con, Statement stmt, ResultSet rs) {
-
-        //역순으로 close
-        JdbcUtils.closeResultSet(rs);
-        JdbcUtils.closeStatement(stmt);
-
-        //주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils을 사용해야된다.
-        DataSourceUtils.releaseConnection(con, dataSource);
-//        JdbcUtils.closeConnection(con);
+        connectionProvider.close(con, stmt, rs);
     }
 
     private Connection getConnection() throws SQLException {
-        //주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils을 사용해야된다.
-        Connection con = DataSourceUtils.getConnection(dataSource);
-        log.info("get connection = {}, class = {}",con,con.getClass());
-        return con;
+        return connectionProvider.getConnection();
     }
 }
@@ -1,15 +1,15 @@
 package hello.jdbc.repository;
 
-import hello.jdbc.connection.DBConnectionUtil;
+import hello.jdbc.connection.ConnectionProvider;
 import hello.jdbc.domain.Member;
 import hello.jdbc.repository.ex.MyDbException;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.jdbc.datasource.DataSourceUtils;
-import org.springframework.jdbc.support.JdbcUtils;
+import org.springframework.jdbc.core.RowMapper;
 
 import javax.sql.DataSource;
 import java.sql.*;
 import java.util.NoSuchElementException;
+import java.util.stream.Stream;
 
 /**
  * 예외 누수 문제 해결
@@ -24,15 +24,15 @@ public class MemberRepositoryV4_1 implements MemberRepository {
     //변경하지 않아도 된다. MemberRepositoryV1 는 DataSource 인터페이스에만 의존하기 때문이다.
     //이것이 DataSource 를 사용하는 장점이다.(DI + OCP)
     //DataSource는 커넥션을 획득하는 방법을 추상화한 인터페이스
-    private final DataSource dataSource;
+    private final ConnectionProvider connectionProvider;
 
     public MemberRepositoryV4_1(DataSource dataSource) {
-        this.dataSource = dataSource;
+        this.connectionProvider = new ConnectionProvider(dataSource);
     }
 
     @Override
     public Member save(Member member){
-        String sql = "insert into member(member_id, money) values(?,?)";
+        String sql = MemberSql.INSERT;
 
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -53,14 +53,21 @@ public class MemberRepositoryV4_1 implements MemberRepository {
 
     @Override
     public Member findById(String memberId) {
-        String sql = "select * from member where member_id = ?";
+        return findOne(MemberSql.SELECT_BY_ID, memberId);
+    }
+
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return findOne(MemberSql.SELECT_BY_ID_FOR_UPDATE, memberId);
+    }
 
+    private Member findOne(String sql, String memberId) {
         Connection con = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
 
         try {
-            con = DBConnectionUtil.getConnection();
+            con = getConnection();
             pstmt = con.prepareStatement(sql);
             pstmt.setString(1,memberId);
             rs = pstmt.executeQuery(); //rs = 내부 커서를 이용하여 조회
@@ -69,6 +76,7 @@ public class MemberRepositoryV4_1 implements MemberRepository {
                 Member member = new Member();
                 member.setMemberId(rs.getString("member_id"));
                 member.setMoney(rs.getInt("money"));
+                member.setVersion(rs.getLong("version"));
                 return member;
             } else {
                 throw new NoSuchElementException("member not found memberId = " + memberId);
@@ -81,9 +89,44 @@ public class MemberRepositoryV4_1 implements MemberRepository {
         }
     }
 
+    @Override
+    public Stream<Member> streamAll() {
+        String sql = MemberSql.SELECT_ALL;
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setFetchSize(ResultSetStreams.DEFAULT_FETCH_SIZE);
+            rs = pstmt.executeQuery();
+
+            Connection openCon = con;
+            PreparedStatement openPstmt = pstmt;
+            ResultSet openRs = rs;
+            return ResultSetStreams.of(rs, memberRowMapper(), () -> close(openCon, openPstmt, openRs),
+                    e -> new MyDbException(e));
+        } catch (SQLException e) {
+            close(con,pstmt,rs);
+            throw new MyDbException(e);
+        }
+    }
+
+    private RowMapper<Member> memberRowMapper() {
+        return (rs, rowNum) -> {
+            Member member = new Member();
+            member.setMemberId(rs.getString("member_id"));
+            member.setMoney(rs.getInt("money"));
+            member.setVersion(rs.getLong("version"));
+            return member;
+        };
+    }
+
     @Override
     public void update(String memberId, int money) {
-        String sql = "update member set money = ? where member_id = ?";
+        String sql = MemberSql.UPDATE;
         Connection con = null;
         PreparedStatement pstmt = null;
 
@@ -101,9 +144,92 @@ public class MemberRepositoryV4_1 implements MemberRepository {
         }
     }
 
+    @Override
+    public int update(String memberId, int money, long expectedVersion) {
+        String sql = MemberSql.UPDATE_VERSIONED;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setInt(1,money);
+            pstmt.setString(2,memberId);
+            pstmt.setLong(3,expectedVersion);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con,pstmt,null);
+        }
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        String sql = MemberSql.ADD_MONEY;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setInt(1,delta);
+            pstmt.setString(2,memberId);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con,pstmt,null);
+        }
+    }
+
+    @Override
+    public int withdraw(String memberId, int amount) {
+        String sql = MemberSql.WITHDRAW;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setInt(1,amount);
+            pstmt.setString(2,memberId);
+            pstmt.setInt(3,amount);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con,pstmt,null);
+        }
+    }
+
+    @Override
+    public int transfer(String fromId, String toId, int money) {
+        String sql = MemberSql.TRANSFER;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setString(1,fromId);
+            pstmt.setInt(2,money);
+            pstmt.setInt(3,money);
+            pstmt.setString(4,fromId);
+            pstmt.setString(5,toId);
+            pstmt.setString(6,fromId);
+            pstmt.setInt(7,money);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw new MyDbException(e);
+        } finally {
+            close(con,pstmt,null);
+        }
+    }
+
     @Override
     public void delete(String memberId) {
-        String sql = "delete from member where member_id = ?";
+        String sql = MemberSql.DELETE;
 
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -122,20 +248,10 @@ public class MemberRepositoryV4_1 implements MemberRepository {
     }
 
     private void close(Connection con, Statement stmt, ResultSet rs) {
-
-        //역순으로 close
-        JdbcUtils.closeResultSet(rs);
-        JdbcUtils.closeStatement(stmt);
-
-        //주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils을 사용해야된다.
-        DataSourceUtils.releaseConnection(con, dataSource);
-//        JdbcUtils.closeConnection(con);
+        connectionProvider.close(con, stmt, rs);
     }
 
     private Connection getConnection() throws SQLException {
-        //주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils을 사용해야된다.
-        Connection con = DataSourceUtils.getConnection(dataSource);
-        log.info("get connection = {}, class = {}",con,con.getClass());
-        return con;
+        return connectionProvider.getConnection();
     }
 }
@@ -1,17 +1,26 @@
 package hello.jdbc.repository;
 
-import hello.jdbc.connection.DBConnectionUtil;
+import hello.jdbc.connection.ConnectionProvider;
 import hello.jdbc.domain.Member;
 import hello.jdbc.repository.ex.MyDbException;
 import lombok.extern.slf4j.Slf4j;
-import org.springframework.jdbc.datasource.DataSourceUtils;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.RowMapper;
 import org.springframework.jdbc.support.JdbcUtils;
 import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
 import org.springframework.jdbc.support.SQLExceptionTranslator;
 
 import javax.sql.DataSource;
 import java.sql.*;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * SQLExceptionTranslator 추가
@@ -23,18 +32,27 @@ public class MemberRepositoryV4_2 implements MemberRepository {
     //변경하지 않아도 된다. MemberRepositoryV1 는 DataSource 인터페이스에만 의존하기 때문이다.
     //이것이 DataSource 를 사용하는 장점이다.(DI + OCP)
     //DataSource는 커넥션을 획득하는 방법을 추상화한 인터페이스
-    private final DataSource dataSource;
+    private final ConnectionProvider connectionProvider;
 
     private final SQLExceptionTranslator exTranslator;
 
+    private final int batchSize; //saveAll, updateAll, deleteAll 한 번에 보낼 최대 건수
+
+    private int fetchSize = ResultSetStreams.DEFAULT_FETCH_SIZE; //streamAll 에서 한 번에 가져올 행 수
+
     public MemberRepositoryV4_2(DataSource dataSource) {
-        this.dataSource = dataSource;
+        this(dataSource, BatchSupport.DEFAULT_BATCH_SIZE);
+    }
+
+    public MemberRepositoryV4_2(DataSource dataSource, int batchSize) {
+        this.connectionProvider = new ConnectionProvider(dataSource);
         this.exTranslator = new SQLErrorCodeSQLExceptionTranslator(dataSource);
+        this.batchSize = BatchSupport.checkBatchSize(batchSize);
     }
 
     @Override
     public Member save(Member member){
-        String sql = "insert into member(member_id, money) values(?,?)";
+        String sql = MemberSql.INSERT;
 
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -55,14 +73,21 @@ public class MemberRepositoryV4_2 implements MemberRepository {
 
     @Override
     public Member findById(String memberId) {
-        String sql = "select * from member where member_id = ?";
+        return findOne("findById", MemberSql.SELECT_BY_ID, memberId);
+    }
 
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return findOne("findByIdForUpdate", MemberSql.SELECT_BY_ID_FOR_UPDATE, memberId);
+    }
+
+    private Member findOne(String task, String sql, String memberId) {
         Connection con = null;
         PreparedStatement pstmt = null;
         ResultSet rs = null;
 
         try {
-            con = DBConnectionUtil.getConnection();
+            con = getConnection();
             pstmt = con.prepareStatement(sql);
             pstmt.setString(1,memberId);
             rs = pstmt.executeQuery(); //rs = 내부 커서를 이용하여 조회
@@ -71,21 +96,131 @@ public class MemberRepositoryV4_2 implements MemberRepository {
                 Member member = new Member();
                 member.setMemberId(rs.getString("member_id"));
                 member.setMoney(rs.getInt("money"));
+                member.setVersion(rs.getLong("version"));
                 return member;
             } else {
                 throw new NoSuchElementException("member not found memberId = " + memberId);
             }
 
         } catch (SQLException e) {
-            throw exTranslator.translate("findById",sql,e);
+            throw exTranslator.translate(task,sql,e);
+        } finally {
+            close(con,pstmt,rs);
+        }
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        List<String> ids = List.copyOf(new LinkedHashSet<>(memberIds));
+        Map<String, Member> result = new HashMap<>();
+        if (ids.isEmpty()) {
+            return result;
+        }
+
+        String sql = null;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            for (int from = 0; from < ids.size(); from += MemberSql.inShape(ids.size() - from)) {
+                int shape = MemberSql.inShape(ids.size() - from);
+                sql = MemberSql.selectIn(shape);
+                pstmt = con.prepareStatement(sql);
+                String[] args = BatchSupport.inListArgs(ids, from, shape);
+                for (int i = 0; i < args.length; i++) {
+                    pstmt.setString(i + 1, args[i]);
+                }
+                rs = pstmt.executeQuery();
+                while (rs.next()) {
+                    Member member = new Member();
+                    member.setMemberId(rs.getString("member_id"));
+                    member.setMoney(rs.getInt("money"));
+                    member.setVersion(rs.getLong("version"));
+                    result.put(member.getMemberId(), member);
+                }
+                JdbcUtils.closeResultSet(rs);
+                JdbcUtils.closeStatement(pstmt);
+                rs = null;
+                pstmt = null;
+            }
+        } catch (SQLException e) {
+            throw exTranslator.translate("findAllById",sql,e);
+        } finally {
+            close(con,pstmt,rs);
+        }
+
+        if (result.size() < ids.size()) {
+            log.info("findAllById missing memberIds = {}", BatchSupport.missingIds(ids, result));
+        }
+        return result;
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        String sql = MemberSql.SELECT_ALL;
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setFetchSize(fetchSize);
+            rs = pstmt.executeQuery();
+
+            Connection openCon = con;
+            PreparedStatement openPstmt = pstmt;
+            ResultSet openRs = rs;
+            return ResultSetStreams.of(rs, memberRowMapper(), () -> close(openCon, openPstmt, openRs),
+                    e -> exTranslator.translate("streamAll",sql,e));
+        } catch (SQLException e) {
+            close(con,pstmt,rs);
+            throw exTranslator.translate("streamAll",sql,e);
+        }
+    }
+
+    /**
+     * 정산용 전체 스캔. streamAll 과 달리 행마다 Member 를 만들지 않고, 컬럼을 이름 대신 인덱스로 읽는다.
+     */
+    @Override
+    public void scan(MemberVisitor visitor) {
+        String sql = MemberSql.SCAN;
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+        ResultSet rs = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setFetchSize(fetchSize);
+            rs = pstmt.executeQuery();
+            while (rs.next()) {
+                visitor.visit(rs.getString(1), rs.getInt(2));
+            }
+        } catch (SQLException e) {
+            throw exTranslator.translate("scan",sql,e);
         } finally {
             close(con,pstmt,rs);
         }
     }
 
+    private RowMapper<Member> memberRowMapper() {
+        return (rs, rowNum) -> {
+            Member member = new Member();
+            member.setMemberId(rs.getString("member_id"));
+            member.setMoney(rs.getInt("money"));
+            member.setVersion(rs.getLong("version"));
+            return member;
+        };
+    }
+
     @Override
     public void update(String memberId, int money) {
-        String sql = "update member set money = ? where member_id = ?";
+        String sql = MemberSql.UPDATE;
         Connection con = null;
         PreparedStatement pstmt = null;
 
@@ -103,9 +238,92 @@ public class MemberRepositoryV4_2 implements MemberRepository {
         }
     }
 
+    @Override
+    public int update(String memberId, int money, long expectedVersion) {
+        String sql = MemberSql.UPDATE_VERSIONED;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setInt(1,money);
+            pstmt.setString(2,memberId);
+            pstmt.setLong(3,expectedVersion);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw exTranslator.translate("update",sql,e);
+        } finally {
+            close(con,pstmt,null);
+        }
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        String sql = MemberSql.ADD_MONEY;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setInt(1,delta);
+            pstmt.setString(2,memberId);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw exTranslator.translate("addMoney",sql,e);
+        } finally {
+            close(con,pstmt,null);
+        }
+    }
+
+    @Override
+    public int withdraw(String memberId, int amount) {
+        String sql = MemberSql.WITHDRAW;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setInt(1,amount);
+            pstmt.setString(2,memberId);
+            pstmt.setInt(3,amount);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw exTranslator.translate("withdraw",sql,e);
+        } finally {
+            close(con,pstmt,null);
+        }
+    }
+
+    @Override
+    public int transfer(String fromId, String toId, int money) {
+        String sql = MemberSql.TRANSFER;
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            pstmt.setString(1,fromId);
+            pstmt.setInt(2,money);
+            pstmt.setInt(3,money);
+            pstmt.setString(4,fromId);
+            pstmt.setString(5,toId);
+            pstmt.setString(6,fromId);
+            pstmt.setInt(7,money);
+            return pstmt.executeUpdate();
+        } catch (SQLException e) {
+            throw exTranslator.translate("transfer",sql,e);
+        } finally {
+            close(con,pstmt,null);
+        }
+    }
+
     @Override
     public void delete(String memberId) {
-        String sql = "delete from member where member_id = ?";
+        String sql = MemberSql.DELETE;
 
         Connection con = null;
         PreparedStatement pstmt = null;
@@ -123,21 +341,76 @@ public class MemberRepositoryV4_2 implements MemberRepository {
         }
     }
 
-    private void close(Connection con, Statement stmt, ResultSet rs) {
+    @Override
+    public void saveAll(Collection<Member> members) {
+        executeBatch("saveAll", MemberSql.INSERT, List.copyOf(members), Member::getMemberId, (pstmt, member) -> {
+            pstmt.setString(1, member.getMemberId());
+            pstmt.setInt(2, member.getMoney());
+        });
+    }
+
+    @Override
+    public void updateAll(Map<String, Integer> moneyByMemberId) {
+        executeBatch("updateAll", MemberSql.UPDATE, new ArrayList<>(moneyByMemberId.entrySet()), Map.Entry::getKey, (pstmt, entry) -> {
+            pstmt.setInt(1, entry.getValue());
+            pstmt.setString(2, entry.getKey());
+        });
+    }
+
+    @Override
+    public void deleteAll(Collection<String> memberIds) {
+        executeBatch("deleteAll", MemberSql.DELETE, List.copyOf(memberIds), Function.identity(), (pstmt, memberId) -> {
+            pstmt.setString(1, memberId);
+        });
+    }
+
+    /**
+     * batchSize 단위로 addBatch / executeBatch 한다.
+     * 실패하면 실패한 memberId 를 작업 이름에 담아 예외 변환기로 변환한다. (DuplicateKeyException 등)
+     */
+    private <T> void executeBatch(String task, String sql, List<T> items, Function<T, String> memberIdOf,
+                                  ParameterizedPreparedStatementSetter<T> setter) {
+        if (items.isEmpty()) {
+            return;
+        }
+
+        Connection con = null;
+        PreparedStatement pstmt = null;
+
+        try {
+            con = getConnection();
+            pstmt = con.prepareStatement(sql);
+            for (int from = 0; from < items.size(); from += batchSize) {
+                List<T> chunk = items.subList(from, Math.min(from + batchSize, items.size()));
+                for (T item : chunk) {
+                    setter.setValues(pstmt, item);
+                    pstmt.addBatch();
+                }
+                try {
+                    int[] resultSizes = pstmt.executeBatch();
+                    log.info("{} batch resultSize = {}", task, resultSizes.length);
+                } catch (BatchUpdateException e) {
+                    List<String> failed = BatchSupport.failedMemberIds(e, chunk, memberIdOf);
+                    log.info("{} failed memberIds = {}", task, failed);
+                    throw exTranslator.translate(task + " failed memberIds=" + failed, sql, e);
+                }
+            }
+        } catch (SQLException e) {
+            throw exTranslator.translate(task, sql, e);
+        } finally {
+            close(con,pstmt,null);
+        }
+    }
 
-        //역순으로 close
-        JdbcUtils.closeResultSet(rs);
-        JdbcUtils.closeStatement(stmt);
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
 
-        //주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils을 사용해야된다.
-        DataSourceUtils.releaseConnection(con, dataSource);
-//        JdbcUtils.closeConnection(con);
+    private void close(Connection con, Statement stmt, ResultSet rs) {
+        connectionProvider.close(con, stmt, rs);
     }
 
     private Connection getConnection() throws SQLException {
-        //주의! 트랜잭션 동기화를 사용하려면 DataSourceUtils을 사용해야된다.
-        Connection con = DataSourceUtils.getConnection(dataSource);
-        log.info("get connection = {}, class = {}",con,con.getClass());
-        return con;
+        return connectionProvider.getConnection();
     }
 }
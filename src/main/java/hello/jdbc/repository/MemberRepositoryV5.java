@@ -2,10 +2,23 @@ package hello.jdbc.repository;
 
 import hello.jdbc.domain.Member;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DataAccessException;
 import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.ParameterizedPreparedStatementSetter;
+import org.springframework.jdbc.core.RowCallbackHandler;
 import org.springframework.jdbc.core.RowMapper;
 
 import javax.sql.DataSource;
+import java.sql.BatchUpdateException;
+import java.sql.PreparedStatement;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Function;
+import java.util.stream.Stream;
 
 /**
  * JdbcTemplate 사용
@@ -14,41 +27,172 @@ import javax.sql.DataSource;
 public class MemberRepositoryV5 implements MemberRepository {
     private final JdbcTemplate template;
 
+    private final int batchSize; //saveAll, updateAll, deleteAll 한 번에 보낼 최대 건수
+
+    private int fetchSize = ResultSetStreams.DEFAULT_FETCH_SIZE; //streamAll 에서 한 번에 가져올 행 수
+
     public MemberRepositoryV5(DataSource dataSource) {
+        this(dataSource, BatchSupport.DEFAULT_BATCH_SIZE);
+    }
+
+    public MemberRepositoryV5(DataSource dataSource, int batchSize) {
         this.template = new JdbcTemplate(dataSource);
+        this.batchSize = BatchSupport.checkBatchSize(batchSize);
     }
 
     @Override
     public Member save(Member member){
-        String sql = "insert into member(member_id, money) values(?,?)";
+        String sql = MemberSql.INSERT;
         template.update(sql,member.getMemberId(), member.getMoney());
         return member;
     }
 
     @Override
     public Member findById(String memberId) {
-        String sql = "select * from member where member_id = ?";
+        String sql = MemberSql.SELECT_BY_ID;
         return template.queryForObject(sql, memberRowMapper(), memberId);
     }
 
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        String sql = MemberSql.SELECT_BY_ID_FOR_UPDATE;
+        return template.queryForObject(sql, memberRowMapper(), memberId);
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        List<String> ids = List.copyOf(new LinkedHashSet<>(memberIds));
+        Map<String, Member> result = new HashMap<>();
+        for (int from = 0; from < ids.size(); from += MemberSql.inShape(ids.size() - from)) {
+            int shape = MemberSql.inShape(ids.size() - from);
+            Object[] args = BatchSupport.inListArgs(ids, from, shape);
+            for (Member member : template.query(MemberSql.selectIn(shape), memberRowMapper(), args)) {
+                result.put(member.getMemberId(), member);
+            }
+        }
+
+        if (result.size() < ids.size()) {
+            log.info("findAllById missing memberIds = {}", BatchSupport.missingIds(ids, result));
+        }
+        return result;
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        //queryForStream 은 Stream 을 닫을 때 ResultSet, Statement, 커넥션을 정리한다.
+        Stream<Member> stream = template.queryForStream(con -> {
+            PreparedStatement pstmt = con.prepareStatement(MemberSql.SELECT_ALL);
+            pstmt.setFetchSize(fetchSize);
+            return pstmt;
+        }, memberRowMapper());
+        return ResultSetStreams.closingOnCompletion(stream);
+    }
+
+    /**
+     * 정산용 전체 스캔. RowMapper 와 달리 행마다 Member 를 만들지 않고, 컬럼을 이름 대신 인덱스로 읽는다.
+     * getString(1) 은 드라이버가 이미 가지고 있는 문자열을 그대로 돌려주므로 따로 복사하지 않는다.
+     */
+    @Override
+    public void scan(MemberVisitor visitor) {
+        RowCallbackHandler handler = rs -> visitor.visit(rs.getString(1), rs.getInt(2));
+        template.query(con -> {
+            PreparedStatement pstmt = con.prepareStatement(MemberSql.SCAN);
+            pstmt.setFetchSize(fetchSize);
+            return pstmt;
+        }, handler);
+    }
+
+    public void setFetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+    }
+
     private RowMapper<Member> memberRowMapper() {
         return (rs, rowNum) -> {
             Member member = new Member();
             member.setMemberId(rs.getString("member_id"));
             member.setMoney(rs.getInt("money"));
+            member.setVersion(rs.getLong("version"));
             return member;
         };
     }
 
     @Override
     public void update(String memberId, int money) {
-        String sql = "update member set money = ? where member_id = ?";
+        String sql = MemberSql.UPDATE;
         template.update(sql,money,memberId);
     }
 
+    @Override
+    public int update(String memberId, int money, long expectedVersion) {
+        String sql = MemberSql.UPDATE_VERSIONED;
+        return template.update(sql, money, memberId, expectedVersion);
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        return template.update(MemberSql.ADD_MONEY, delta, memberId);
+    }
+
+    @Override
+    public int withdraw(String memberId, int amount) {
+        return template.update(MemberSql.WITHDRAW, amount, memberId, amount);
+    }
+
+    @Override
+    public int transfer(String fromId, String toId, int money) {
+        return template.update(MemberSql.TRANSFER, fromId, money, money, fromId, toId, fromId, money);
+    }
+
     @Override
     public void delete(String memberId) {
-        String sql = "delete from member where member_id = ?";
+        String sql = MemberSql.DELETE;
         template.update(sql,memberId);
     }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        batchUpdate("saveAll", MemberSql.INSERT, List.copyOf(members), Member::getMemberId, (ps, member) -> {
+            ps.setString(1, member.getMemberId());
+            ps.setInt(2, member.getMoney());
+        });
+    }
+
+    @Override
+    public void updateAll(Map<String, Integer> moneyByMemberId) {
+        batchUpdate("updateAll", MemberSql.UPDATE, new ArrayList<>(moneyByMemberId.entrySet()), Map.Entry::getKey, (ps, entry) -> {
+            ps.setInt(1, entry.getValue());
+            ps.setString(2, entry.getKey());
+        });
+    }
+
+    @Override
+    public void deleteAll(Collection<String> memberIds) {
+        batchUpdate("deleteAll", MemberSql.DELETE, List.copyOf(memberIds), Function.identity(), (ps, memberId) -> {
+            ps.setString(1, memberId);
+        });
+    }
+
+    /**
+     * 실패한 청크를 알 수 있도록 batchSize 단위로 직접 나눠서 batchUpdate 한다.
+     * 실패하면 실패한 memberId 를 작업 이름에 담아 다시 변환한다.
+     */
+    private <T> void batchUpdate(String task, String sql, List<T> items, Function<T, String> memberIdOf,
+                                 ParameterizedPreparedStatementSetter<T> setter) {
+        for (int from = 0; from < items.size(); from += batchSize) {
+            List<T> chunk = items.subList(from, Math.min(from + batchSize, items.size()));
+            try {
+                template.batchUpdate(sql, chunk, chunk.size(), setter);
+            } catch (DataAccessException e) {
+                BatchUpdateException cause = BatchSupport.findBatchUpdateException(e);
+                if (cause == null) {
+                    throw e;
+                }
+                List<String> failed = BatchSupport.failedMemberIds(cause, chunk, memberIdOf);
+                log.info("{} failed memberIds = {}", task, failed);
+                DataAccessException translated = template.getExceptionTranslator()
+                        .translate(task + " failed memberIds=" + failed, sql, cause);
+                throw translated != null ? translated : e;
+            }
+        }
+    }
 }
@@ -0,0 +1,85 @@
+package hello.jdbc.repository;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * member 스키마 부트스트랩
+ * 테이블 자체는 기존처럼 미리 만들어 두고, 애플리케이션이 필요로 하는 컬럼과 DB 객체만 추가한다. (여러 번 실행해도 된다)
+ *
+ * version : 낙관적 락 컬럼. MemberSql 의 문장과 V3 이후 리포지토리의 RowMapper 가 모두 사용하므로 리포지토리를 쓰기 전에 실행되어야 한다.
+ * JdbcApplication 이 시작할 때 실행하고, 스프링 없이 리포지토리를 쓰는 테스트는 @BeforeEach 에서 직접 실행한다.
+ *
+ * member_ledger : 추가만 하는 이체 원장 (MemberLedgerRepository)
+ *
+ * member_id_block : MemberIdAllocator 가 memberId 구간을 예약하는 시퀀스 테이블 (이름별로 다음 값 한 행)
+ *
+ * TRANSFER_V1 : 출금 - 검증 - 입금을 DB 안에서 실행하는 H2 자바 함수
+ * H2 서버는 별도 프로세스이므로 애플리케이션 클래스를 참조할 수 없다. 그래서 소스를 인라인으로 등록하고
+ * H2 가 서버에서 컴파일한다. (H2 서버가 JDK 로 실행되어야 한다)
+ * 다른 인스턴스가 실행 중에 함수를 지우지 않도록 있으면 그대로 둔다. 함수 소스를 바꾸면 TRANSFER_ALIAS 의 버전을 올린다.
+ */
+@Slf4j
+public class MemberSchemaInitializer {
+
+    static final String ADD_VERSION_COLUMN = "alter table member add column if not exists version bigint default 0 not null";
+
+    static final String CREATE_LEDGER_TABLE = "create table if not exists member_ledger ("
+            + "ledger_id bigint generated by default as identity primary key,"
+            + " member_id varchar(10) not null,"
+            + " delta integer not null)";
+    static final String CREATE_LEDGER_INDEX = "create index if not exists member_ledger_member_id on member_ledger(member_id)";
+
+    static final String CREATE_ID_BLOCK_TABLE = "create table if not exists member_id_block ("
+            + "name varchar(32) primary key,"
+            + " next_value bigint not null)";
+    //이미 있으면 그대로 둔다. (다시 1부터 시작하면 발급한 memberId 와 겹친다)
+    static final String INSERT_ID_BLOCK = "insert into member_id_block(name, next_value)"
+            + " select ?, 0 where not exists (select 1 from member_id_block where name = ?)";
+
+    public static final String TRANSFER_ALIAS = "TRANSFER_V1";
+
+    //첫 번째 파라미터 Connection 은 H2 가 호출한 세션의 커넥션을 넘겨준다. (같은 트랜잭션)
+    //실패하면 SQLException 을 던지고, H2 는 CALL 문장 전체를 롤백한다.
+    static final String CREATE_TRANSFER_ALIAS = "create alias if not exists " + TRANSFER_ALIAS + " as $$\n"
+            + "int transfer(java.sql.Connection con, String fromId, String toId, int money) throws java.sql.SQLException {\n"
+            + "    try (java.sql.PreparedStatement pstmt = con.prepareStatement(\"" + MemberSql.WITHDRAW + "\")) {\n"
+            + "        pstmt.setInt(1, money);\n"
+            + "        pstmt.setString(2, fromId);\n"
+            + "        pstmt.setInt(3, money);\n"
+            + "        if (pstmt.executeUpdate() == 0) {\n"
+            + "            throw new java.sql.SQLException(\"잔액 부족 또는 회원 없음 memberId = \" + fromId);\n"
+            + "        }\n"
+            + "    }\n"
+            + "    if (toId.equals(\"ex\")) {\n"
+            + "        throw new java.sql.SQLException(\"이체중 예외 발생\");\n"
+            + "    }\n"
+            + "    try (java.sql.PreparedStatement pstmt = con.prepareStatement(\"" + MemberSql.ADD_MONEY + "\")) {\n"
+            + "        pstmt.setInt(1, money);\n"
+            + "        pstmt.setString(2, toId);\n"
+            + "        if (pstmt.executeUpdate() == 0) {\n"
+            + "            throw new java.sql.SQLException(\"회원 없음 memberId = \" + toId);\n"
+            + "        }\n"
+            + "    }\n"
+            + "    return 2;\n"
+            + "}\n"
+            + "$$";
+
+    private final JdbcTemplate template;
+
+    public MemberSchemaInitializer(DataSource dataSource) {
+        this.template = new JdbcTemplate(dataSource);
+    }
+
+    public void initialize() {
+        template.execute(ADD_VERSION_COLUMN);
+        template.execute(CREATE_LEDGER_TABLE);
+        template.execute(CREATE_LEDGER_INDEX);
+        template.execute(CREATE_ID_BLOCK_TABLE);
+        template.update(INSERT_ID_BLOCK, MemberIdAllocator.SEQUENCE_NAME, MemberIdAllocator.SEQUENCE_NAME);
+        template.execute(CREATE_TRANSFER_ALIAS);
+        log.info("member schema initialized (column version, table member_ledger, table member_id_block, alias {})", TRANSFER_ALIAS);
+    }
+}
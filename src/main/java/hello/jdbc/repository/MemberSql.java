@@ -0,0 +1,74 @@
+package hello.jdbc.repository;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * member 테이블 SQL 모음
+ * 모든 리포지토리가 같은 SQL 문자열을 사용해야 커넥션 풀의 PreparedStatement 캐시를 공유할 수 있다.
+ * ALL 은 커넥션 생성 시 미리 준비(prepare)할 목록이다. (MemberRepositoryV0 가 DBConnectionUtil.setPreparedStatementCatalog 로 등록)
+ *
+ * money 를 바꾸는 모든 문장은 version 을 1 증가시킨다. (낙관적 락 UPDATE_VERSIONED 가 다른 방식의 변경을 놓치지 않도록)
+ *
+ * findAllById 의 IN 절은 파라미터 개수를 IN_SHAPES 로 고정한다.
+ * 개수가 매번 달라지면 SQL 문자열이 달라져서 PreparedStatement 캐시와 실행 계획을 재사용할 수 없다.
+ */
+public abstract class MemberSql {  //생성하지 못하도록 abstract class
+    public static final String INSERT = "insert into member(member_id, money) values(?,?)";
+    public static final String SELECT_BY_ID = "select * from member where member_id = ?";
+    public static final String SELECT_BY_ID_FOR_UPDATE = "select * from member where member_id = ? for update";
+    public static final String UPDATE = "update member set money = ?, version = version + 1 where member_id = ?";
+    //compare-and-set. 읽은 뒤 다른 트랜잭션이 변경했으면 0건
+    public static final String UPDATE_VERSIONED = "update member set money = ?, version = version + 1 where member_id = ? and version = ?";
+    public static final String DELETE = "delete from member where member_id = ?";
+    public static final String ADD_MONEY = "update member set money = money + ?, version = version + 1 where member_id = ?";
+    public static final String WITHDRAW = "update member set money = money - ?, version = version + 1 where member_id = ? and money >= ?";
+    //출금과 입금을 한 문장으로. 출금 계좌는 잔액이 충분할 때만 갱신되므로 성공하면 2건이 변경된다.
+    public static final String TRANSFER = "update member set money = case when member_id = ? then money - ? else money + ? end, version = version + 1"
+            + " where member_id in (?, ?) and (member_id <> ? or money >= ?)";
+    //DB 함수 호출. 함수가 설치되기 전에는 prepare 할 수 없으므로 ALL 에는 넣지 않는다. (MemberSchemaInitializer)
+    public static final String CALL_TRANSFER = "call " + MemberSchemaInitializer.TRANSFER_ALIAS + "(?, ?, ?)";
+    public static final String SELECT_ALL = "select * from member";
+    public static final String SCAN = "select member_id, money from member"; //컬럼 순서 고정 (인덱스로 조회)
+
+    private static final int[] IN_SHAPES = {1, 8, 32, 128};
+    private static final List<String> SELECT_IN = selectInShapes();
+
+    public static final List<String> ALL = all();
+
+    /**
+     * remaining 건을 조회할 때 사용할 IN 절 파라미터 개수. 남은 건수 이상인 가장 작은 모양, 없으면 가장 큰 모양.
+     */
+    public static int inShape(int remaining) {
+        for (int shape : IN_SHAPES) {
+            if (shape >= remaining) {
+                return shape;
+            }
+        }
+        return IN_SHAPES[IN_SHAPES.length - 1];
+    }
+
+    public static String selectIn(int shape) {
+        for (int i = 0; i < IN_SHAPES.length; i++) {
+            if (IN_SHAPES[i] == shape) {
+                return SELECT_IN.get(i);
+            }
+        }
+        throw new IllegalArgumentException("unsupported IN shape = " + shape);
+    }
+
+    private static List<String> selectInShapes() {
+        List<String> sqls = new ArrayList<>();
+        for (int shape : IN_SHAPES) {
+            sqls.add("select * from member where member_id in (" + String.join(",", Collections.nCopies(shape, "?")) + ")");
+        }
+        return List.copyOf(sqls);
+    }
+
+    private static List<String> all() {
+        List<String> sqls = new ArrayList<>(List.of(INSERT, SELECT_BY_ID, SELECT_BY_ID_FOR_UPDATE, UPDATE, UPDATE_VERSIONED, DELETE, ADD_MONEY, WITHDRAW, TRANSFER, SELECT_ALL, SCAN));
+        sqls.addAll(SELECT_IN);
+        return List.copyOf(sqls);
+    }
+}
@@ -0,0 +1,24 @@
+package hello.jdbc.repository;
+
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.sql.DataSource;
+
+/**
+ * DB 함수 TRANSFER_V1 호출 (MemberSchemaInitializer 로 설치)
+ * 출금, 검증, 입금이 모두 DB 안에서 실행되므로 이체 한 건이 CALL 한 번(1 round trip)이다.
+ * 실패(잔액 부족, 회원 없음, 이체중 예외)는 JdbcTemplate 이 변환한 DataAccessException 으로 던져진다.
+ */
+public class MemberTransferProcedure {
+
+    private final JdbcTemplate template;
+
+    public MemberTransferProcedure(DataSource dataSource) {
+        this.template = new JdbcTemplate(dataSource);
+    }
+
+    public void transfer(String fromId, String toId, int money) {
+        //CALL 은 결과를 반환하는 쿼리이므로 update 가 아닌 queryForObject 로 실행
+        template.queryForObject(MemberSql.CALL_TRANSFER, Integer.class, fromId, toId, money);
+    }
+}
@@ -0,0 +1,10 @@
+package hello.jdbc.repository;
+
+/**
+ * MemberRepository.scan() 콜백. 행마다 Member 객체를 만들지 않고 (memberId, money) 만 전달한다.
+ * memberId 는 콜백 안에서만 유효하다고 가정하고, 보관하려면 toString() 으로 복사해야 한다.
+ */
+@FunctionalInterface
+public interface MemberVisitor {
+    void visit(CharSequence memberId, int money);
+}
@@ -0,0 +1,85 @@
+package hello.jdbc.repository;
+
+import org.springframework.jdbc.core.RowMapper;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Iterator;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * 열린 ResultSet 을 한 행씩 읽는 Stream.
+ * Stream 을 닫을 때, 끝까지 읽었을 때, 읽는 중 예외가 발생했을 때 ResultSet, Statement, 커넥션을 정리한다.
+ * 한 행씩 읽으므로 테이블 크기와 상관없이 메모리 사용량이 일정하다. (fetchSize 만큼만 드라이버가 가져온다)
+ */
+abstract class ResultSetStreams {  //생성하지 못하도록 abstract class
+
+    static final int DEFAULT_FETCH_SIZE = 100;
+
+    static <T> Stream<T> of(ResultSet rs, RowMapper<T> rowMapper, Runnable closer,
+                            Function<SQLException, RuntimeException> exTranslator) {
+        Runnable closeOnce = once(closer);
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            private int rowNum;
+
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!rs.next()) {
+                        closeOnce.run();
+                        return false;
+                    }
+                    action.accept(rowMapper.mapRow(rs, rowNum++));
+                    return true;
+                } catch (SQLException e) {
+                    closeOnce.run();
+                    throw exTranslator.apply(e);
+                } catch (RuntimeException | Error e) {
+                    closeOnce.run();
+                    throw e;
+                }
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(closeOnce);
+    }
+
+    /**
+     * JdbcTemplate.queryForStream() 이 돌려준 Stream 을 끝까지 읽었거나 예외가 발생하면 바로 닫도록 감싼다.
+     */
+    static <T> Stream<T> closingOnCompletion(Stream<T> stream) {
+        Runnable closeOnce = once(stream::close);
+        Iterator<T> iterator = stream.iterator();
+        Spliterator<T> spliterator = new Spliterators.AbstractSpliterator<T>(Long.MAX_VALUE, Spliterator.ORDERED | Spliterator.NONNULL) {
+            @Override
+            public boolean tryAdvance(Consumer<? super T> action) {
+                try {
+                    if (!iterator.hasNext()) {
+                        closeOnce.run();
+                        return false;
+                    }
+                    action.accept(iterator.next());
+                    return true;
+                } catch (RuntimeException | Error e) {
+                    closeOnce.run();
+                    throw e;
+                }
+            }
+        };
+        return StreamSupport.stream(spliterator, false).onClose(closeOnce);
+    }
+
+    private static Runnable once(Runnable closer) {
+        AtomicBoolean closed = new AtomicBoolean();
+        return () -> {
+            if (closed.compareAndSet(false, true)) {
+                closer.run();
+            }
+        };
+    }
+}
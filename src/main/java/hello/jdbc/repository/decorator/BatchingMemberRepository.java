@@ -0,0 +1,151 @@
+package hello.jdbc.repository.decorator;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * 여러 스레드의 findById 를 잠깐 모아서 delegate.findAllById 한 번(IN 쿼리)으로 조회하는 데코레이터
+ *
+ * - 배치를 처음 연 스레드(leader)가 window 만큼 기다린 뒤 보낸다. 그 전에 maxBatchSize 개가 모이면 채운 스레드가 바로 보낸다.
+ * - 보내기 시작한 배치에는 더 이상 합류하지 않는다. 새로 온 조회는 다음 배치를 연다.
+ * - 호출자는 findById 와 같은 결과를 받는다. 없는 회원은 EmptyResultDataAccessException, 조회 실패는 그 예외를 받는다.
+ * - 트랜잭션 안의 조회는 모으지 않는다. 트랜잭션 커넥션으로 조회해야 하므로 다른 스레드가 대신 조회할 수 없다.
+ * MemberRepositoryV5 를 감싸면 IN 절은 MemberSql 의 고정 모양(1, 8, 32, 128)으로 나가서 statement 캐시를 재사용한다.
+ */
+public class BatchingMemberRepository extends ForwardingMemberRepository {
+
+    private final int maxBatchSize;
+    private final long windowNanos;
+
+    private final Object lock = new Object();
+    private Batch current; //아직 보내지 않은 배치, lock 으로 보호
+
+    //메트릭
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedLoads = new LongAdder();
+
+    private static final class Batch {
+        private final Map<String, CompletableFuture<Member>> loads = new LinkedHashMap<>();
+        private final Thread leader;
+        private volatile boolean dispatched;
+
+        private Batch(Thread leader) {
+            this.leader = leader;
+        }
+    }
+
+    /**
+     * @param maxBatchSize 이만큼 모이면 window 를 기다리지 않고 보낸다.
+     * @param windowMicros 배치를 연 뒤 기다리는 시간
+     */
+    public BatchingMemberRepository(MemberRepository delegate, int maxBatchSize, long windowMicros) {
+        super(delegate);
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("maxBatchSize must be positive: " + maxBatchSize);
+        }
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MICROSECONDS.toNanos(windowMicros);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return delegate.findById(memberId);
+        }
+        Batch batch;
+        CompletableFuture<Member> load;
+        boolean full;
+        synchronized (lock) {
+            if (current == null) {
+                current = new Batch(Thread.currentThread());
+            }
+            batch = current;
+            load = batch.loads.computeIfAbsent(memberId, id -> new CompletableFuture<>());
+            full = batch.loads.size() >= maxBatchSize;
+            if (full) {
+                current = null;
+                batch.dispatched = true;
+            }
+        }
+        batchedLoads.increment();
+
+        if (full) {
+            dispatch(batch);
+            LockSupport.unpark(batch.leader);
+        } else if (batch.leader == Thread.currentThread()) {
+            awaitWindow(batch);
+        }
+        return join(load);
+    }
+
+    //window 가 지나면 아직 아무도 보내지 않았을 때만 보낸다.
+    private void awaitWindow(Batch batch) {
+        long deadline = System.nanoTime() + windowNanos;
+        long remaining;
+        while (!batch.dispatched && (remaining = deadline - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(this, remaining);
+        }
+        synchronized (lock) {
+            if (current != batch) {
+                return;
+            }
+            current = null;
+            batch.dispatched = true;
+        }
+        dispatch(batch);
+    }
+
+    private void dispatch(Batch batch) {
+        batches.increment();
+        Map<String, Member> found;
+        try {
+            found = delegate.findAllById(batch.loads.keySet());
+        } catch (RuntimeException | Error e) {
+            batch.loads.values().forEach(load -> load.completeExceptionally(e));
+            throw e;
+        }
+        batch.loads.forEach((memberId, load) -> {
+            Member member = found.get(memberId);
+            if (member == null) {
+                load.completeExceptionally(new EmptyResultDataAccessException(1));
+            } else {
+                load.complete(member);
+            }
+        });
+    }
+
+    /**
+     * delegate 에 보낸 배치(IN 조회) 수
+     */
+    public long getBatchCount() {
+        return batches.sum();
+    }
+
+    /**
+     * 배치로 모은 findById 수
+     */
+    public long getBatchedLoadCount() {
+        return batchedLoads.sum();
+    }
+
+    /**
+     * 하나씩 조회했을 때보다 줄어든 조회 수
+     */
+    public long getSavedQueryCount() {
+        return batchedLoads.sum() - batches.sum();
+    }
+
+    public double getAverageBatchSize() {
+        long count = batches.sum();
+        return count == 0 ? 0 : (double) batchedLoads.sum() / count;
+    }
+}
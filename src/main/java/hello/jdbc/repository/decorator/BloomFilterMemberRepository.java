@@ -0,0 +1,242 @@
+package hello.jdbc.repository.decorator;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 있는 memberId 를 ScalableBloomFilter 에 보관해서, 확실히 없는 회원은 DB 에 묻지 않는 데코레이터
+ *
+ * - load() 가 전체 테이블을 scan 해서 채운다. 끝나기 전에는 필터를 쓰지 않고 모두 delegate 로 보낸다.
+ * - save 는 insert 전에 필터에 넣는다. 롤백되거나 실패하면 오탐이 하나 늘 뿐이다.
+ *   트랜잭션이 끝난 뒤에 한 번 더 넣어서, 그 사이 rebuild 가 새로 만든 필터에도 남게 한다.
+ * - Bloom filter 는 지울 수 없으므로 delete 한 회원은 오탐으로 남는다. 삭제 수는 getStaleCount 로 보고,
+ *   rebuild() 로 테이블에서 다시 만든다.
+ * - saveWithNewId 는 필터에 있을 수도 있는 memberId 를 insert 전에 피한다. (키 중복 예외로 DB 를 한 번 더 다녀오지 않는다)
+ * 이 애플리케이션만 member 테이블에 insert 한다고 가정한다. 다른 곳에서 넣은 회원은 rebuild 전까지 없는 것으로 보인다.
+ */
+@Slf4j
+public class BloomFilterMemberRepository extends ForwardingMemberRepository {
+
+    public static final int MAX_MEMBER_ID_LENGTH = 10; //member_id varchar(10)
+    private static final int SUFFIX_DIGITS = 4;
+    private static final int MAX_NEW_ID_ATTEMPTS = 16;
+
+    private final int initialCapacity;
+    private final double falsePositiveRate;
+    private final long maxBytes;
+
+    private volatile ScalableBloomFilter filter;
+    private volatile ScalableBloomFilter rebuilding; //rebuild 중인 필터. save 는 여기에도 넣는다.
+    private volatile boolean loaded;
+
+    //메트릭
+    private final LongAdder skippedLookups = new LongAdder();
+    private final LongAdder falsePositives = new LongAdder();
+    private final LongAdder avoidedCollisions = new LongAdder();
+    private final LongAdder stale = new LongAdder();
+
+    /**
+     * @param initialCapacity 예상 회원 수. 넘으면 필터가 단계적으로 커진다.
+     * @param falsePositiveRate 목표 오탐률
+     * @param maxBytes 필터 크기 상한
+     */
+    public BloomFilterMemberRepository(MemberRepository delegate, int initialCapacity, double falsePositiveRate, long maxBytes) {
+        super(delegate);
+        this.initialCapacity = initialCapacity;
+        this.falsePositiveRate = falsePositiveRate;
+        this.maxBytes = maxBytes;
+        this.filter = newFilter();
+    }
+
+    private ScalableBloomFilter newFilter() {
+        return new ScalableBloomFilter(initialCapacity, falsePositiveRate, maxBytes);
+    }
+
+    /**
+     * 테이블을 scan 해서 필터를 채운다. 시작할 때 한 번 호출한다.
+     */
+    public void load() {
+        rebuild();
+    }
+
+    /**
+     * 테이블에서 필터를 새로 만들어 바꾼다. 삭제로 쌓인 오탐을 정리한다.
+     * 만드는 동안 save 는 기존 필터와 새 필터에 모두 넣는다.
+     */
+    public synchronized void rebuild() {
+        ScalableBloomFilter next = newFilter();
+        rebuilding = next;
+        long deleted = stale.sum();
+        try {
+            delegate.scan((memberId, money) -> next.put(memberId));
+            filter = next;
+            stale.add(-deleted);
+            loaded = true;
+        } finally {
+            rebuilding = null;
+        }
+        log.info("member bloom filter loaded, members={}, bytes={}, stages={}",
+                next.getInsertionCount(), next.getMemoryBytes(), next.getStageCount());
+    }
+
+    //순서 주의! rebuilding 을 먼저 읽어야 한다. rebuild 는 filter 를 바꾼 뒤에 rebuilding 을 비우므로,
+    //rebuilding 이 비어 있으면 그 뒤에 읽는 filter 는 이미 새 필터다. (반대 순서면 이전 필터에만 넣고 놓칠 수 있다)
+    private void remember(String memberId) {
+        ScalableBloomFilter next = rebuilding;
+        if (next != null) {
+            next.put(memberId);
+        }
+        filter.put(memberId);
+    }
+
+    private boolean definitelyAbsent(String memberId) {
+        return loaded && !filter.mightContain(memberId);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        if (definitelyAbsent(memberId)) {
+            skippedLookups.increment();
+            throw new EmptyResultDataAccessException(1);
+        }
+        try {
+            return delegate.findById(memberId);
+        } catch (EmptyResultDataAccessException e) {
+            falsePositives.increment();
+            throw e;
+        }
+    }
+
+    //없는 행은 잠글 것도 없으므로 같은 결과
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        if (definitelyAbsent(memberId)) {
+            skippedLookups.increment();
+            throw new EmptyResultDataAccessException(1);
+        }
+        return delegate.findByIdForUpdate(memberId);
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        List<String> candidates = new ArrayList<>(memberIds.size());
+        for (String memberId : memberIds) {
+            if (definitelyAbsent(memberId)) {
+                skippedLookups.increment();
+            } else {
+                candidates.add(memberId);
+            }
+        }
+        if (candidates.isEmpty()) {
+            return Map.of();
+        }
+        return delegate.findAllById(candidates);
+    }
+
+    @Override
+    public Member save(Member member) {
+        remember(member.getMemberId());
+        return super.save(member);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        members.forEach(member -> remember(member.getMemberId()));
+        super.saveAll(members);
+    }
+
+    @Override
+    public void delete(String memberId) {
+        super.delete(memberId);
+        stale.increment();
+    }
+
+    @Override
+    public void deleteAll(Collection<String> memberIds) {
+        super.deleteAll(memberIds);
+        stale.add(memberIds.size());
+    }
+
+    //save 가 아닌 쓰기에도 불린다. 대부분 이미 필터에 있는 회원이고, 아니어도 오탐이 하나 늘 뿐이다.
+    @Override
+    protected void afterWrite(String memberId) {
+        afterCompletion(memberId, this::remember);
+    }
+
+    /**
+     * member 를 저장한다. memberId 가 이미 있을 수도 있으면 insert 전에 뒤에 숫자를 붙인 memberId 로 바꾼다.
+     * 필터가 놓친 중복(다른 곳에서 넣은 회원)은 키 중복 예외를 받고 다시 고른다.
+     * @return 저장한 member (memberId 가 바뀌었을 수 있다)
+     */
+    public Member saveWithNewId(Member member) {
+        String baseId = member.getMemberId();
+        String memberId = baseId;
+        for (int attempt = 0; attempt < MAX_NEW_ID_ATTEMPTS; attempt++) {
+            if (!loaded || !filter.mightContain(memberId)) {
+                member.setMemberId(memberId);
+                try {
+                    return save(member);
+                } catch (DuplicateKeyException e) {
+                    log.info("키 중복, 다른 memberId 로 재시도 memberId={}", memberId);
+                }
+            } else {
+                avoidedCollisions.increment();
+            }
+            memberId = newMemberId(baseId);
+        }
+        throw new DuplicateKeyException("사용할 수 있는 memberId 를 찾지 못했습니다. baseId=" + baseId);
+    }
+
+    //varchar(10) 을 넘지 않도록 앞부분을 자르고 숫자 4자리를 붙인다.
+    private static String newMemberId(String baseId) {
+        String prefix = baseId.substring(0, Math.min(baseId.length(), MAX_MEMBER_ID_LENGTH - SUFFIX_DIGITS));
+        int suffix = ThreadLocalRandom.current().nextInt(10000);
+        return prefix + String.format("%04d", suffix);
+    }
+
+    public ScalableBloomFilter getFilter() {
+        return filter;
+    }
+
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * 필터가 확실히 없다고 해서 DB 에 묻지 않은 조회 수
+     */
+    public long getSkippedLookupCount() {
+        return skippedLookups.sum();
+    }
+
+    /**
+     * 필터는 있을 수도 있다고 했지만 DB 에 없었던 findById 수 (실제 오탐)
+     */
+    public long getFalsePositiveCount() {
+        return falsePositives.sum();
+    }
+
+    /**
+     * saveWithNewId 가 insert 전에 피한 memberId 수
+     */
+    public long getAvoidedCollisionCount() {
+        return avoidedCollisions.sum();
+    }
+
+    /**
+     * 마지막 rebuild 이후 삭제해서 필터에 오탐으로 남은 회원 수
+     */
+    public long getStaleCount() {
+        return stale.sum();
+    }
+}
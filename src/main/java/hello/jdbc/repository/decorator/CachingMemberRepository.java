@@ -0,0 +1,84 @@
+package hello.jdbc.repository.decorator;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * findById 결과를 SegmentedLruCache 에 보관하는 MemberRepository 데코레이터 (read-through)
+ *
+ * - 트랜잭션 안의 조회는 캐시를 거치지 않는다. 자기 트랜잭션의 변경이 보여야 하고, 커밋 전 값을 캐시에 넣으면 안 된다.
+ * - 쓰기(save, update, delete, addMoney, withdraw, transfer)한 키는 트랜잭션이 끝날 때(커밋, 롤백 모두) 무효화한다.
+ *   트랜잭션 밖의 쓰기는 바로 무효화한다.
+ * - 조회 중에 같은 샤드가 무효화되면 조회 결과를 넣지 않는다. (커밋 전 값을 읽은 조회가 커밋 후에 넣는 경쟁 방지)
+ * 캐시에는 Member 를 복사해서 넣고 꺼낼 때도 복사한다. (Member 는 변경 가능 객체)
+ */
+public class CachingMemberRepository extends ForwardingMemberRepository {
+
+    private final SegmentedLruCache<String, Member> cache;
+
+    public CachingMemberRepository(MemberRepository delegate, int maximumSize) {
+        this(delegate, maximumSize, 0);
+    }
+
+    /**
+     * @param ttlMillis 항목 유효 시간. 0 이면 만료 없음 (다른 프로세스가 DB 를 직접 바꾸면 설정)
+     */
+    public CachingMemberRepository(MemberRepository delegate, int maximumSize, long ttlMillis) {
+        super(delegate);
+        this.cache = new SegmentedLruCache<>(maximumSize, ttlMillis);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return delegate.findById(memberId);
+        }
+        Member cached = cache.get(memberId);
+        if (cached != null) {
+            return copy(cached);
+        }
+        long generation = cache.generation(memberId);
+        Member member = delegate.findById(memberId);
+        cache.putIfCurrent(memberId, copy(member), generation);
+        return member;
+    }
+
+    //캐시에 있는 회원은 그대로 쓰고 없는 회원만 delegate 에서 한 번에 조회
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return delegate.findAllById(memberIds);
+        }
+        Map<String, Member> result = new HashMap<>();
+        Map<String, Long> generations = new HashMap<>();
+        for (String memberId : memberIds) {
+            Member cached = cache.get(memberId);
+            if (cached != null) {
+                result.put(memberId, copy(cached));
+            } else {
+                generations.put(memberId, cache.generation(memberId));
+            }
+        }
+        if (!generations.isEmpty()) {
+            Map<String, Member> loaded = delegate.findAllById(generations.keySet());
+            loaded.forEach((memberId, member) -> cache.putIfCurrent(memberId, copy(member), generations.get(memberId)));
+            result.putAll(loaded);
+        }
+        return result;
+    }
+
+    //트랜잭션 안이면 완료 후에, 밖이면 바로 무효화
+    @Override
+    protected void afterWrite(String memberId) {
+        afterCompletion(memberId, cache::invalidate);
+    }
+
+    public SegmentedLruCache<String, Member> getCache() {
+        return cache;
+    }
+}
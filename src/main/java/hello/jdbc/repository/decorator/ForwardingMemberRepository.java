@@ -0,0 +1,210 @@
+package hello.jdbc.repository.decorator;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberVisitor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.stream.Stream;
+
+/**
+ * 모든 호출을 delegate 에 전달하는 MemberRepository 데코레이터의 기반 클래스
+ * 하위 클래스는 바꾸려는 조회만 재정의하고, 쓰기가 끝난 회원은 afterWrite 로 전달받는다.
+ */
+public abstract class ForwardingMemberRepository implements MemberRepository {
+
+    protected final MemberRepository delegate;
+
+    protected ForwardingMemberRepository(MemberRepository delegate) {
+        this.delegate = delegate;
+    }
+
+    /**
+     * 쓰기(성공, 실패 모두) 후 호출된다. 트랜잭션 안에서도 바로 호출되므로
+     * 커밋 이후에 처리해야 하면 afterCompletion 을 사용한다.
+     */
+    protected void afterWrite(String memberId) {
+    }
+
+    /**
+     * 트랜잭션 안이면 완료(커밋, 롤백 모두) 후에, 밖이면 바로 action 을 실행한다.
+     * 한 트랜잭션에서 쓴 회원을 모아서 완료될 때 한 번씩 실행한다.
+     */
+    protected void afterCompletion(String memberId, CompletionAction action) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            action.run(memberId);
+            return;
+        }
+        @SuppressWarnings("unchecked")
+        Set<String> written = (Set<String>) TransactionSynchronizationManager.getResource(this);
+        if (written == null) {
+            Set<String> created = new HashSet<>();
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(ForwardingMemberRepository.this);
+                    created.forEach(action::run);
+                }
+            });
+            written = created;
+        }
+        written.add(memberId);
+    }
+
+    @FunctionalInterface
+    protected interface CompletionAction {
+        void run(String memberId);
+    }
+
+    protected static Member copy(Member member) {
+        Member copy = new Member(member.getMemberId(), member.getMoney());
+        copy.setVersion(member.getVersion());
+        return copy;
+    }
+
+    //다른 스레드가 조회한 결과를 받는다. 결과를 여러 스레드가 나눠 가지므로 복사해서 준다. (Member 는 변경 가능 객체)
+    //조회한 스레드의 예외는 CompletionException 으로 감싸져 오므로 풀어서 그대로 던진다.
+    protected static Member join(CompletableFuture<Member> load) {
+        try {
+            return copy(load.join());
+        } catch (CompletionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            if (cause instanceof Error) {
+                throw (Error) cause;
+            }
+            throw e;
+        }
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        return delegate.findById(memberId);
+    }
+
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return delegate.findByIdForUpdate(memberId);
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        return delegate.findAllById(memberIds);
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        return delegate.streamAll();
+    }
+
+    @Override
+    public void scan(MemberVisitor visitor) {
+        delegate.scan(visitor);
+    }
+
+    @Override
+    public boolean supportsSavepoints() {
+        return delegate.supportsSavepoints();
+    }
+
+    @Override
+    public Member save(Member member) {
+        try {
+            return delegate.save(member);
+        } finally {
+            afterWrite(member.getMemberId());
+        }
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        try {
+            delegate.update(memberId, money);
+        } finally {
+            afterWrite(memberId);
+        }
+    }
+
+    @Override
+    public int update(String memberId, int money, long expectedVersion) {
+        try {
+            return delegate.update(memberId, money, expectedVersion);
+        } finally {
+            afterWrite(memberId);
+        }
+    }
+
+    @Override
+    public void delete(String memberId) {
+        try {
+            delegate.delete(memberId);
+        } finally {
+            afterWrite(memberId);
+        }
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        try {
+            return delegate.addMoney(memberId, delta);
+        } finally {
+            afterWrite(memberId);
+        }
+    }
+
+    @Override
+    public int withdraw(String memberId, int amount) {
+        try {
+            return delegate.withdraw(memberId, amount);
+        } finally {
+            afterWrite(memberId);
+        }
+    }
+
+    @Override
+    public int transfer(String fromId, String toId, int money) {
+        try {
+            return delegate.transfer(fromId, toId, money);
+        } finally {
+            afterWrite(fromId);
+            afterWrite(toId);
+        }
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        try {
+            delegate.saveAll(members);
+        } finally {
+            members.forEach(member -> afterWrite(member.getMemberId()));
+        }
+    }
+
+    @Override
+    public void updateAll(Map<String, Integer> moneyByMemberId) {
+        try {
+            delegate.updateAll(moneyByMemberId);
+        } finally {
+            moneyByMemberId.keySet().forEach(this::afterWrite);
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<String> memberIds) {
+        try {
+            delegate.deleteAll(memberIds);
+        } finally {
+            memberIds.forEach(this::afterWrite);
+        }
+    }
+}
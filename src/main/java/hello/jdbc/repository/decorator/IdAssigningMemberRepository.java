@@ -0,0 +1,47 @@
+package hello.jdbc.repository.decorator;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberIdAllocator;
+import hello.jdbc.repository.MemberRepository;
+
+import java.util.Collection;
+
+/**
+ * memberId 없이 저장하는 회원에게 MemberIdAllocator 로 memberId 를 붙여서 저장하는 데코레이터
+ * 발급한 memberId 는 겹치지 않으므로 키 중복 예외를 받고 다시 고르는 재시도가 필요 없다.
+ * memberId 를 직접 정한 회원은 그대로 저장한다.
+ */
+public class IdAssigningMemberRepository extends ForwardingMemberRepository {
+
+    private final MemberIdAllocator allocator;
+
+    public IdAssigningMemberRepository(MemberRepository delegate, MemberIdAllocator allocator) {
+        super(delegate);
+        this.allocator = allocator;
+    }
+
+    /**
+     * @return 저장한 member (memberId 가 없었으면 발급한 memberId 가 들어 있다)
+     */
+    @Override
+    public Member save(Member member) {
+        assignId(member);
+        return super.save(member);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        members.forEach(this::assignId);
+        super.saveAll(members);
+    }
+
+    private void assignId(Member member) {
+        if (member.getMemberId() == null) {
+            member.setMemberId(allocator.nextId());
+        }
+    }
+
+    public MemberIdAllocator getAllocator() {
+        return allocator;
+    }
+}
@@ -0,0 +1,220 @@
+package hello.jdbc.repository.decorator;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * 문자열 키의 scalable Bloom filter (Almeida et al.)
+ * mightContain 이 false 면 확실히 없고, true 면 (falsePositiveRate 확률로) 없을 수도 있다. 삭제는 지원하지 않는다.
+ *
+ * 마지막 단계(stage)가 용량만큼 차면 용량 2배, 오탐률 절반인 단계를 새로 붙인다.
+ * 첫 단계 오탐률을 falsePositiveRate / 2 로 잡으므로 전체 오탐률은 falsePositiveRate 를 넘지 않는다.
+ * 단계를 붙이면 maxBytes 를 넘을 때는 더 늘리지 않고 마지막 단계에 계속 넣는다. (오탐률이 설정보다 올라간다)
+ *
+ * 비트는 AtomicLongArray 에 CAS 로 켜므로 put 과 mightContain 은 잠금 없이 동시에 호출할 수 있다.
+ */
+public class ScalableBloomFilter {
+
+    private static final double LN2 = Math.log(2);
+    private static final int GROWTH = 2;
+    private static final double TIGHTENING = 0.5;
+
+    private final long maxBytes;
+    private volatile Stage[] stages;
+    private volatile boolean saturated;
+
+    private static final class Stage {
+        private final AtomicLongArray words;
+        private final long bitCount;
+        private final int hashCount;
+        private final int capacity;
+        private final double falsePositiveRate;
+        private final AtomicInteger insertions = new AtomicInteger();
+
+        private Stage(int capacity, double falsePositiveRate) {
+            int wordCount = Math.toIntExact(wordCount(capacity, falsePositiveRate));
+            this.words = new AtomicLongArray(wordCount);
+            this.bitCount = wordCount * 64L;
+            this.hashCount = Math.max(1, (int) Math.round((double) bitCount / capacity * LN2));
+            this.capacity = capacity;
+            this.falsePositiveRate = falsePositiveRate;
+        }
+
+        private long bytes() {
+            return words.length() * 8L;
+        }
+
+        //m = -n ln p / (ln 2)^2 비트를 long 단위로. k = m / n ln 2
+        private static long wordCount(int capacity, double falsePositiveRate) {
+            long bits = (long) Math.ceil(-capacity * Math.log(falsePositiveRate) / (LN2 * LN2));
+            return Math.max(1, (bits + 63) / 64);
+        }
+
+        //배열을 만들지 않고 단계 크기를 계산한다.
+        private static long bytes(int capacity, double falsePositiveRate) {
+            return wordCount(capacity, falsePositiveRate) * 8L;
+        }
+
+        //Kirsch-Mitzenmacher: 해시 두 개로 k 개의 위치를 만든다.
+        private long bitIndex(long hash, int i) {
+            long step = Long.rotateLeft(hash, 32) | 1;
+            return ((hash + i * step) & Long.MAX_VALUE) % bitCount;
+        }
+
+        private boolean mightContain(long hash) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = bitIndex(hash, i);
+                if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void put(long hash) {
+            for (int i = 0; i < hashCount; i++) {
+                long bit = bitIndex(hash, i);
+                int index = (int) (bit >>> 6);
+                long mask = 1L << bit;
+                long word;
+                while (((word = words.get(index)) & mask) == 0 && !words.compareAndSet(index, word, word | mask)) {
+                    //다른 스레드가 같은 word 를 바꿨으면 다시 시도
+                }
+            }
+            insertions.incrementAndGet();
+        }
+
+        //켜진 비트 비율로 추정한 현재 오탐률
+        private double estimatedFalsePositiveRate() {
+            long set = 0;
+            for (int i = 0; i < words.length(); i++) {
+                set += Long.bitCount(words.get(i));
+            }
+            return Math.pow((double) set / bitCount, hashCount);
+        }
+    }
+
+    /**
+     * @param initialCapacity 첫 단계에 넣을 키 수
+     * @param falsePositiveRate 목표 오탐률 (0 과 1 사이)
+     * @param maxBytes 비트 배열 전체 크기 상한
+     */
+    public ScalableBloomFilter(int initialCapacity, double falsePositiveRate, long maxBytes) {
+        if (initialCapacity < 1) {
+            throw new IllegalArgumentException("initialCapacity must be positive: " + initialCapacity);
+        }
+        if (falsePositiveRate <= 0 || falsePositiveRate >= 1) {
+            throw new IllegalArgumentException("falsePositiveRate must be between 0 and 1: " + falsePositiveRate);
+        }
+        double firstRate = falsePositiveRate * (1 - TIGHTENING);
+        long firstBytes = Stage.bytes(initialCapacity, firstRate);
+        if (firstBytes > maxBytes) {
+            throw new IllegalArgumentException("first stage needs " + firstBytes + " bytes, more than maxBytes " + maxBytes);
+        }
+        this.maxBytes = maxBytes;
+        this.stages = new Stage[]{new Stage(initialCapacity, firstRate)};
+    }
+
+    public boolean mightContain(CharSequence key) {
+        long hash = hash(key);
+        for (Stage stage : stages) {
+            if (stage.mightContain(hash)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return 새로 넣었으면 true, 이미 있는 것으로 보이면 false
+     */
+    public boolean put(CharSequence key) {
+        long hash = hash(key);
+        Stage[] current = stages;
+        for (Stage stage : current) {
+            if (stage.mightContain(hash)) {
+                return false;
+            }
+        }
+        Stage last = current[current.length - 1];
+        if (last.insertions.get() >= last.capacity && !saturated) {
+            last = grow(current);
+        }
+        last.put(hash);
+        return true;
+    }
+
+    private synchronized Stage grow(Stage[] seen) {
+        Stage[] current = stages;
+        Stage last = current[current.length - 1];
+        if (current != seen || saturated) {
+            return last; //다른 스레드가 이미 늘렸다.
+        }
+        int nextCapacity = (int) Math.min(Integer.MAX_VALUE, (long) last.capacity * GROWTH);
+        double nextRate = last.falsePositiveRate * TIGHTENING;
+        //상한을 넘는 단계는 만들지 않는다. (만들고 버리면 그 크기만큼 힙을 잠깐 쓴다)
+        if (getMemoryBytes() + Stage.bytes(nextCapacity, nextRate) > maxBytes) {
+            saturated = true;
+            return last;
+        }
+        Stage next = new Stage(nextCapacity, nextRate);
+        Stage[] grown = new Stage[current.length + 1];
+        System.arraycopy(current, 0, grown, 0, current.length);
+        grown[current.length] = next;
+        stages = grown;
+        return next;
+    }
+
+    //FNV-1a 64 를 murmur3 fmix64 로 섞는다. CharSequence 를 문자열로 복사하지 않는다.
+    private static long hash(CharSequence key) {
+        long h = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            h ^= key.charAt(i);
+            h *= 0x100000001b3L;
+        }
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    public long getInsertionCount() {
+        long count = 0;
+        for (Stage stage : stages) {
+            count += stage.insertions.get();
+        }
+        return count;
+    }
+
+    public int getStageCount() {
+        return stages.length;
+    }
+
+    public long getMemoryBytes() {
+        long bytes = 0;
+        for (Stage stage : stages) {
+            bytes += stage.bytes();
+        }
+        return bytes;
+    }
+
+    /**
+     * 현재 채워진 정도로 추정한 오탐률. 비트 배열 전체를 세므로 메트릭 수집 주기로만 호출한다.
+     */
+    public double getEstimatedFalsePositiveRate() {
+        double none = 1;
+        for (Stage stage : stages) {
+            none *= 1 - stage.estimatedFalsePositiveRate();
+        }
+        return 1 - none;
+    }
+
+    /**
+     * maxBytes 때문에 더 늘리지 못하고 있으면 true. 오탐률이 목표보다 높아진다.
+     */
+    public boolean isSaturated() {
+        return saturated;
+    }
+}
@@ -0,0 +1,211 @@
+package hello.jdbc.repository.decorator;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 크기 제한 segmented LRU 캐시
+ * 처음 들어온 항목은 probation 구간에 두고, 한 번 더 조회되면 protected 구간(전체의 80%)으로 옮긴다.
+ * 한 번만 조회되고 마는 항목(전체 스캔, 일회성 조회)이 자주 쓰는 항목을 밀어내지 못한다.
+ *
+ * 키 해시로 나눈 샤드마다 잠금과 LRU 를 따로 둔다. 크기 제한과 LRU 순서는 샤드 안에서만 정확하다.
+ * 샤드마다 무효화 세대(generation)를 두어서, 조회를 시작한 뒤 무효화된 키의 값은 putIfCurrent 가 넣지 않는다.
+ */
+public class SegmentedLruCache<K, V> {
+
+    private static final int PROTECTED_PERCENT = 80;
+
+    private final Shard<K, V>[] shards;
+    private final int mask;
+    private final long ttlNanos; //0 이면 만료 없음
+
+    //메트릭
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+    private final LongAdder expirations = new LongAdder();
+
+    private static final class Entry<V> {
+        private final V value;
+        private final long expiresAt;
+
+        private Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+    }
+
+    private static final class Shard<K, V> {
+        private final LinkedHashMap<K, Entry<V>> probation = new LinkedHashMap<>();
+        private final LinkedHashMap<K, Entry<V>> protectedSegment = new LinkedHashMap<>();
+        private final int capacity;
+        private final int protectedCapacity;
+        private long generation;
+
+        private Shard(int capacity) {
+            this.capacity = capacity;
+            this.protectedCapacity = Math.max(1, capacity * PROTECTED_PERCENT / 100);
+        }
+    }
+
+    /**
+     * @param maximumSize 최대 항목 수
+     * @param ttlMillis 항목 유효 시간. 0 이면 만료 없음
+     */
+    @SuppressWarnings("unchecked")
+    public SegmentedLruCache(int maximumSize, long ttlMillis) {
+        if (maximumSize < 1) {
+            throw new IllegalArgumentException("maximumSize must be positive: " + maximumSize);
+        }
+        //샤드마다 최소 64개는 담도록 샤드 수를 정한다. (최대 16)
+        int shardCount = Integer.highestOneBit(Math.max(1, Math.min(16, maximumSize / 64)));
+        this.shards = new Shard[shardCount];
+        for (int i = 0; i < shardCount; i++) {
+            shards[i] = new Shard<>((maximumSize + shardCount - 1) / shardCount);
+        }
+        this.mask = shardCount - 1;
+        this.ttlNanos = ttlMillis * 1_000_000;
+    }
+
+    private Shard<K, V> shardOf(Object key) {
+        int h = key.hashCode();
+        return shards[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * @return 값, 없거나 만료됐으면 null
+     */
+    public V get(K key) {
+        Shard<K, V> shard = shardOf(key);
+        synchronized (shard) {
+            Entry<V> entry = shard.protectedSegment.get(key); //access order 가 아니므로 다시 넣어서 MRU 로 옮긴다.
+            if (entry != null) {
+                if (expired(entry)) {
+                    shard.protectedSegment.remove(key);
+                    return miss(true);
+                }
+                shard.protectedSegment.remove(key);
+                shard.protectedSegment.put(key, entry);
+                hits.increment();
+                return entry.value;
+            }
+            entry = shard.probation.remove(key);
+            if (entry == null) {
+                return miss(false);
+            }
+            if (expired(entry)) {
+                return miss(true);
+            }
+            //두 번째 조회 -> protected 로 승격. 넘치면 protected 의 LRU 를 probation 의 MRU 로 강등
+            shard.protectedSegment.put(key, entry);
+            if (shard.protectedSegment.size() > shard.protectedCapacity) {
+                Iterator<Map.Entry<K, Entry<V>>> eldest = shard.protectedSegment.entrySet().iterator();
+                Map.Entry<K, Entry<V>> demoted = eldest.next();
+                eldest.remove();
+                shard.probation.put(demoted.getKey(), demoted.getValue());
+            }
+            hits.increment();
+            return entry.value;
+        }
+    }
+
+    private V miss(boolean expired) {
+        if (expired) {
+            expirations.increment();
+        }
+        misses.increment();
+        return null;
+    }
+
+    private boolean expired(Entry<V> entry) {
+        return ttlNanos > 0 && System.nanoTime() - entry.expiresAt > 0;
+    }
+
+    /**
+     * 조회를 시작하기 전에 읽어 두는 값. putIfCurrent 에 넘긴다.
+     */
+    public long generation(K key) {
+        Shard<K, V> shard = shardOf(key);
+        synchronized (shard) {
+            return shard.generation;
+        }
+    }
+
+    /**
+     * generation 을 읽은 뒤 같은 샤드에 무효화가 없었을 때만 넣는다. (그 사이 바뀐 값일 수 있으므로)
+     */
+    public boolean putIfCurrent(K key, V value, long generation) {
+        Shard<K, V> shard = shardOf(key);
+        synchronized (shard) {
+            if (shard.generation != generation) {
+                return false;
+            }
+            if (shard.protectedSegment.containsKey(key)) {
+                shard.protectedSegment.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+                return true;
+            }
+            shard.probation.put(key, new Entry<>(value, System.nanoTime() + ttlNanos));
+            while (shard.probation.size() + shard.protectedSegment.size() > shard.capacity) {
+                LinkedHashMap<K, Entry<V>> victims = shard.probation.isEmpty() ? shard.protectedSegment : shard.probation;
+                Iterator<K> eldest = victims.keySet().iterator();
+                eldest.next();
+                eldest.remove();
+                evictions.increment();
+            }
+            return true;
+        }
+    }
+
+    public void invalidate(K key) {
+        Shard<K, V> shard = shardOf(key);
+        synchronized (shard) {
+            shard.generation++;
+            shard.probation.remove(key);
+            shard.protectedSegment.remove(key);
+        }
+    }
+
+    public void invalidateAll() {
+        for (Shard<K, V> shard : shards) {
+            synchronized (shard) {
+                shard.generation++;
+                shard.probation.clear();
+                shard.protectedSegment.clear();
+            }
+        }
+    }
+
+    public long size() {
+        long size = 0;
+        for (Shard<K, V> shard : shards) {
+            synchronized (shard) {
+                size += shard.probation.size() + shard.protectedSegment.size();
+            }
+        }
+        return size;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public double getHitRatio() {
+        long hit = hits.sum();
+        long total = hit + misses.sum();
+        return total == 0 ? 0 : (double) hit / total;
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public long getExpirationCount() {
+        return expirations.sum();
+    }
+}
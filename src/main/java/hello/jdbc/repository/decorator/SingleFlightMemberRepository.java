@@ -0,0 +1,119 @@
+package hello.jdbc.repository.decorator;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 같은 회원을 동시에 조회하면 한 번만 delegate 를 조회하고 결과(또는 예외)를 나눠 갖는 데코레이터 (single-flight)
+ *
+ * - 먼저 온 스레드(leader)가 조회하고, 그 사이 같은 키로 온 스레드는 leader 의 결과를 기다린다.
+ * - 진행 중 조회 수는 maxInFlight 로 제한한다. 넘치면 합치지 않고 바로 조회한다.
+ * - 트랜잭션 안의 조회는 합치지 않는다. 자기 트랜잭션의 변경이 보여야 하고, 커넥션도 이미 잡고 있다.
+ * - 쓰기가 끝나면(트랜잭션이면 완료 후) 진행 중 조회에서 떼어 낸다. 쓰기 이후에 시작한 조회가 이전 값을 받지 않는다.
+ * 기다린 스레드에는 Member 를 복사해서 준다. (Member 는 변경 가능 객체)
+ */
+public class SingleFlightMemberRepository extends ForwardingMemberRepository {
+
+    private final ConcurrentHashMap<String, CompletableFuture<Member>> inFlight = new ConcurrentHashMap<>();
+    private final AtomicInteger inFlightCount = new AtomicInteger();
+    private final int maxInFlight;
+
+    //메트릭
+    private final LongAdder queries = new LongAdder();
+    private final LongAdder coalesced = new LongAdder();
+    private final LongAdder overflows = new LongAdder();
+
+    public SingleFlightMemberRepository(MemberRepository delegate, int maxInFlight) {
+        super(delegate);
+        if (maxInFlight < 1) {
+            throw new IllegalArgumentException("maxInFlight must be positive: " + maxInFlight);
+        }
+        this.maxInFlight = maxInFlight;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return delegate.findById(memberId);
+        }
+        CompletableFuture<Member> existing = inFlight.get(memberId);
+        if (existing != null) {
+            return await(existing);
+        }
+        if (inFlightCount.get() >= maxInFlight) {
+            overflows.increment();
+            queries.increment();
+            return delegate.findById(memberId);
+        }
+
+        CompletableFuture<Member> flight = new CompletableFuture<>();
+        existing = inFlight.putIfAbsent(memberId, flight);
+        if (existing != null) {
+            return await(existing);
+        }
+        inFlightCount.incrementAndGet();
+        try {
+            queries.increment();
+            Member member = delegate.findById(memberId);
+            flight.complete(member);
+            return member;
+        } catch (RuntimeException | Error e) {
+            flight.completeExceptionally(e);
+            throw e;
+        } finally {
+            //쓰기가 먼저 떼어 냈으면 다른 조회의 항목일 수 있으므로 자기 것만 지운다.
+            if (inFlight.remove(memberId, flight)) {
+                inFlightCount.decrementAndGet();
+            }
+        }
+    }
+
+    private Member await(CompletableFuture<Member> flight) {
+        coalesced.increment();
+        return join(flight);
+    }
+
+    //커밋 전에는 다른 조회가 이전 값을 보는 것이 맞으므로 트랜잭션이 끝난 뒤에 떼어 낸다.
+    @Override
+    protected void afterWrite(String memberId) {
+        afterCompletion(memberId, this::detach);
+    }
+
+    //진행 중 조회는 그대로 끝나고 이미 기다리던 스레드는 결과를 받는다. 이후 조회만 새로 시작한다.
+    private void detach(String memberId) {
+        if (inFlight.remove(memberId) != null) {
+            inFlightCount.decrementAndGet();
+        }
+    }
+
+    public int getInFlightCount() {
+        return inFlightCount.get();
+    }
+
+    /**
+     * delegate 에 실제로 보낸 조회 수 (트랜잭션 안의 조회 제외)
+     */
+    public long getQueryCount() {
+        return queries.sum();
+    }
+
+    /**
+     * 다른 스레드의 조회 결과를 받아서 아낀 조회 수
+     */
+    public long getSavedQueryCount() {
+        return coalesced.sum();
+    }
+
+    /**
+     * 진행 중 조회가 maxInFlight 를 넘어서 합치지 않고 바로 조회한 수
+     */
+    public long getOverflowCount() {
+        return overflows.sum();
+    }
+}
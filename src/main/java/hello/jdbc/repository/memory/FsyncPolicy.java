@@ -0,0 +1,19 @@
+package hello.jdbc.repository.memory;
+
+/**
+ * MemberJournal 을 디스크에 강제로 기록(force)하는 시점
+ */
+public enum FsyncPolicy {
+    /**
+     * 기록할 때마다 force. 가장 안전하고 가장 느리다.
+     */
+    EVERY_WRITE,
+    /**
+     * 백그라운드 스레드가 주기적으로 force. 장애 시 마지막 주기만큼 잃을 수 있다.
+     */
+    INTERVAL,
+    /**
+     * 운영체제에 맡긴다. 프로세스 장애에는 안전하지만 OS 장애 시 잃을 수 있다.
+     */
+    NONE
+}
@@ -0,0 +1,121 @@
+package hello.jdbc.repository.memory;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberVisitor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.util.stream.Stream;
+
+/**
+ * MemberIndex 기반 메모리 리포지토리. 수천만 회원을 HashMap<String, Member> 보다 훨씬 적은 메모리로 보관한다.
+ * 예외는 MemberRepositoryV5 와 같다. (없는 회원 조회 시 EmptyResultDataAccessException, 중복 저장 시 DuplicateKeyException)
+ *
+ * 회원 한 명의 변경은 CAS 로 원자적이지만 트랜잭션에 참여하지 않으므로 롤백되지 않는다.
+ * transfer 는 출금 후 입금하고, 입금 계좌가 그 사이 삭제되면 출금을 되돌린다. findByIdForUpdate 는 잠그지 않는다.
+ * version 은 MemberIndex 의 31비트 version 이다.
+ */
+public class IndexedMemberRepository implements MemberRepository {
+
+    private final MemberIndex index;
+
+    public IndexedMemberRepository(int expectedMembers) {
+        this(new MemberIndex(expectedMembers));
+    }
+
+    public IndexedMemberRepository(MemberIndex index) {
+        this.index = index;
+    }
+
+    @Override
+    public Member save(Member member) {
+        if (!index.insert(member.getMemberId(), member.getMoney())) {
+            throw new DuplicateKeyException("member already exists memberId = " + member.getMemberId());
+        }
+        return member;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        long value = index.get(memberId);
+        if (value == MemberIndex.ABSENT) {
+            throw new EmptyResultDataAccessException(1);
+        }
+        Member member = new Member(memberId, MemberIndex.money(value));
+        member.setVersion(MemberIndex.version(value));
+        return member;
+    }
+
+    //잠그지 않는다. (클래스 주석 참고)
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return findById(memberId);
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        index.set(memberId, money);
+    }
+
+    @Override
+    public int update(String memberId, int money, long expectedVersion) {
+        return index.compareAndSet(memberId, money, expectedVersion) ? 1 : 0;
+    }
+
+    @Override
+    public void delete(String memberId) {
+        index.remove(memberId);
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        return index.add(memberId, delta) ? 1 : 0;
+    }
+
+    @Override
+    public int withdraw(String memberId, int amount) {
+        return index.withdraw(memberId, amount) ? 1 : 0;
+    }
+
+    @Override
+    public int transfer(String fromId, String toId, int money) {
+        if (fromId.equals(toId) || index.get(toId) == MemberIndex.ABSENT || !index.withdraw(fromId, money)) {
+            return 0;
+        }
+        if (!index.add(toId, money)) {
+            //그 사이 입금 계좌가 삭제됨
+            index.add(fromId, money);
+            return 0;
+        }
+        return 2;
+    }
+
+    //전체를 Member 로 만들어 모은 뒤 스트림으로 돌려준다. 대량 집계는 scan 을 사용한다.
+    @Override
+    public Stream<Member> streamAll() {
+        Stream.Builder<Member> builder = Stream.builder();
+        index.forEach((memberId, money, version) -> {
+            Member member = new Member(memberId.toString(), money);
+            member.setVersion(version);
+            builder.add(member);
+        });
+        return builder.build();
+    }
+
+    //Member 객체 없이 arena 의 memberId 를 그대로 전달한다.
+    @Override
+    public void scan(MemberVisitor visitor) {
+        index.forEach((memberId, money, version) -> visitor.visit(memberId, money));
+    }
+
+    //변경을 JDBC 커넥션 밖(메모리)에 두므로 savepoint 로 되돌릴 수 없다.
+    @Override
+    public boolean supportsSavepoints() {
+        return false;
+    }
+
+    public MemberIndex getIndex() {
+        return index;
+    }
+}
@@ -0,0 +1,422 @@
+package hello.jdbc.repository.memory;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberVisitor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.io.Closeable;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * 메모리 잔액 + 저널 방식 리포지토리
+ * 잔액은 메모리(ConcurrentHashMap)에 두고 replace(compare-and-set)로 변경한다. 변경마다 새 상태를 MemberJournal 에 기록하고,
+ * 주기적인 체크포인트가 변경된 회원을 H2 member 테이블에 저장한다. 시작할 때는 member 테이블 + 저널 재생으로 복구한다.
+ *
+ * version 은 회원마다 1씩 올리지 않고 전역 시계(clock)에서 받는다. (MemberRepository 는 증가만 약속한다) 변경 순서와 저널 기록 순서가 달라도
+ * 회원마다 version 이 가장 큰 기록이 최신 상태이므로 재생 결과가 메모리 상태와 같다. (삭제도 version 을 가진 기록)
+ *
+ * 스프링 트랜잭션 안에서 호출되면 변경을 되돌릴 보상 작업을 기록하고, 롤백되면 역순으로 실행한다.
+ * 격리는 하지 않는다. 커밋 전의 변경이 다른 스레드에 보이고, findByIdForUpdate 도 잠그지 않는다.
+ * 실행 중에는 이 리포지토리가 member 테이블의 주인이다. 다른 리포지토리가 테이블에 쓴 값은 다시 시작할 때만 반영된다.
+ */
+@Slf4j
+public class JournaledMemberRepository implements MemberRepository, Closeable {
+
+    public static final int DEFAULT_JOURNAL_CAPACITY = 64 * 1024 * 1024;
+
+    private static final String SELECT_ALL = "select member_id, money, version from member";
+    private static final String MERGE = "merge into member(member_id, money, version) key(member_id) values (?, ?, ?)";
+    private static final String DELETE = "delete from member where member_id = ?";
+
+    private static final long REJECT = Long.MIN_VALUE;
+
+    private final ConcurrentHashMap<String, MemberState> members = new ConcurrentHashMap<>();
+    private final Set<String> dirty = ConcurrentHashMap.newKeySet(); //마지막 체크포인트 이후 변경된 회원
+    private final AtomicLong clock = new AtomicLong();
+
+    private final MemberJournal journal;
+    private final JdbcTemplate template;
+    private final TransactionTemplate txTemplate;
+    private ScheduledExecutorService checkpointScheduler;
+    private int pendingDiscard = -1; //체크포인트가 커밋되지 않아 버리지 못한 저널 파일. this 로 보호
+
+    //메트릭
+    private final LongAdder checkpoints = new LongAdder();
+    private final LongAdder rolledBack = new LongAdder(); //롤백으로 되돌린 변경 건수
+
+    //변경 불가능한 회원 상태. replace 는 equals 를 쓰므로 equals 를 재정의하지 않는다. (참조 비교 = CAS)
+    private static final class MemberState {
+        private final int money;
+        private final long version;
+
+        private MemberState(int money, long version) {
+            this.money = money;
+            this.version = version;
+        }
+    }
+
+    @FunctionalInterface
+    private interface MoneyFunction {
+        //새 잔액. 변경하지 않으려면 REJECT
+        long apply(MemberState current);
+    }
+
+    public JournaledMemberRepository(DataSource dataSource, Path journalDirectory, FsyncPolicy fsyncPolicy) {
+        this(dataSource, journalDirectory, DEFAULT_JOURNAL_CAPACITY, fsyncPolicy, 100);
+    }
+
+    public JournaledMemberRepository(DataSource dataSource, Path journalDirectory, int journalCapacity,
+                                     FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) {
+        this.template = new JdbcTemplate(dataSource);
+        this.txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        //호출한 쪽 트랜잭션에 참여하면 그 트랜잭션이 롤백될 때 이미 버린 저널의 변경까지 사라진다.
+        this.txTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        this.journal = new MemberJournal(journalDirectory, journalCapacity, fsyncPolicy, fsyncIntervalMillis);
+        recover();
+    }
+
+    /**
+     * member 테이블(마지막 체크포인트) 위에 저널을 재생한다. 회원마다 version 이 가장 큰 상태(삭제 포함)를 택한다.
+     * 복구한 상태를 바로 체크포인트로 저장한 뒤 저널을 비운다.
+     */
+    private void recover() {
+        template.query(SELECT_ALL, rs -> {
+            members.put(rs.getString(1), new MemberState(rs.getInt(2), rs.getLong(3)));
+        });
+        Map<String, Long> deleted = new HashMap<>();
+        journal.replay((type, memberId, money, version) -> {
+            MemberState current = members.get(memberId);
+            long latest = Math.max(current == null ? Long.MIN_VALUE : current.version,
+                    deleted.getOrDefault(memberId, Long.MIN_VALUE));
+            if (version <= latest) {
+                return;
+            }
+            if (type == MemberJournal.PUT) {
+                members.put(memberId, new MemberState(money, version));
+                deleted.remove(memberId);
+            } else {
+                members.remove(memberId);
+                deleted.put(memberId, version);
+            }
+            dirty.add(memberId);
+        });
+
+        long maxVersion = 0;
+        for (MemberState state : members.values()) {
+            maxVersion = Math.max(maxVersion, state.version);
+        }
+        for (long version : deleted.values()) {
+            maxVersion = Math.max(maxVersion, version);
+        }
+        clock.set(maxVersion);
+
+        int recovered = dirty.size();
+        writeDirty();
+        journal.reset();
+        log.info("journaled repository recovered members = {}, replayed = {}", members.size(), recovered);
+    }
+
+    @Override
+    public Member save(Member member) {
+        String memberId = member.getMemberId();
+        MemberState state = new MemberState(member.getMoney(), clock.incrementAndGet());
+        if (members.putIfAbsent(memberId, state) != null) {
+            throw new DuplicateKeyException("member already exists memberId = " + memberId);
+        }
+        changed(MemberJournal.PUT, memberId, state, () -> members.remove(memberId, state));
+        compensateOnRollback(() -> removeState(memberId));
+        return member;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        MemberState state = members.get(memberId);
+        if (state == null) {
+            throw new EmptyResultDataAccessException(1);
+        }
+        Member member = new Member(memberId, state.money);
+        member.setVersion(state.version);
+        return member;
+    }
+
+    //잠그지 않는다. (클래스 주석 참고)
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return findById(memberId);
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        changeMoney(memberId, current -> money);
+    }
+
+    @Override
+    public int update(String memberId, int money, long expectedVersion) {
+        return changeMoney(memberId, current -> current.version == expectedVersion ? money : REJECT) ? 1 : 0;
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        return changeMoney(memberId, current -> (long) current.money + delta) ? 1 : 0;
+    }
+
+    @Override
+    public int withdraw(String memberId, int amount) {
+        return changeMoney(memberId, current -> current.money >= amount ? (long) current.money - amount : REJECT) ? 1 : 0;
+    }
+
+    @Override
+    public int transfer(String fromId, String toId, int money) {
+        if (fromId.equals(toId) || !members.containsKey(toId) || withdraw(fromId, money) == 0) {
+            return 0;
+        }
+        if (addMoney(toId, money) == 0) {
+            //그 사이 입금 계좌가 삭제됨
+            addMoney(fromId, money);
+            return 0;
+        }
+        return 2;
+    }
+
+    @Override
+    public void delete(String memberId) {
+        MemberState removed = removeState(memberId);
+        if (removed != null) {
+            compensateOnRollback(() -> restoreState(memberId, removed.money));
+        }
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        return members.entrySet().stream().map(entry -> {
+            Member member = new Member(entry.getKey(), entry.getValue().money);
+            member.setVersion(entry.getValue().version);
+            return member;
+        });
+    }
+
+    @Override
+    public void scan(MemberVisitor visitor) {
+        members.forEach((memberId, state) -> visitor.visit(memberId, state.money));
+    }
+
+    //변경을 JDBC 커넥션 밖(메모리)에 두므로 savepoint 로 되돌릴 수 없다.
+    @Override
+    public boolean supportsSavepoints() {
+        return false;
+    }
+
+    //CAS 로 잔액 변경. 회원이 없거나 function 이 거절하면 false
+    private boolean changeMoney(String memberId, MoneyFunction function) {
+        while (true) {
+            MemberState current = members.get(memberId);
+            if (current == null) {
+                return false;
+            }
+            long money = function.apply(current);
+            if (money == REJECT) {
+                return false;
+            }
+            MemberState next = new MemberState(Math.toIntExact(money), clock.incrementAndGet());
+            if (members.replace(memberId, current, next)) {
+                changed(MemberJournal.PUT, memberId, next, () -> members.replace(memberId, next, current));
+                int delta = next.money - current.money;
+                compensateOnRollback(() -> changeMoney(memberId, state -> state.money - (long) delta));
+                return true;
+            }
+        }
+    }
+
+    private MemberState removeState(String memberId) {
+        while (true) {
+            MemberState current = members.get(memberId);
+            if (current == null) {
+                return null;
+            }
+            if (members.remove(memberId, current)) {
+                changed(MemberJournal.DELETE, memberId, new MemberState(0, clock.incrementAndGet()),
+                        () -> members.putIfAbsent(memberId, current) == null);
+                return current;
+            }
+        }
+    }
+
+    private void restoreState(String memberId, int money) {
+        MemberState state = new MemberState(money, clock.incrementAndGet());
+        if (members.putIfAbsent(memberId, state) == null) {
+            changed(MemberJournal.PUT, memberId, state, () -> members.remove(memberId, state));
+        }
+    }
+
+    @FunctionalInterface
+    private interface Undo {
+        //되돌렸으면 true. 그 사이 다른 스레드가 이 상태 위에서 다시 변경했으면 false
+        boolean run();
+    }
+
+    //순서 주의! dirty 에 먼저 넣고 저널에 기록해야 체크포인트가 이전 저널 파일을 버려도 변경을 잃지 않는다.
+    //저널이 가득 찼는데 체크포인트가 실패하면 기록되지 않은 변경을 되돌리고 예외를 던진다. (호출한 쪽은 실패로 본다)
+    //dirty 에는 남겨 둔다. 다음 체크포인트는 되돌린 상태를 저장하고, 이전 상태가 아직 저장되지 않았다면 그것도 함께 저장된다.
+    private void changed(byte type, String memberId, MemberState state, Undo undo) {
+        dirty.add(memberId);
+        try {
+            while (!journal.append(type, memberId, state.money, state.version)) {
+                //저널 파일이 가득 참
+                checkpoint();
+            }
+        } catch (RuntimeException e) {
+            if (!undo.run()) {
+                log.warn("unjournaled change could not be undone, memberId = {}", memberId);
+            }
+            throw e;
+        }
+    }
+
+    //스프링 트랜잭션 안이면 롤백될 때 실행할 보상 작업을 기록한다.
+    private void compensateOnRollback(Runnable compensation) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return;
+        }
+        UndoLog undoLog = (UndoLog) TransactionSynchronizationManager.getResource(this);
+        if (undoLog == null) {
+            undoLog = new UndoLog();
+            TransactionSynchronizationManager.bindResource(this, undoLog);
+            TransactionSynchronizationManager.registerSynchronization(undoLog);
+        }
+        undoLog.compensations.add(compensation);
+    }
+
+    //afterCompletion 은 동기화가 해제된 뒤 호출되므로 보상 작업이 다시 기록되지 않는다.
+    private class UndoLog implements TransactionSynchronization {
+        private final List<Runnable> compensations = new ArrayList<>();
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(JournaledMemberRepository.this);
+            if (status == STATUS_COMMITTED) {
+                return;
+            }
+            for (int i = compensations.size() - 1; i >= 0; i--) {
+                compensations.get(i).run();
+            }
+            rolledBack.add(compensations.size());
+        }
+    }
+
+    /**
+     * 새 저널 파일로 바꾼 뒤 변경된 회원을 member 테이블에 저장하고, 커밋되면 이전 저널 파일을 버린다.
+     * 실패하면 이전 파일을 남겨 둔다. 다음 체크포인트는 그 파일을 먼저 저장하고 버린 뒤에 rotate 로 재사용한다.
+     */
+    public synchronized void checkpoint() {
+        if (pendingDiscard >= 0) {
+            writeDirty();
+            journal.discard(pendingDiscard);
+            pendingDiscard = -1;
+        }
+        pendingDiscard = journal.rotate();
+        writeDirty();
+        journal.discard(pendingDiscard);
+        pendingDiscard = -1;
+        checkpoints.increment();
+    }
+
+    //dirty 에서 하나씩 꺼내서 저장한다. 꺼낸 뒤에 다시 변경된 회원은 dirty 에 다시 들어가서 다음 체크포인트에 저장된다.
+    //저장이 실패하면 꺼낸 회원을 dirty 에 되돌려서 다음 체크포인트에 다시 저장한다.
+    private void writeDirty() {
+        List<String> memberIds = new ArrayList<>();
+        List<Object[]> merges = new ArrayList<>();
+        List<Object[]> deletes = new ArrayList<>();
+        for (String memberId : dirty) {
+            dirty.remove(memberId);
+            memberIds.add(memberId);
+            MemberState state = members.get(memberId);
+            if (state == null) {
+                deletes.add(new Object[]{memberId});
+            } else {
+                merges.add(new Object[]{memberId, state.money, state.version});
+            }
+        }
+        try {
+            txTemplate.executeWithoutResult(status -> {
+                template.batchUpdate(MERGE, merges);
+                template.batchUpdate(DELETE, deletes);
+            });
+        } catch (RuntimeException e) {
+            dirty.addAll(memberIds);
+            throw e;
+        }
+    }
+
+    /**
+     * periodMillis 마다 체크포인트를 실행하는 백그라운드 스레드를 시작한다.
+     */
+    public synchronized void startCheckpoints(long periodMillis) {
+        if (checkpointScheduler != null) {
+            throw new IllegalStateException("checkpoints already started");
+        }
+        checkpointScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "member-journal-checkpoint");
+            thread.setDaemon(true);
+            return thread;
+        });
+        checkpointScheduler.scheduleWithFixedDelay(() -> {
+            try {
+                checkpoint();
+            } catch (RuntimeException e) {
+                log.warn("member journal checkpoint failed", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getCheckpointCount() {
+        return checkpoints.sum();
+    }
+
+    public long getRolledBackCount() {
+        return rolledBack.sum();
+    }
+
+    /**
+     * 마지막 체크포인트를 저장하고 저널을 닫는다.
+     */
+    @Override
+    public void close() {
+        ScheduledExecutorService scheduler;
+        synchronized (this) {
+            scheduler = checkpointScheduler;
+            checkpointScheduler = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+            try {
+                scheduler.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        checkpoint();
+        journal.close();
+    }
+}
@@ -0,0 +1,389 @@
+package hello.jdbc.repository.memory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * memberId -> (money, version) open addressing(linear probing) 해시 테이블
+ * HashMap<String, Member> 의 엔트리 객체, String, Member, 박싱 없이 배열 세 개로 저장한다.
+ * - keys : 슬롯마다 memberId 위치(descriptor). arena 오프셋, 길이, 해시 일부
+ * - values : 슬롯마다 money(하위 32비트) + version(상위 31비트). 삭제된 회원은 DELETED
+ * - arena : memberId 의 UTF-8 바이트를 이어 붙인 청크 배열
+ *
+ * 읽기는 잠금이 없고, 쓰기는 슬롯 단위 CAS 로 처리한다.
+ * 한 번 memberId 가 기록된 슬롯은 다른 memberId 에 재사용하지 않는다. (삭제는 values 만 DELETED 로 바꾼다)
+ * 그래서 슬롯을 찾은 뒤 values 를 CAS 하는 동안 슬롯 주인이 바뀌지 않고, 같은 memberId 를 다시 저장하면 그 슬롯을 쓴다.
+ * 대신 삭제된 memberId 도 슬롯과 arena 를 계속 차지하고, 용량은 생성할 때 고정된다. (가득 차면 IllegalStateException)
+ *
+ * version 은 31비트이므로 2^31 번 변경하면 0 으로 돌아간다.
+ */
+public class MemberIndex {
+
+    public static final long ABSENT = -1;
+    private static final long DELETED = -1;
+
+    private static final long EMPTY = 0;
+    private static final long CLAIMED = 1; //슬롯을 차지했지만 아직 memberId 를 기록하는 중
+    private static final long PUBLISHED = Long.MIN_VALUE;
+    private static final int OFFSET_BITS = 40;
+    private static final long OFFSET_MASK = (1L << OFFSET_BITS) - 1;
+    private static final long TAG_MASK = ~(0xFFL << OFFSET_BITS | OFFSET_MASK); //PUBLISHED + 해시 상위 15비트
+    private static final int MAX_KEY_BYTES = 0xFF;
+
+    private static final int CHUNK_SHIFT = 20; //arena 청크 1MB
+    private static final int CHUNK_SIZE = 1 << CHUNK_SHIFT;
+
+    private static final int VERSION_MASK = Integer.MAX_VALUE;
+
+    private final int mask;
+    private final int maxSize;
+    private final AtomicLongArray keys;
+    private final AtomicLongArray values;
+
+    private final AtomicReferenceArray<byte[]> arena;
+    private final AtomicLong arenaTop = new AtomicLong();
+    private final AtomicLong size = new AtomicLong(); //memberId 가 기록된 슬롯 수 (삭제 포함)
+
+    @FunctionalInterface
+    public interface EntryVisitor {
+        void visit(CharSequence memberId, int money, long version);
+    }
+
+    /**
+     * @param expectedMembers 저장할 최대 회원 수. 부하율 0.75 가 되도록 2의 거듭제곱 슬롯을 만든다.
+     */
+    public MemberIndex(int expectedMembers) {
+        if (expectedMembers <= 0) {
+            throw new IllegalArgumentException("expectedMembers must be positive: " + expectedMembers);
+        }
+        long slots = Long.highestOneBit(Math.max(2, expectedMembers * 4L / 3) - 1) << 1;
+        if (slots > 1 << 30) {
+            throw new IllegalArgumentException("too many members: " + expectedMembers);
+        }
+        this.mask = (int) slots - 1;
+        this.maxSize = expectedMembers;
+        this.keys = new AtomicLongArray((int) slots);
+        this.values = new AtomicLongArray((int) slots);
+        //memberId 평균 16바이트로 가정한 청크 수. 부족하면 arena 가 가득 찬다.
+        int chunks = (int) Math.min(Integer.MAX_VALUE, (slots * 16 >> CHUNK_SHIFT) + 1);
+        this.arena = new AtomicReferenceArray<>(chunks);
+    }
+
+    public static int money(long value) {
+        return (int) value;
+    }
+
+    public static long version(long value) {
+        return value >>> 32;
+    }
+
+    private static long pack(int money, long version) {
+        return (version & VERSION_MASK) << 32 | (money & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return money, version 을 묶은 값. 없거나 삭제된 회원이면 ABSENT
+     */
+    public long get(String memberId) {
+        int slot = find(memberId);
+        return slot < 0 ? ABSENT : values.get(slot);
+    }
+
+    /**
+     * 새 회원을 version 0 으로 저장한다. 이미 있으면 false
+     */
+    public boolean insert(String memberId, int money) {
+        long value = pack(money, 0);
+        int slot = findOrClaim(memberId, value);
+        if (slot < 0) {
+            return true; //새 슬롯에 저장됨
+        }
+        return values.compareAndSet(slot, DELETED, value);
+    }
+
+    /**
+     * @return 삭제했으면 true, 없었으면 false
+     */
+    public boolean remove(String memberId) {
+        int slot = find(memberId);
+        return slot >= 0 && values.getAndSet(slot, DELETED) != DELETED;
+    }
+
+    public boolean set(String memberId, int money) {
+        int slot = find(memberId);
+        while (slot >= 0) {
+            long current = values.get(slot);
+            if (current == DELETED) {
+                return false;
+            }
+            if (values.compareAndSet(slot, current, pack(money, version(current) + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean compareAndSet(String memberId, int money, long expectedVersion) {
+        int slot = find(memberId);
+        while (slot >= 0) {
+            long current = values.get(slot);
+            if (current == DELETED || version(current) != expectedVersion) {
+                return false;
+            }
+            if (values.compareAndSet(slot, current, pack(money, version(current) + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    public boolean add(String memberId, int delta) {
+        int slot = find(memberId);
+        while (slot >= 0) {
+            long current = values.get(slot);
+            if (current == DELETED) {
+                return false;
+            }
+            int money = Math.addExact(money(current), delta);
+            if (values.compareAndSet(slot, current, pack(money, version(current) + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    //잔액이 amount 이상일 때만 차감
+    public boolean withdraw(String memberId, int amount) {
+        int slot = find(memberId);
+        while (slot >= 0) {
+            long current = values.get(slot);
+            if (current == DELETED || money(current) < amount) {
+                return false;
+            }
+            if (values.compareAndSet(slot, current, pack(money(current) - amount, version(current) + 1))) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 삭제되지 않은 회원을 슬롯 순서로 방문한다. memberId 는 콜백 안에서만 유효하다. (MemberVisitor 와 같음)
+     */
+    public void forEach(EntryVisitor visitor) {
+        KeyView view = new KeyView();
+        for (int slot = 0; slot <= mask; slot++) {
+            long key = keys.get(slot);
+            if (key >= 0) {
+                continue; //EMPTY, CLAIMED
+            }
+            long value = values.get(slot);
+            if (value != DELETED) {
+                visitor.visit(view.reset(key), money(value), version(value));
+            }
+        }
+    }
+
+    //memberId 가 기록된 슬롯 수 (삭제된 회원 포함)
+    public long size() {
+        return size.get();
+    }
+
+    //배열과 할당된 arena 청크의 바이트 수 (객체 헤더 제외)
+    public long footprintBytes() {
+        long chunks = (arenaTop.get() >> CHUNK_SHIFT) + 1;
+        return (mask + 1L) * 16 + chunks * CHUNK_SIZE;
+    }
+
+    private static int hash(String memberId) {
+        int h = memberId.hashCode() * 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+
+    private static long descriptor(int hash, int length, long offset) {
+        return PUBLISHED | (long) (hash >>> 17) << 48 | (long) length << OFFSET_BITS | offset;
+    }
+
+    //memberId 의 슬롯. 없으면 -1 (삭제된 회원의 슬롯은 돌려준다)
+    private int find(String memberId) {
+        int hash = hash(memberId);
+        long tag = descriptor(hash, 0, 0);
+        for (int i = 0, slot = hash & mask; i <= mask; i++, slot = slot + 1 & mask) {
+            long key = keys.get(slot);
+            if (key == EMPTY) {
+                return -1;
+            }
+            if (key == CLAIMED) {
+                key = awaitPublished(slot);
+                if (key == EMPTY) {
+                    return -1; //차지한 쓰기가 실패해서 되돌림
+                }
+            }
+            if ((key & TAG_MASK) == tag && matches(memberId, key)) {
+                return slot;
+            }
+        }
+        return -1;
+    }
+
+    /**
+     * memberId 의 슬롯을 찾고, 없으면 빈 슬롯을 차지해서 value 로 저장한다.
+     * @return 이미 있던 슬롯 번호, 새로 저장했으면 -1
+     */
+    private int findOrClaim(String memberId, long value) {
+        byte[] bytes = null; //새 슬롯을 차지할 때만 만든다.
+        int hash = hash(memberId);
+        for (int i = 0, slot = hash & mask; i <= mask; i++, slot = slot + 1 & mask) {
+            long key = keys.get(slot);
+            if (key == EMPTY) {
+                if (size.get() >= maxSize) {
+                    break;
+                }
+                if (bytes == null) {
+                    bytes = keyBytes(memberId);
+                }
+                if (keys.compareAndSet(slot, EMPTY, CLAIMED)) {
+                    size.incrementAndGet();
+                    long offset;
+                    try {
+                        offset = allocate(bytes);
+                    } catch (RuntimeException e) {
+                        //CLAIMED 로 남으면 이 슬롯을 지나는 탐색이 awaitPublished 에서 끝나지 않는다.
+                        size.decrementAndGet();
+                        keys.set(slot, EMPTY);
+                        throw e;
+                    }
+                    //values, arena 를 먼저 쓰고 keys 를 volatile 로 기록해야 읽는 쪽에서 완성된 슬롯만 보인다.
+                    values.set(slot, value);
+                    keys.set(slot, descriptor(hash, bytes.length, offset));
+                    return -1;
+                }
+                key = keys.get(slot); //다른 쓰기가 먼저 차지함. 같은 memberId 일 수 있으므로 확인
+            }
+            if (key == CLAIMED) {
+                key = awaitPublished(slot);
+            }
+            if (key == EMPTY) {
+                //차지한 쓰기가 실패해서 되돌림. 같은 슬롯을 다시 본다.
+                i--;
+                slot = slot - 1 & mask;
+                continue;
+            }
+            if (matches(memberId, key)) {
+                return slot;
+            }
+        }
+        throw new IllegalStateException("member index is full: " + maxSize);
+    }
+
+    //슬롯을 차지하기 전에 검사한다.
+    private static byte[] keyBytes(String memberId) {
+        byte[] bytes = memberId.getBytes(StandardCharsets.UTF_8);
+        if (bytes.length > MAX_KEY_BYTES) {
+            throw new IllegalArgumentException("memberId too long: " + bytes.length + " bytes");
+        }
+        return bytes;
+    }
+
+    private long awaitPublished(int slot) {
+        long key;
+        while ((key = keys.get(slot)) == CLAIMED) {
+            Thread.onSpinWait();
+        }
+        return key;
+    }
+
+    //arena 에 memberId 바이트를 복사하고 오프셋을 돌려준다. 한 memberId 가 두 청크에 걸치지 않는다.
+    private long allocate(byte[] bytes) {
+        long offset;
+        while (true) {
+            long top = arenaTop.get();
+            offset = top;
+            if ((top & CHUNK_SIZE - 1) + bytes.length > CHUNK_SIZE) {
+                offset = (top >> CHUNK_SHIFT) + 1 << CHUNK_SHIFT; //다음 청크로
+            }
+            if (arenaTop.compareAndSet(top, offset + bytes.length)) {
+                break;
+            }
+        }
+        int index = (int) (offset >> CHUNK_SHIFT);
+        if (index >= arena.length() || offset > OFFSET_MASK) {
+            throw new IllegalStateException("member index arena is full");
+        }
+        byte[] chunk = arena.get(index);
+        if (chunk == null) {
+            arena.compareAndSet(index, null, new byte[CHUNK_SIZE]);
+            chunk = arena.get(index);
+        }
+        System.arraycopy(bytes, 0, chunk, (int) (offset & CHUNK_SIZE - 1), bytes.length);
+        return offset;
+    }
+
+    //ASCII memberId 는 바이트 배열을 만들지 않고 비교한다.
+    private boolean matches(String memberId, long key) {
+        int length = (int) (key >>> OFFSET_BITS & 0xFF);
+        long offset = key & OFFSET_MASK;
+        byte[] chunk = arena.get((int) (offset >> CHUNK_SHIFT));
+        int start = (int) (offset & CHUNK_SIZE - 1);
+        if (memberId.length() > length) {
+            return false;
+        }
+        for (int i = 0; i < memberId.length(); i++) {
+            char c = memberId.charAt(i);
+            if (c >= 0x80) {
+                byte[] bytes = memberId.getBytes(StandardCharsets.UTF_8);
+                return bytes.length == length && Arrays.equals(bytes, 0, length, chunk, start, start + length);
+            }
+            if (chunk[start + i] != c) {
+                return false;
+            }
+        }
+        return memberId.length() == length;
+    }
+
+    //arena 의 memberId 를 복사 없이 보여주는 CharSequence. ASCII 가 아니면 String 으로 디코딩한다.
+    private final class KeyView implements CharSequence {
+        private byte[] chunk;
+        private int start;
+        private int length;
+        private String decoded;
+
+        private CharSequence reset(long key) {
+            long offset = key & OFFSET_MASK;
+            chunk = arena.get((int) (offset >> CHUNK_SHIFT));
+            start = (int) (offset & CHUNK_SIZE - 1);
+            length = (int) (key >>> OFFSET_BITS & 0xFF);
+            decoded = null;
+            for (int i = start; i < start + length; i++) {
+                if (chunk[i] < 0) {
+                    decoded = new String(chunk, start, length, StandardCharsets.UTF_8);
+                    return decoded;
+                }
+            }
+            return this;
+        }
+
+        @Override
+        public int length() {
+            return length;
+        }
+
+        @Override
+        public char charAt(int index) {
+            return (char) chunk[start + index];
+        }
+
+        @Override
+        public CharSequence subSequence(int from, int to) {
+            return toString().subSequence(from, to);
+        }
+
+        @Override
+        public String toString() {
+            return new String(chunk, start, length, StandardCharsets.US_ASCII);
+        }
+    }
+}
@@ -0,0 +1,259 @@
+package hello.jdbc.repository.memory;
+
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+/**
+ * 메모리 맵 파일(MappedByteBuffer) 기반 추가 전용 저널 (write-ahead log)
+ * 변경 후의 상태(memberId, money, version)를 그대로 기록하므로 같은 기록을 여러 번 재생해도 결과가 같다.
+ *
+ * 파일 두 개(journal-0, journal-1)를 번갈아 쓴다.
+ * 체크포인트를 시작하면 rotate 로 다른 파일에 새 세대(generation)를 시작하고,
+ * 체크포인트가 커밋된 뒤 discard 로 이전 파일을 버린다. 커밋 전에 장애가 나면 두 파일을 모두 재생한다.
+ *
+ * 파일 헤더 : magic(int), generation(long). discard 된 파일은 generation = -1
+ * 기록 : length(int), crc(int), generation(long), type(byte), version(long), money(int), idLength(short), id(bytes)
+ * length 를 마지막에 쓰고, 재생은 length/crc/generation 이 맞지 않는 첫 기록에서 멈춘다. (쓰다 만 기록, 이전 세대의 기록)
+ */
+@Slf4j
+public class MemberJournal implements Closeable {
+
+    public static final byte PUT = 1;
+    public static final byte DELETE = 2;
+
+    private static final int MAGIC = 0x4D4A524E; //MJRN
+    private static final int HEADER_SIZE = 12;
+    private static final int RECORD_HEADER_SIZE = 8; //length + crc
+    private static final int BODY_FIXED_SIZE = 8 + 1 + 8 + 4 + 2;
+    private static final long DISCARDED = -1;
+
+    private final MappedByteBuffer[] files = new MappedByteBuffer[2];
+    private final long[] generations = new long[2];
+    private final FsyncPolicy fsyncPolicy;
+    private final ScheduledExecutorService fsyncScheduler;
+
+    private int active;
+    private int position;
+    private long nextGeneration;
+
+    @FunctionalInterface
+    public interface RecordConsumer {
+        void accept(byte type, String memberId, int money, long version);
+    }
+
+    public MemberJournal(Path directory, int capacityBytes, FsyncPolicy fsyncPolicy, long fsyncIntervalMillis) {
+        if (capacityBytes < HEADER_SIZE + 1024) {
+            throw new IllegalArgumentException("journal capacity too small: " + capacityBytes);
+        }
+        this.fsyncPolicy = fsyncPolicy;
+        try {
+            Files.createDirectories(directory);
+            for (int i = 0; i < files.length; i++) {
+                files[i] = map(directory.resolve("journal-" + i), capacityBytes);
+                generations[i] = readGeneration(files[i]);
+                nextGeneration = Math.max(nextGeneration, generations[i] + 1);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        //재생하기 전까지는 쓰지 않는다. 복구 후 reset 으로 새 세대를 시작한다.
+        this.active = -1;
+
+        if (fsyncPolicy == FsyncPolicy.INTERVAL) {
+            fsyncScheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "member-journal-fsync");
+                thread.setDaemon(true);
+                return thread;
+            });
+            fsyncScheduler.scheduleWithFixedDelay(this::force, fsyncIntervalMillis, fsyncIntervalMillis, TimeUnit.MILLISECONDS);
+        } else {
+            fsyncScheduler = null;
+        }
+    }
+
+    private static MappedByteBuffer map(Path path, int capacityBytes) throws IOException {
+        try (RandomAccessFile file = new RandomAccessFile(path.toFile(), "rw")) {
+            if (file.length() < capacityBytes) {
+                file.setLength(capacityBytes);
+            }
+            //매핑은 채널을 닫아도 유지된다.
+            return file.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, capacityBytes);
+        }
+    }
+
+    private static long readGeneration(MappedByteBuffer file) {
+        return file.getInt(0) == MAGIC ? file.getLong(4) : DISCARDED;
+    }
+
+    /**
+     * 버리지 않은 파일의 기록을 모두 재생한다. 두 파일 사이의 순서는 보장하지 않으므로
+     * 호출하는 쪽은 version 이 가장 큰 기록을 택해야 한다.
+     */
+    public synchronized void replay(RecordConsumer consumer) {
+        for (int i = 0; i < files.length; i++) {
+            if (generations[i] == DISCARDED) {
+                continue;
+            }
+            int count = 0;
+            int end = HEADER_SIZE;
+            while (true) {
+                int next = readRecord(files[i], end, generations[i], consumer);
+                if (next < 0) {
+                    break;
+                }
+                end = next;
+                count++;
+            }
+            log.info("journal-{} replayed generation = {}, records = {}", i, generations[i], count);
+        }
+    }
+
+    //position 의 기록을 읽어서 consumer 에 넘긴다. 다음 기록 위치, 유효한 기록이 아니면 -1
+    private static int readRecord(MappedByteBuffer file, int position, long generation, RecordConsumer consumer) {
+        if (position + RECORD_HEADER_SIZE + BODY_FIXED_SIZE > file.capacity()) {
+            return -1;
+        }
+        int length = file.getInt(position);
+        if (length < BODY_FIXED_SIZE || position + RECORD_HEADER_SIZE + length > file.capacity()) {
+            return -1;
+        }
+        int bodyStart = position + RECORD_HEADER_SIZE;
+        byte[] body = new byte[length];
+        ByteBuffer view = file.duplicate(); //절대 위치 bulk get 은 Java 13 부터라서 복제본의 position 사용
+        view.position(bodyStart);
+        view.get(body);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+        if ((int) crc.getValue() != file.getInt(position + 4) || file.getLong(bodyStart) != generation) {
+            return -1;
+        }
+        byte type = file.get(bodyStart + 8);
+        long version = file.getLong(bodyStart + 9);
+        int money = file.getInt(bodyStart + 17);
+        int idLength = file.getShort(bodyStart + 21);
+        if (idLength < 0 || BODY_FIXED_SIZE + idLength != length) {
+            return -1;
+        }
+        String memberId = new String(body, BODY_FIXED_SIZE, idLength, StandardCharsets.UTF_8);
+        consumer.accept(type, memberId, money, version);
+        return bodyStart + length;
+    }
+
+    /**
+     * 현재 파일 끝에 기록한다. 파일이 가득 차면 false (체크포인트 후 다시 시도)
+     */
+    public synchronized boolean append(byte type, String memberId, int money, long version) {
+        if (active < 0) {
+            throw new IllegalStateException("journal is not started");
+        }
+        byte[] id = memberId.getBytes(StandardCharsets.UTF_8);
+        int length = BODY_FIXED_SIZE + id.length;
+        MappedByteBuffer file = files[active];
+        if (position + RECORD_HEADER_SIZE + length > file.capacity()) {
+            return false;
+        }
+
+        byte[] body = new byte[length];
+        ByteBuffer.wrap(body)
+                .putLong(generations[active])
+                .put(type)
+                .putLong(version)
+                .putInt(money)
+                .putShort((short) id.length)
+                .put(id);
+        CRC32 crc = new CRC32();
+        crc.update(body);
+
+        ByteBuffer view = file.duplicate();
+        view.position(position + RECORD_HEADER_SIZE);
+        view.put(body);
+        file.putInt(position + 4, (int) crc.getValue());
+        file.putInt(position, length); //length 를 마지막에 써서 쓰다 만 기록을 재생하지 않도록
+        position += RECORD_HEADER_SIZE + length;
+
+        if (fsyncPolicy == FsyncPolicy.EVERY_WRITE) {
+            file.force();
+        }
+        return true;
+    }
+
+    /**
+     * 다른 파일에 새 세대를 시작하고 이전 파일 번호를 돌려준다. (체크포인트 시작)
+     * 이전 파일은 체크포인트가 커밋된 뒤 discard 해야 한다. 버리지 않은 파일은 다시 rotate 해서 덮어쓰지 않는다.
+     */
+    public synchronized int rotate() {
+        int previous = active;
+        if (generations[1 - previous] != DISCARDED) {
+            throw new IllegalStateException("journal " + (1 - previous) + " is not discarded yet");
+        }
+        files[previous].force();
+        start(1 - previous);
+        return previous;
+    }
+
+    /**
+     * 체크포인트가 커밋되어 더 이상 필요 없는 파일을 버린다.
+     */
+    public synchronized void discard(int file) {
+        if (file == active) {
+            throw new IllegalArgumentException("cannot discard active journal " + file);
+        }
+        writeHeader(file, DISCARDED);
+    }
+
+    /**
+     * 두 파일을 모두 버리고 새 세대를 시작한다. (복구한 상태를 체크포인트로 저장한 뒤 호출)
+     */
+    public synchronized void reset() {
+        writeHeader(1, DISCARDED);
+        start(0);
+    }
+
+    private void start(int file) {
+        writeHeader(file, nextGeneration++);
+        //이전 세대의 첫 기록을 지워서 재생이 바로 멈추도록
+        files[file].putInt(HEADER_SIZE, 0);
+        files[file].force();
+        active = file;
+        position = HEADER_SIZE;
+    }
+
+    private void writeHeader(int file, long generation) {
+        files[file].putInt(0, MAGIC);
+        files[file].putLong(4, generation);
+        files[file].force();
+        generations[file] = generation;
+    }
+
+    public synchronized void force() {
+        if (active >= 0) {
+            files[active].force();
+        }
+    }
+
+    public synchronized int getPosition() {
+        return position;
+    }
+
+    @Override
+    public void close() {
+        if (fsyncScheduler != null) {
+            fsyncScheduler.shutdown();
+        }
+        force();
+    }
+}
@@ -0,0 +1,540 @@
+package hello.jdbc.repository.memory;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberVisitor;
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.stream.Stream;
+
+/**
+ * 다중 버전(MVCC) 메모리 리포지토리
+ * 회원마다 버전 체인(최신 -> 이전)을 두고, 커밋할 때마다 전역 epoch 를 1 올려서 새 버전을 체인 앞에 붙인다.
+ * 스냅샷(snapshot)은 열 때의 epoch 를 고정하고 그 epoch 이하로 커밋된 버전만 읽는다.
+ * 그래서 전체 합계 같은 리포트 조회가 이체를 막지 않고, 이체 도중의 상태(출금만 된 상태)를 보지 않는다.
+ *
+ * - 쓰기는 회원마다 ReentrantLock 을 잡는다. 스프링 트랜잭션 안이면 트랜잭션이 끝날 때까지 잡고 있고,
+ *   변경은 트랜잭션 안에만 보이다가 커밋되면 한 epoch 로 함께 반영된다. 롤백되면 버린다.
+ *   lockTimeout 안에 잠금을 얻지 못하면 CannotAcquireLockException (교착 상태 대신, TransferExecutor 의 재시도 대상)
+ * - 트랜잭션 밖의 쓰기는 한 건(transfer 는 두 건)이 바로 커밋된다.
+ * - findById 는 자기 트랜잭션의 변경 또는 가장 최근에 커밋된 버전을 읽는다. (read committed)
+ *   findByIdForUpdate 는 트랜잭션이 끝날 때까지 회원 잠금을 잡는다.
+ * - 열린 스냅샷 중 가장 오래된 epoch 에 보이는 버전보다 이전 버전은 collectGarbage 가 체인에서 끊는다.
+ *
+ * 예외는 MemberRepositoryV5 와 같다. (없는 회원 조회 시 EmptyResultDataAccessException, 중복 저장 시 DuplicateKeyException)
+ */
+@Slf4j
+public class MvccMemberRepository implements MemberRepository, Closeable {
+
+    private static final long PENDING = Long.MAX_VALUE; //아직 커밋되지 않은 버전의 epoch
+
+    private final ConcurrentHashMap<String, MemberRecord> records = new ConcurrentHashMap<>();
+    private final Object commitLock = new Object();
+    private volatile long committedEpoch;
+
+    private final Set<Snapshot> snapshots = ConcurrentHashMap.newKeySet();
+    private volatile long pruneHorizon; //이 epoch 보다 오래된 스냅샷은 열 수 없다. (이미 정리됐을 수 있음)
+    private final ConcurrentLinkedQueue<MemberRecord> garbage = new ConcurrentLinkedQueue<>(); //정리할 버전이 있을 수 있는 회원
+
+    private long lockTimeoutMillis = 1000;
+    private ScheduledExecutorService collector;
+
+    //메트릭
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder prunedVersions = new LongAdder();
+
+    //커밋된 버전. next 만 정리할 때 끊는다.
+    private static final class Version {
+        private final int money;
+        private final long version; //회원 version (낙관적 락)
+        private final boolean deleted;
+        private final long epoch;
+        private volatile Version next;
+
+        private Version(int money, long version, boolean deleted, long epoch, Version next) {
+            this.money = money;
+            this.version = version;
+            this.deleted = deleted;
+            this.epoch = epoch;
+            this.next = next;
+        }
+
+        private Version withMoney(int money) {
+            return new Version(money, version + 1, false, PENDING, null);
+        }
+    }
+
+    private static final class MemberRecord {
+        private final String memberId;
+        private final ReentrantLock lock = new ReentrantLock();
+        private final AtomicBoolean queued = new AtomicBoolean(); //garbage 큐에 들어 있음
+        private volatile Version head;
+        private volatile boolean removed; //정리되어 records 에서 빠짐. 잠근 뒤 확인하고 다시 찾는다.
+
+        private MemberRecord(String memberId) {
+            this.memberId = memberId;
+        }
+
+        //epoch 이하로 커밋된 최신 버전. 없거나 삭제됐으면 null
+        private Version visible(long epoch) {
+            Version version = head;
+            while (version != null && version.epoch > epoch) {
+                version = version.next;
+            }
+            return version == null || version.deleted ? null : version;
+        }
+    }
+
+    public void setLockTimeout(long lockTimeoutMillis) {
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    @Override
+    public Member save(Member member) {
+        boolean saved = write(member.getMemberId(), true,
+                current -> current == null ? new Version(member.getMoney(), 0, false, PENDING, null) : null);
+        if (!saved) {
+            throw new DuplicateKeyException("member already exists memberId = " + member.getMemberId());
+        }
+        return member;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        MemberRecord record = records.get(memberId);
+        TxState tx = currentTx(false);
+        Version version = record == null ? null : latest(tx, record);
+        return toMember(memberId, version);
+    }
+
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        TxState tx = currentTx(true);
+        if (tx == null) {
+            return findById(memberId);
+        }
+        MemberRecord record = lock(memberId, false, tx);
+        return toMember(memberId, record == null ? null : latest(tx, record));
+    }
+
+    private static Member toMember(String memberId, Version version) {
+        if (version == null) {
+            throw new EmptyResultDataAccessException(1);
+        }
+        Member member = new Member(memberId, version.money);
+        member.setVersion(version.version);
+        return member;
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        write(memberId, false, current -> current == null ? null : current.withMoney(money));
+    }
+
+    @Override
+    public int update(String memberId, int money, long expectedVersion) {
+        return write(memberId, false,
+                current -> current == null || current.version != expectedVersion ? null : current.withMoney(money)) ? 1 : 0;
+    }
+
+    @Override
+    public void delete(String memberId) {
+        write(memberId, false, current -> current == null ? null : new Version(0, current.version + 1, true, PENDING, null));
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        return write(memberId, false,
+                current -> current == null ? null : current.withMoney(Math.addExact(current.money, delta))) ? 1 : 0;
+    }
+
+    @Override
+    public int withdraw(String memberId, int amount) {
+        return write(memberId, false,
+                current -> current == null || current.money < amount ? null : current.withMoney(current.money - amount)) ? 1 : 0;
+    }
+
+    //두 회원을 memberId 순서로 잠그고 같은 epoch 로 반영한다.
+    @Override
+    public int transfer(String fromId, String toId, int money) {
+        if (fromId.equals(toId)) {
+            return 0;
+        }
+        TxState tx = currentTx(true);
+        boolean fromFirst = fromId.compareTo(toId) < 0;
+        MemberRecord first = lock(fromFirst ? fromId : toId, false, tx);
+        MemberRecord second = first == null ? null : lock(fromFirst ? toId : fromId, false, tx);
+        try {
+            if (second == null) {
+                return 0;
+            }
+            MemberRecord fromRecord = fromFirst ? first : second;
+            MemberRecord toRecord = fromFirst ? second : first;
+            Version from = latest(tx, fromRecord);
+            Version to = latest(tx, toRecord);
+            if (from == null || to == null || from.money < money) {
+                return 0;
+            }
+            Map<MemberRecord, Version> changes = new LinkedHashMap<>();
+            changes.put(fromRecord, from.withMoney(from.money - money));
+            changes.put(toRecord, to.withMoney(Math.addExact(to.money, money)));
+            apply(tx, changes);
+            return 2;
+        } finally {
+            if (tx == null) {
+                unlock(first);
+                unlock(second);
+            }
+        }
+    }
+
+    //열린 스냅샷 하나로 읽으므로 도중에 커밋된 이체가 반쯤 보이지 않는다.
+    @Override
+    public Stream<Member> streamAll() {
+        List<Member> members = new ArrayList<>();
+        try (Snapshot snapshot = snapshot()) {
+            snapshot.forEach((memberId, version) -> {
+                Member member = new Member(memberId, version.money);
+                member.setVersion(version.version);
+                members.add(member);
+            });
+        }
+        return members.stream();
+    }
+
+    @Override
+    public void scan(MemberVisitor visitor) {
+        try (Snapshot snapshot = snapshot()) {
+            snapshot.scan(visitor);
+        }
+    }
+
+    //변경을 JDBC 커넥션 밖(메모리)에 두므로 savepoint 로 되돌릴 수 없다.
+    @Override
+    public boolean supportsSavepoints() {
+        return false;
+    }
+
+    @FunctionalInterface
+    private interface Change {
+        //현재 버전(없거나 삭제됐으면 null)으로 새 버전을 만든다. 변경하지 않으려면 null
+        Version apply(Version current);
+    }
+
+    private boolean write(String memberId, boolean create, Change change) {
+        TxState tx = currentTx(true);
+        MemberRecord record = lock(memberId, create, tx);
+        if (record == null) {
+            return false;
+        }
+        try {
+            Version next = change.apply(latest(tx, record));
+            if (next == null) {
+                return false;
+            }
+            Map<MemberRecord, Version> changes = new LinkedHashMap<>();
+            changes.put(record, next);
+            apply(tx, changes);
+            return true;
+        } finally {
+            if (tx == null) {
+                unlock(record);
+            }
+        }
+    }
+
+    //자기 트랜잭션의 변경, 없으면 가장 최근에 커밋된 버전. 없거나 삭제됐으면 null
+    private static Version latest(TxState tx, MemberRecord record) {
+        Version version = tx == null ? null : tx.pending.get(record);
+        if (version == null) {
+            version = record.head;
+        }
+        return version == null || version.deleted ? null : version;
+    }
+
+    private void apply(TxState tx, Map<MemberRecord, Version> changes) {
+        if (tx == null) {
+            install(changes);
+        } else {
+            tx.pending.putAll(changes);
+        }
+    }
+
+    //새 epoch 로 버전들을 체인 앞에 붙이고, 모두 붙인 뒤에 committedEpoch 를 올려서 한 번에 보이게 한다.
+    private void install(Map<MemberRecord, Version> changes) {
+        synchronized (commitLock) {
+            long epoch = committedEpoch + 1;
+            changes.forEach((record, pending) -> {
+                record.head = new Version(pending.money, pending.version, pending.deleted, epoch, record.head);
+                if (record.head.next != null || record.head.deleted) {
+                    enqueueGarbage(record);
+                }
+            });
+            committedEpoch = epoch;
+        }
+        commits.increment();
+    }
+
+    //회원 잠금. 트랜잭션 안이면 이미 잡은 잠금을 다시 잡지 않는다. 없는 회원이면 (create 가 아니면) null
+    private MemberRecord lock(String memberId, boolean create, TxState tx) {
+        while (true) {
+            MemberRecord record = create ? records.computeIfAbsent(memberId, MemberRecord::new) : records.get(memberId);
+            if (record == null) {
+                return null;
+            }
+            if (tx != null && tx.locked.contains(record)) {
+                return record;
+            }
+            try {
+                if (!record.lock.tryLock(lockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                    throw new CannotAcquireLockException("member lock timeout memberId = " + memberId);
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new CannotAcquireLockException("interrupted while locking memberId = " + memberId, e);
+            }
+            if (record.removed) {
+                //잠금을 기다리는 동안 정리됨. 다시 찾는다.
+                record.lock.unlock();
+                continue;
+            }
+            if (create && record.head == null) {
+                //저장이 롤백되면 빈 회원이 남으므로 정리 대상
+                enqueueGarbage(record);
+            }
+            if (tx != null) {
+                tx.locked.add(record);
+            }
+            return record;
+        }
+    }
+
+    private static void unlock(MemberRecord record) {
+        if (record != null) {
+            record.lock.unlock();
+        }
+    }
+
+    private void enqueueGarbage(MemberRecord record) {
+        if (record.queued.compareAndSet(false, true)) {
+            garbage.add(record);
+        }
+    }
+
+    //스프링 트랜잭션마다 잡은 잠금과 커밋 전 변경
+    private final class TxState implements TransactionSynchronization {
+        private final Map<MemberRecord, Version> pending = new LinkedHashMap<>();
+        private final List<MemberRecord> locked = new ArrayList<>();
+
+        @Override
+        public void afterCompletion(int status) {
+            TransactionSynchronizationManager.unbindResourceIfPossible(MvccMemberRepository.this);
+            try {
+                if (status == STATUS_COMMITTED && !pending.isEmpty()) {
+                    install(pending);
+                }
+            } finally {
+                locked.forEach(MvccMemberRepository::unlock);
+            }
+        }
+    }
+
+    private TxState currentTx(boolean create) {
+        if (!TransactionSynchronizationManager.isSynchronizationActive()) {
+            return null;
+        }
+        TxState tx = (TxState) TransactionSynchronizationManager.getResource(this);
+        if (tx == null && create) {
+            tx = new TxState();
+            TransactionSynchronizationManager.bindResource(this, tx);
+            TransactionSynchronizationManager.registerSynchronization(tx);
+        }
+        return tx;
+    }
+
+    /**
+     * 현재 커밋된 epoch 로 스냅샷을 연다. 닫을 때까지 같은 epoch 의 버전을 읽는다. (repeatable read)
+     * 쓰기를 막지 않고, 열려 있는 동안 그 epoch 에 필요한 버전은 정리되지 않는다. 반드시 닫아야 한다.
+     * 트랜잭션 안에서 열어도 자기 트랜잭션의 커밋 전 변경은 보이지 않는다.
+     */
+    public Snapshot snapshot() {
+        while (true) {
+            Snapshot snapshot = new Snapshot(committedEpoch);
+            snapshots.add(snapshot);
+            //등록하기 전에 정리가 이 epoch 를 지나쳤으면 새 epoch 로 다시 연다. (collectGarbage 참고)
+            if (snapshot.epoch >= pruneHorizon) {
+                return snapshot;
+            }
+            snapshots.remove(snapshot);
+        }
+    }
+
+    public final class Snapshot implements Closeable {
+        private final long epoch;
+
+        private Snapshot(long epoch) {
+            this.epoch = epoch;
+        }
+
+        public long getEpoch() {
+            return epoch;
+        }
+
+        public Member findById(String memberId) {
+            MemberRecord record = records.get(memberId);
+            return toMember(memberId, record == null ? null : record.visible(epoch));
+        }
+
+        public void scan(MemberVisitor visitor) {
+            forEach((memberId, version) -> visitor.visit(memberId, version.money));
+        }
+
+        public long sumMoney() {
+            long[] sum = new long[1];
+            forEach((memberId, version) -> sum[0] += version.money);
+            return sum[0];
+        }
+
+        private void forEach(VersionVisitor visitor) {
+            //스냅샷 이후에 생긴 회원은 epoch 가 커서 보이지 않으므로 맵을 순회하는 도중의 변경은 상관없다.
+            for (MemberRecord record : records.values()) {
+                Version version = record.visible(epoch);
+                if (version != null) {
+                    visitor.visit(record.memberId, version);
+                }
+            }
+        }
+
+        @Override
+        public void close() {
+            snapshots.remove(this);
+        }
+    }
+
+    @FunctionalInterface
+    private interface VersionVisitor {
+        void visit(String memberId, Version version);
+    }
+
+    /**
+     * 열린 스냅샷이 더 이상 볼 수 없는 이전 버전을 체인에서 끊고, 삭제된 회원을 맵에서 제거한다.
+     *
+     * @return 끊은 버전 수
+     */
+    public synchronized int collectGarbage() {
+        //순서 주의! horizon 을 먼저 공개한 뒤 스냅샷을 확인해야 snapshot() 과 경쟁해도 필요한 버전을 지우지 않는다.
+        long horizon = committedEpoch;
+        pruneHorizon = horizon;
+        for (Snapshot snapshot : snapshots) {
+            horizon = Math.min(horizon, snapshot.epoch);
+        }
+
+        int pruned = 0;
+        List<MemberRecord> retry = new ArrayList<>();
+        MemberRecord record;
+        while ((record = garbage.poll()) != null) {
+            record.queued.set(false);
+            Version keep = record.head;
+            while (keep != null && keep.epoch > horizon) {
+                keep = keep.next;
+            }
+            if (keep != null) {
+                for (Version old = keep.next; old != null; old = old.next) {
+                    pruned++;
+                }
+                keep.next = null;
+            }
+            boolean empty = record.head == null || (record.head.deleted && record.head == keep);
+            //자기 트랜잭션이 잡은 잠금은 tryLock 이 성공하므로 제외
+            if (empty && !record.lock.isHeldByCurrentThread() && record.lock.tryLock()) {
+                try {
+                    //잠근 뒤 다시 확인. 다른 트랜잭션이 잡고 있던 잠금이면 tryLock 이 실패한다.
+                    if (record.head == null || (record.head.deleted && record.head.epoch <= horizon)) {
+                        record.removed = true;
+                        records.remove(record.memberId, record);
+                        if (record.head != null) {
+                            pruned++;
+                        }
+                        continue;
+                    }
+                } finally {
+                    record.lock.unlock();
+                }
+            }
+            if (record.head == null || record.head.next != null || record.head.deleted) {
+                retry.add(record);
+            }
+        }
+        retry.forEach(this::enqueueGarbage);
+        prunedVersions.add(pruned);
+        return pruned;
+    }
+
+    /**
+     * periodMillis 마다 collectGarbage 를 실행하는 백그라운드 스레드를 시작한다.
+     */
+    public synchronized void startGarbageCollection(long periodMillis) {
+        if (collector != null) {
+            throw new IllegalStateException("garbage collection already started");
+        }
+        collector = Executors.newSingleThreadScheduledExecutor(r -> {
+            Thread thread = new Thread(r, "member-mvcc-collector");
+            thread.setDaemon(true);
+            return thread;
+        });
+        collector.scheduleWithFixedDelay(() -> {
+            try {
+                collectGarbage();
+            } catch (RuntimeException e) {
+                log.warn("member mvcc garbage collection failed", e);
+            }
+        }, periodMillis, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    public long getCommittedEpoch() {
+        return committedEpoch;
+    }
+
+    public int getOpenSnapshotCount() {
+        return snapshots.size();
+    }
+
+    public long getCommitCount() {
+        return commits.sum();
+    }
+
+    public long getPrunedVersionCount() {
+        return prunedVersions.sum();
+    }
+
+    @Override
+    public void close() {
+        ScheduledExecutorService scheduler;
+        synchronized (this) {
+            scheduler = collector;
+            collector = null;
+        }
+        if (scheduler != null) {
+            scheduler.shutdown();
+        }
+    }
+}
@@ -0,0 +1,226 @@
+package hello.jdbc.repository.memory;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberVisitor;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.Stream;
+
+/**
+ * delegate(DB 리포지토리) 앞에 두는 OffHeapMemberStore 캐시 계층. findById 결과(money, version)를 힙 밖에 보관한다.
+ *
+ * - 쓰기는 delegate 에 그대로 전달하고 해당 회원을 캐시에서 지운다. 트랜잭션 안이면 완료(커밋/롤백) 후에 한 번 더 지운다.
+ *   (커밋 전에 다른 스레드가 이전 값을 다시 캐시에 넣을 수 있으므로)
+ * - 트랜잭션 안의 조회와 findByIdForUpdate 는 캐시를 거치지 않는다. (잠금, 자기 트랜잭션의 변경이 보여야 함)
+ * - DB 조회 중에 다른 회원이라도 무효화가 일어나면 조회 결과를 캐시에 넣지 않는다. (이전 값이 들어가는 경쟁 방지)
+ * 크기 제한은 없다. 최대 회원 수만큼의 메모리를 전제로 하고, 무효화로 삭제된 항목이 살아 있는 항목보다 많아지면 압축한다.
+ */
+public class OffHeapCachedMemberRepository implements MemberRepository {
+
+    private static final int COMPACT_THRESHOLD = 10000;
+
+    private final MemberRepository delegate;
+    private final OffHeapMemberStore store;
+    private final AtomicLong invalidations = new AtomicLong();
+
+    //메트릭
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public OffHeapCachedMemberRepository(MemberRepository delegate, int expectedMembers) {
+        this.delegate = delegate;
+        this.store = new OffHeapMemberStore(expectedMembers);
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        if (TransactionSynchronizationManager.isActualTransactionActive()) {
+            return delegate.findById(memberId);
+        }
+        long value = store.get(memberId);
+        if (value != OffHeapMemberStore.ABSENT) {
+            hits.increment();
+            Member member = new Member(memberId, MemberIndex.money(value));
+            member.setVersion(MemberIndex.version(value));
+            return member;
+        }
+        misses.increment();
+        long before = invalidations.get();
+        Member member = delegate.findById(memberId);
+        if (invalidations.get() == before) {
+            store.insert(memberId, member.getMoney(), member.getVersion());
+            if (invalidations.get() != before) {
+                //넣는 사이 무효화됨
+                store.remove(memberId);
+            }
+        }
+        return member;
+    }
+
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return delegate.findByIdForUpdate(memberId);
+    }
+
+    @Override
+    public Member save(Member member) {
+        try {
+            return delegate.save(member);
+        } finally {
+            invalidate(member.getMemberId());
+        }
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        try {
+            delegate.update(memberId, money);
+        } finally {
+            invalidate(memberId);
+        }
+    }
+
+    @Override
+    public int update(String memberId, int money, long expectedVersion) {
+        try {
+            return delegate.update(memberId, money, expectedVersion);
+        } finally {
+            invalidate(memberId);
+        }
+    }
+
+    @Override
+    public void delete(String memberId) {
+        try {
+            delegate.delete(memberId);
+        } finally {
+            invalidate(memberId);
+        }
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        try {
+            return delegate.addMoney(memberId, delta);
+        } finally {
+            invalidate(memberId);
+        }
+    }
+
+    @Override
+    public int withdraw(String memberId, int amount) {
+        try {
+            return delegate.withdraw(memberId, amount);
+        } finally {
+            invalidate(memberId);
+        }
+    }
+
+    @Override
+    public int transfer(String fromId, String toId, int money) {
+        try {
+            return delegate.transfer(fromId, toId, money);
+        } finally {
+            invalidate(fromId);
+            invalidate(toId);
+        }
+    }
+
+    @Override
+    public Stream<Member> streamAll() {
+        return delegate.streamAll();
+    }
+
+    @Override
+    public void scan(MemberVisitor visitor) {
+        delegate.scan(visitor);
+    }
+
+    @Override
+    public boolean supportsSavepoints() {
+        return delegate.supportsSavepoints();
+    }
+
+    @Override
+    public Map<String, Member> findAllById(Collection<String> memberIds) {
+        return delegate.findAllById(memberIds);
+    }
+
+    @Override
+    public void saveAll(Collection<Member> members) {
+        try {
+            delegate.saveAll(members);
+        } finally {
+            members.forEach(member -> invalidate(member.getMemberId()));
+        }
+    }
+
+    @Override
+    public void updateAll(Map<String, Integer> moneyByMemberId) {
+        try {
+            delegate.updateAll(moneyByMemberId);
+        } finally {
+            moneyByMemberId.keySet().forEach(this::invalidate);
+        }
+    }
+
+    @Override
+    public void deleteAll(Collection<String> memberIds) {
+        try {
+            delegate.deleteAll(memberIds);
+        } finally {
+            memberIds.forEach(this::invalidate);
+        }
+    }
+
+    private void invalidate(String memberId) {
+        invalidations.incrementAndGet();
+        if (store.remove(memberId) && store.deletedCount() > Math.max(COMPACT_THRESHOLD, store.size())) {
+            //쓰기마다 삭제가 쌓이므로 살아 있는 항목보다 많아지면 압축
+            store.compact();
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            pendingInvalidations().add(memberId);
+        }
+    }
+
+    //트랜잭션마다 완료 후 지울 memberId 목록
+    @SuppressWarnings("unchecked")
+    private List<String> pendingInvalidations() {
+        List<String> pending = (List<String>) TransactionSynchronizationManager.getResource(this);
+        if (pending == null) {
+            List<String> created = new ArrayList<>();
+            TransactionSynchronizationManager.bindResource(this, created);
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(int status) {
+                    TransactionSynchronizationManager.unbindResourceIfPossible(OffHeapCachedMemberRepository.this);
+                    invalidations.incrementAndGet();
+                    created.forEach(store::remove);
+                }
+            });
+            pending = created;
+        }
+        return pending;
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public OffHeapMemberStore getStore() {
+        return store;
+    }
+}
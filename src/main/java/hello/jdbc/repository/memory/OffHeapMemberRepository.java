@@ -0,0 +1,118 @@
+package hello.jdbc.repository.memory;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberVisitor;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.util.stream.Stream;
+
+/**
+ * OffHeapMemberStore 를 원본으로 사용하는 메모리 리포지토리. (DB 없음)
+ * 예외와 transfer, findByIdForUpdate 동작은 IndexedMemberRepository 와 같다.
+ * 삭제가 쌓이면 compact 를 호출해서 공간을 회수한다.
+ */
+public class OffHeapMemberRepository implements MemberRepository {
+
+    private final OffHeapMemberStore store;
+
+    public OffHeapMemberRepository(int expectedMembers) {
+        this.store = new OffHeapMemberStore(expectedMembers);
+    }
+
+    @Override
+    public Member save(Member member) {
+        if (!store.insert(member.getMemberId(), member.getMoney())) {
+            throw new DuplicateKeyException("member already exists memberId = " + member.getMemberId());
+        }
+        return member;
+    }
+
+    @Override
+    public Member findById(String memberId) {
+        long value = store.get(memberId);
+        if (value == OffHeapMemberStore.ABSENT) {
+            throw new EmptyResultDataAccessException(1);
+        }
+        Member member = new Member(memberId, MemberIndex.money(value));
+        member.setVersion(MemberIndex.version(value));
+        return member;
+    }
+
+    //잠그지 않는다.
+    @Override
+    public Member findByIdForUpdate(String memberId) {
+        return findById(memberId);
+    }
+
+    @Override
+    public void update(String memberId, int money) {
+        store.set(memberId, money);
+    }
+
+    @Override
+    public int update(String memberId, int money, long expectedVersion) {
+        return store.compareAndSet(memberId, money, expectedVersion) ? 1 : 0;
+    }
+
+    @Override
+    public void delete(String memberId) {
+        store.remove(memberId);
+    }
+
+    @Override
+    public int addMoney(String memberId, int delta) {
+        return store.add(memberId, delta) ? 1 : 0;
+    }
+
+    @Override
+    public int withdraw(String memberId, int amount) {
+        return store.withdraw(memberId, amount) ? 1 : 0;
+    }
+
+    @Override
+    public int transfer(String fromId, String toId, int money) {
+        if (fromId.equals(toId) || store.get(toId) == OffHeapMemberStore.ABSENT || !store.withdraw(fromId, money)) {
+            return 0;
+        }
+        if (!store.add(toId, money)) {
+            //그 사이 입금 계좌가 삭제됨
+            store.add(fromId, money);
+            return 0;
+        }
+        return 2;
+    }
+
+    //전체를 Member 로 만들어 모은 뒤 스트림으로 돌려준다. 대량 집계는 scan 을 사용한다.
+    @Override
+    public Stream<Member> streamAll() {
+        Stream.Builder<Member> builder = Stream.builder();
+        store.forEach((memberId, money, version) -> {
+            Member member = new Member(memberId.toString(), money);
+            member.setVersion(version);
+            builder.add(member);
+        });
+        return builder.build();
+    }
+
+    @Override
+    public void scan(MemberVisitor visitor) {
+        store.forEach((memberId, money, version) -> visitor.visit(memberId, money));
+    }
+
+    //변경을 JDBC 커넥션 밖(메모리)에 두므로 savepoint 로 되돌릴 수 없다.
+    @Override
+    public boolean supportsSavepoints() {
+        return false;
+    }
+
+    //삭제된 회원의 공간을 회수한다. 회수한 레코드 수
+    public int compact() {
+        return store.compact();
+    }
+
+    public OffHeapMemberStore getStore() {
+        return store;
+    }
+}
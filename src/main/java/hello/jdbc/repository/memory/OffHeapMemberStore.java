@@ -0,0 +1,400 @@
+package hello.jdbc.repository.memory;
+
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * 힙 밖(ByteBuffer.allocateDirect)에 회원을 저장하는 저장소. 회원 수가 늘어도 GC 가 추적할 객체가 늘지 않는다.
+ * - 레코드 슬랩 : 고정 크기(24바이트) 레코드 배열. value(money + version, MemberIndex 와 같은 형식), memberId 위치, 해시
+ * - memberId 영역 : memberId 의 UTF-8 바이트를 이어 붙인 direct 청크
+ * - 인덱스 : open addressing int 테이블 (레코드 번호 + 1, 0 = 빈 슬롯, -1 = 삭제됨)
+ *
+ * 조회와 잔액 변경은 읽기 잠금을 잡고 value 를 VarHandle CAS 로 바꾸므로 서로 막지 않는다.
+ * 저장, 삭제, 압축처럼 구조를 바꾸는 작업은 쓰기 잠금으로 처리한다.
+ * 삭제한 레코드와 memberId 바이트는 compact 를 호출할 때까지 공간을 차지한다.
+ */
+public class OffHeapMemberStore {
+
+    public static final long ABSENT = MemberIndex.ABSENT;
+    private static final long DELETED = -1;
+
+    private static final int RECORD_SIZE = 24; //value(long), idOffset(long), idLength(int), hash(int)
+    private static final int SLAB_SHIFT = 16; //슬랩 하나에 65536 레코드
+    private static final int SLAB_RECORDS = 1 << SLAB_SHIFT;
+    private static final int ID_CHUNK_SHIFT = 20; //memberId 청크 1MB
+    private static final int ID_CHUNK_SIZE = 1 << ID_CHUNK_SHIFT;
+    private static final int TOMBSTONE = -1;
+
+    //modify 연산
+    private static final int SET = 0;
+    private static final int COMPARE_AND_SET = 1;
+    private static final int ADD = 2;
+    private static final int WITHDRAW = 3;
+
+    //direct 버퍼의 8바이트 정렬된 위치에서만 CAS 가능. 레코드 크기를 8의 배수로 맞춘 이유
+    private static final VarHandle LONG = MethodHandles.byteBufferViewVarHandle(long[].class, ByteOrder.nativeOrder());
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+    private final Lock readLock = lock.readLock();
+    private final Lock writeLock = lock.writeLock();
+
+    private List<ByteBuffer> slabs = new ArrayList<>();
+    private List<ByteBuffer> idChunks = new ArrayList<>();
+    private ByteBuffer index;
+    private int indexMask;
+    private int records; //사용한 레코드 수 (삭제 포함)
+    private int deleted;
+    private int indexUsed; //인덱스에서 비어 있지 않은 슬롯 수 (삭제 표시 포함)
+    private long idTop;
+
+    public OffHeapMemberStore(int expectedMembers) {
+        allocateIndex(Math.max(16, expectedMembers * 2));
+    }
+
+    private void allocateIndex(int minSlots) {
+        int slots = Integer.highestOneBit(minSlots - 1) << 1;
+        index = ByteBuffer.allocateDirect(slots * Integer.BYTES).order(ByteOrder.nativeOrder());
+        indexMask = slots - 1;
+        indexUsed = 0;
+    }
+
+    private static long pack(int money, long version) {
+        return (version & Integer.MAX_VALUE) << 32 | (money & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @return money, version 을 묶은 값 (MemberIndex.money, MemberIndex.version 으로 읽는다). 없으면 ABSENT
+     */
+    public long get(String memberId) {
+        readLock.lock();
+        try {
+            int record = find(memberId);
+            return record < 0 ? ABSENT : (long) LONG.getVolatile(slab(record), position(record));
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 새 회원을 version 0 으로 저장한다. 이미 있으면 false
+     */
+    public boolean insert(String memberId, int money) {
+        return insert(memberId, money, 0);
+    }
+
+    //DB 에서 읽은 회원을 version 그대로 저장 (캐시로 사용할 때)
+    public boolean insert(String memberId, int money, long version) {
+        byte[] id = memberId.getBytes(StandardCharsets.UTF_8);
+        writeLock.lock();
+        try {
+            if (find(memberId) >= 0) {
+                return false;
+            }
+            if ((indexUsed + 1) * 2L > indexMask + 1) {
+                rebuildIndex((records - deleted + 1) * 4);
+            }
+            int record = appendRecord(pack(money, version), id, hash(memberId));
+            insertIndex(hash(memberId), record);
+            return true;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    /**
+     * @return 삭제했으면 true
+     */
+    public boolean remove(String memberId) {
+        writeLock.lock();
+        try {
+            int hash = hash(memberId);
+            for (int slot = hash & indexMask; ; slot = slot + 1 & indexMask) {
+                int entry = index.getInt(slot * Integer.BYTES);
+                if (entry == 0) {
+                    return false;
+                }
+                if (entry != TOMBSTONE && matches(entry - 1, memberId, hash)) {
+                    slab(entry - 1).putLong(position(entry - 1), DELETED);
+                    index.putInt(slot * Integer.BYTES, TOMBSTONE);
+                    deleted++;
+                    return true;
+                }
+            }
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public boolean set(String memberId, int money) {
+        return modify(memberId, SET, money, 0);
+    }
+
+    public boolean compareAndSet(String memberId, int money, long expectedVersion) {
+        return modify(memberId, COMPARE_AND_SET, money, expectedVersion);
+    }
+
+    public boolean add(String memberId, int delta) {
+        return modify(memberId, ADD, delta, 0);
+    }
+
+    //잔액이 amount 이상일 때만 차감
+    public boolean withdraw(String memberId, int amount) {
+        return modify(memberId, WITHDRAW, amount, 0);
+    }
+
+    //읽기 잠금 안에서 value 를 CAS 로 변경. 람다를 만들지 않도록 연산을 번호로 받는다.
+    private boolean modify(String memberId, int operation, int amount, long expectedVersion) {
+        readLock.lock();
+        try {
+            int record = find(memberId);
+            if (record < 0) {
+                return false;
+            }
+            ByteBuffer slab = slab(record);
+            int position = position(record);
+            while (true) {
+                long current = (long) LONG.getVolatile(slab, position);
+                int money = MemberIndex.money(current);
+                long version = MemberIndex.version(current);
+                int next;
+                switch (operation) {
+                    case SET:
+                        next = amount;
+                        break;
+                    case COMPARE_AND_SET:
+                        if (version != expectedVersion) {
+                            return false;
+                        }
+                        next = amount;
+                        break;
+                    case ADD:
+                        next = Math.addExact(money, amount);
+                        break;
+                    default:
+                        if (money < amount) {
+                            return false;
+                        }
+                        next = money - amount;
+                }
+                if (LONG.compareAndSet(slab, position, current, pack(next, version + 1))) {
+                    return true;
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 삭제되지 않은 회원을 레코드 순서로 방문한다. memberId 는 방문할 때마다 String 으로 디코딩한다.
+     */
+    public void forEach(MemberIndex.EntryVisitor visitor) {
+        readLock.lock();
+        try {
+            for (int record = 0; record < records; record++) {
+                long value = (long) LONG.getVolatile(slab(record), position(record));
+                if (value != DELETED) {
+                    visitor.visit(memberId(record), MemberIndex.money(value), MemberIndex.version(value));
+                }
+            }
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    /**
+     * 삭제된 레코드와 memberId 바이트를 제거하고 살아 있는 회원만 새 슬랩으로 복사한다. 인덱스도 다시 만든다.
+     * 이전 direct 버퍼는 GC 가 버퍼 객체를 회수할 때 해제된다.
+     *
+     * @return 제거한 레코드 수
+     */
+    public int compact() {
+        writeLock.lock();
+        try {
+            if (deleted == 0) {
+                return 0;
+            }
+            List<ByteBuffer> oldSlabs = slabs;
+            List<ByteBuffer> oldIdChunks = idChunks;
+            int oldRecords = records;
+            slabs = new ArrayList<>();
+            idChunks = new ArrayList<>();
+            records = 0;
+            idTop = 0;
+            int removed = deleted;
+            deleted = 0;
+            allocateIndex(Math.max(16, (oldRecords - removed) * 2));
+
+            for (int record = 0; record < oldRecords; record++) {
+                ByteBuffer slab = oldSlabs.get(record >> SLAB_SHIFT);
+                int position = (record & SLAB_RECORDS - 1) * RECORD_SIZE;
+                long value = slab.getLong(position);
+                if (value == DELETED) {
+                    continue;
+                }
+                long idOffset = slab.getLong(position + 8);
+                byte[] id = new byte[slab.getInt(position + 16)];
+                ByteBuffer chunk = oldIdChunks.get((int) (idOffset >> ID_CHUNK_SHIFT)).duplicate();
+                chunk.position((int) (idOffset & ID_CHUNK_SIZE - 1));
+                chunk.get(id);
+                int hash = slab.getInt(position + 20);
+                insertIndex(hash, appendRecord(value, id, hash));
+            }
+            return removed;
+        } finally {
+            writeLock.unlock();
+        }
+    }
+
+    public int size() {
+        readLock.lock();
+        try {
+            return records - deleted;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    public int deletedCount() {
+        readLock.lock();
+        try {
+            return deleted;
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    //할당한 direct 버퍼 바이트 수
+    public long offHeapBytes() {
+        readLock.lock();
+        try {
+            return (long) slabs.size() * SLAB_RECORDS * RECORD_SIZE
+                    + (long) idChunks.size() * ID_CHUNK_SIZE
+                    + index.capacity();
+        } finally {
+            readLock.unlock();
+        }
+    }
+
+    private static int hash(String memberId) {
+        int h = memberId.hashCode() * 0x9E3779B9;
+        return h ^ h >>> 16;
+    }
+
+    private ByteBuffer slab(int record) {
+        return slabs.get(record >> SLAB_SHIFT);
+    }
+
+    private static int position(int record) {
+        return (record & SLAB_RECORDS - 1) * RECORD_SIZE;
+    }
+
+    //레코드 번호, 없으면 -1
+    private int find(String memberId) {
+        int hash = hash(memberId);
+        for (int slot = hash & indexMask; ; slot = slot + 1 & indexMask) {
+            int entry = index.getInt(slot * Integer.BYTES);
+            if (entry == 0) {
+                return -1;
+            }
+            if (entry != TOMBSTONE && matches(entry - 1, memberId, hash)) {
+                return entry - 1;
+            }
+        }
+    }
+
+    //ASCII memberId 는 바이트 배열을 만들지 않고 비교한다.
+    private boolean matches(int record, String memberId, int hash) {
+        ByteBuffer slab = slab(record);
+        int position = position(record);
+        int length = slab.getInt(position + 16);
+        if (slab.getInt(position + 20) != hash || memberId.length() > length) {
+            return false;
+        }
+        long idOffset = slab.getLong(position + 8);
+        ByteBuffer chunk = idChunks.get((int) (idOffset >> ID_CHUNK_SHIFT));
+        int start = (int) (idOffset & ID_CHUNK_SIZE - 1);
+        for (int i = 0; i < memberId.length(); i++) {
+            char c = memberId.charAt(i);
+            if (c >= 0x80) {
+                return memberId(record).equals(memberId);
+            }
+            if (chunk.get(start + i) != c) {
+                return false;
+            }
+        }
+        return memberId.length() == length;
+    }
+
+    private String memberId(int record) {
+        ByteBuffer slab = slab(record);
+        int position = position(record);
+        long idOffset = slab.getLong(position + 8);
+        byte[] id = new byte[slab.getInt(position + 16)];
+        ByteBuffer chunk = idChunks.get((int) (idOffset >> ID_CHUNK_SHIFT)).duplicate();
+        chunk.position((int) (idOffset & ID_CHUNK_SIZE - 1));
+        chunk.get(id);
+        return new String(id, StandardCharsets.UTF_8);
+    }
+
+    private int appendRecord(long value, byte[] id, int hash) {
+        if (id.length > ID_CHUNK_SIZE) {
+            throw new IllegalArgumentException("memberId too long: " + id.length + " bytes");
+        }
+        //memberId 가 두 청크에 걸치지 않도록
+        if ((idTop & ID_CHUNK_SIZE - 1) + id.length > ID_CHUNK_SIZE) {
+            idTop = (idTop >> ID_CHUNK_SHIFT) + 1 << ID_CHUNK_SHIFT;
+        }
+        int chunkIndex = (int) (idTop >> ID_CHUNK_SHIFT);
+        if (chunkIndex == idChunks.size()) {
+            idChunks.add(ByteBuffer.allocateDirect(ID_CHUNK_SIZE));
+        }
+        ByteBuffer chunk = idChunks.get(chunkIndex).duplicate();
+        chunk.position((int) (idTop & ID_CHUNK_SIZE - 1));
+        chunk.put(id);
+        long idOffset = idTop;
+        idTop += id.length;
+
+        int record = records;
+        if (record >> SLAB_SHIFT == slabs.size()) {
+            slabs.add(ByteBuffer.allocateDirect(SLAB_RECORDS * RECORD_SIZE).order(ByteOrder.nativeOrder()));
+        }
+        ByteBuffer slab = slab(record);
+        int position = position(record);
+        slab.putLong(position, value);
+        slab.putLong(position + 8, idOffset);
+        slab.putInt(position + 16, id.length);
+        slab.putInt(position + 20, hash);
+        records++;
+        return record;
+    }
+
+    private void insertIndex(int hash, int record) {
+        for (int slot = hash & indexMask; ; slot = slot + 1 & indexMask) {
+            if (index.getInt(slot * Integer.BYTES) == 0) {
+                index.putInt(slot * Integer.BYTES, record + 1);
+                indexUsed++;
+                return;
+            }
+        }
+    }
+
+    //삭제 표시를 버리고 살아 있는 레코드로 인덱스를 다시 만든다.
+    private void rebuildIndex(int minSlots) {
+        allocateIndex(Math.max(16, minSlots));
+        for (int record = 0; record < records; record++) {
+            ByteBuffer slab = slab(record);
+            int position = position(record);
+            if (slab.getLong(position) != DELETED) {
+                insertIndex(slab.getInt(position + 20), record);
+            }
+        }
+    }
+}
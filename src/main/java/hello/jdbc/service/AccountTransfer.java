@@ -0,0 +1,13 @@
+package hello.jdbc.service;
+
+import lombok.Value;
+
+/**
+ * 이체 한 건 (fromId -> toId, money)
+ */
+@Value
+public class AccountTransfer {
+    String fromId;
+    String toId;
+    int money;
+}
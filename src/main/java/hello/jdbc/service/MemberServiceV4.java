@@ -2,9 +2,21 @@ package hello.jdbc.service;
 
 import hello.jdbc.domain.Member;
 import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberTransferProcedure;
 import lombok.RequiredArgsConstructor;
 import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
 import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.TreeMap;
+import java.util.TreeSet;
 
 /**
  * 예외 누수 문제 해결
@@ -19,9 +31,132 @@ public class MemberServiceV4 {
 
     private final MemberRepository memberRepository;
 
+    private TransferMode transferMode = TransferMode.READ_MODIFY_WRITE;
+
+    private MemberTransferProcedure transferProcedure; //PROCEDURE 방식에서만 사용
+
     @Transactional
     public void accountTransfer(String fromId, String toId, int money) {
-        bizLogic(fromId, toId, money);
+        transfer(fromId, toId, money, transferMode);
+    }
+
+    @Transactional
+    public void accountTransfer(String fromId, String toId, int money, TransferMode mode) {
+        transfer(fromId, toId, money, mode);
+    }
+
+    /**
+     * 트랜잭션을 시작하지 않고 호출한 쪽의 트랜잭션 안에서 이체한다. (TransferBatcher 가 savepoint 로 감싸서 사용)
+     * @Transactional 메소드를 거치면 실패한 이체가 바깥 트랜잭션 전체를 롤백 전용으로 표시하므로 따로 둔다.
+     */
+    public void transferInCurrentTransaction(String fromId, String toId, int money, TransferMode mode) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("진행 중인 트랜잭션이 없습니다.");
+        }
+        transfer(fromId, toId, money, mode);
+    }
+
+    /**
+     * 여러 이체를 상계(netting)해서 회원마다 addMoney 한 번으로 반영한다. 호출한 쪽 트랜잭션 안에서 실행
+     * 관련 회원을 memberId 순서로 잠근 뒤, 이체 순서대로 잔액을 계산하면서 잔액 부족/회원 없음/이체중 예외를 판단한다.
+     * 실패한 이체는 계산에서 빠지므로 어느 시점에도 잔액이 음수가 되지 않는다.
+     *
+     * @return transfers 와 같은 순서의 실패 원인. 성공한 이체는 null
+     */
+    public List<RuntimeException> transferAllNetted(List<AccountTransfer> transfers) {
+        if (!TransactionSynchronizationManager.isActualTransactionActive()) {
+            throw new IllegalStateException("진행 중인 트랜잭션이 없습니다.");
+        }
+
+        //잠금 순서를 ORDERED_LOCK 과 맞춘다. (memberId 오름차순)
+        TreeSet<String> memberIds = new TreeSet<>();
+        for (AccountTransfer transfer : transfers) {
+            memberIds.add(transfer.getFromId());
+            memberIds.add(transfer.getToId());
+        }
+        Map<String, Integer> balances = new HashMap<>();
+        for (String memberId : memberIds) {
+            try {
+                Member member = memberRepository.findByIdForUpdate(memberId);
+                balances.put(memberId, member.getMoney());
+            } catch (NoSuchElementException | EmptyResultDataAccessException e) {
+                //없는 회원은 해당 이체를 실패 처리
+            }
+        }
+
+        List<RuntimeException> failures = new ArrayList<>(transfers.size());
+        Map<String, Integer> netByMemberId = new TreeMap<>();
+        for (AccountTransfer transfer : transfers) {
+            String fromId = transfer.getFromId();
+            String toId = transfer.getToId();
+            int money = transfer.getMoney();
+            try {
+                //DELTA 방식과 같은 순서로 검사 : 출금 계좌 -> 이체중 예외 -> 입금 계좌
+                Integer fromBalance = balances.get(fromId);
+                if (fromBalance == null || fromBalance < money) {
+                    throw new IllegalStateException("잔액 부족 또는 회원 없음 memberId = " + fromId);
+                }
+                validation(toId);
+                if (!balances.containsKey(toId)) {
+                    throw new IllegalStateException("회원 없음 memberId = " + toId);
+                }
+            } catch (IllegalStateException e) {
+                failures.add(e);
+                continue;
+            }
+            balances.merge(fromId, -money, Integer::sum);
+            balances.merge(toId, money, Integer::sum);
+            netByMemberId.merge(fromId, -money, Integer::sum);
+            netByMemberId.merge(toId, money, Integer::sum);
+            failures.add(null);
+        }
+
+        netByMemberId.forEach((memberId, net) -> {
+            if (net != 0) {
+                memberRepository.addMoney(memberId, net);
+            }
+        });
+        return failures;
+    }
+
+    /**
+     * 실패한 이체를 호출한 쪽 트랜잭션의 savepoint 로 되돌릴 수 있는지 (MemberRepository.supportsSavepoints)
+     */
+    public boolean supportsSavepoints() {
+        return memberRepository.supportsSavepoints();
+    }
+
+    public void setTransferMode(TransferMode transferMode) {
+        this.transferMode = transferMode;
+    }
+
+    public void setTransferProcedure(MemberTransferProcedure transferProcedure) {
+        this.transferProcedure = transferProcedure;
+    }
+
+    private void transfer(String fromId, String toId, int money, TransferMode mode) {
+        switch (mode) {
+            case READ_MODIFY_WRITE:
+                bizLogic(fromId, toId, money);
+                break;
+            case DELTA:
+                deltaLogic(fromId, toId, money);
+                break;
+            case SINGLE_STATEMENT:
+                singleStatementLogic(fromId, toId, money);
+                break;
+            case PROCEDURE:
+                procedureLogic(fromId, toId, money);
+                break;
+            case ORDERED_LOCK:
+                orderedLockLogic(fromId, toId, money);
+                break;
+            case OPTIMISTIC:
+                optimisticLogic(fromId, toId, money);
+                break;
+            default:
+                throw new IllegalArgumentException("지원하지 않는 이체 방식 " + mode);
+        }
     }
 
     private void bizLogic(String fromId, String toId, int money) {
@@ -32,8 +167,68 @@ public class MemberServiceV4 {
         validation(toMember);
         memberRepository.update(toId, toMember.getMoney() + money);
     }
+
+    //잔액 계산을 DB 에 맡겨서 2문장으로 처리. 동시에 이체해도 갱신 손실이 없다.
+    private void deltaLogic(String fromId, String toId, int money) {
+        if (memberRepository.withdraw(fromId, money) == 0) {
+            throw new IllegalStateException("잔액 부족 또는 회원 없음 memberId = " + fromId);
+        }
+        validation(toId);
+        if (memberRepository.addMoney(toId, money) == 0) {
+            throw new IllegalStateException("회원 없음 memberId = " + toId);
+        }
+    }
+
+    //출금과 입금을 한 번의 round trip 으로 처리. 2건이 변경되지 않으면 예외 -> 롤백
+    private void singleStatementLogic(String fromId, String toId, int money) {
+        int resultSize = memberRepository.transfer(fromId, toId, money);
+        if (resultSize != 2) {
+            throw new IllegalStateException("잔액 부족 또는 회원 없음 fromId = " + fromId + ", toId = " + toId);
+        }
+        validation(toId);
+    }
+
+    //출금, 검증, 입금 모두 DB 함수 안에서 실행. 실패하면 DataAccessException -> 롤백
+    private void procedureLogic(String fromId, String toId, int money) {
+        if (transferProcedure == null) {
+            throw new IllegalStateException("이체 프로시저가 설정되지 않았습니다.");
+        }
+        transferProcedure.transfer(fromId, toId, money);
+    }
+
+    //항상 작은 memberId 부터 잠근다. 잠금을 잡은 뒤의 잔액은 다른 트랜잭션이 바꿀 수 없으므로 bizLogic 과 같은 계산이 안전하다.
+    private void orderedLockLogic(String fromId, String toId, int money) {
+        boolean fromFirst = fromId.compareTo(toId) <= 0;
+        Member first = memberRepository.findByIdForUpdate(fromFirst ? fromId : toId);
+        Member second = memberRepository.findByIdForUpdate(fromFirst ? toId : fromId);
+        Member fromMember = fromFirst ? first : second;
+        Member toMember = fromFirst ? second : first;
+
+        memberRepository.update(fromId, fromMember.getMoney() - money);
+        validation(toMember);
+        memberRepository.update(toId, toMember.getMoney() + money);
+    }
+
+    //조회 시점의 version 으로 compare-and-set. 0건이면 다른 트랜잭션이 먼저 변경한 것이므로 롤백 후 재시도 대상
+    private void optimisticLogic(String fromId, String toId, int money) {
+        Member fromMember = memberRepository.findById(fromId);
+        Member toMember = memberRepository.findById(toId);
+
+        if (memberRepository.update(fromId, fromMember.getMoney() - money, fromMember.getVersion()) == 0) {
+            throw new OptimisticLockingFailureException("이미 변경된 회원 memberId = " + fromId);
+        }
+        validation(toMember);
+        if (memberRepository.update(toId, toMember.getMoney() + money, toMember.getVersion()) == 0) {
+            throw new OptimisticLockingFailureException("이미 변경된 회원 memberId = " + toId);
+        }
+    }
+
     private void validation(Member toMember) {
-        if(toMember.getMemberId().equals("ex")) {
+        validation(toMember.getMemberId());
+    }
+
+    private void validation(String toId) {
+        if(toId.equals("ex")) {
             throw new IllegalStateException("이체중 예외 발생");
         }
     }
@@ -0,0 +1,118 @@
+package hello.jdbc.service;
+
+import org.springframework.dao.CannotAcquireLockException;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * memberId 해시로 나눈 JVM 락 (lock striping)
+ * 같은 계좌로 몰리는 이체를 커넥션을 빌리기 전에 JVM 안에서 줄 세운다.
+ * 대기하는 동안 커넥션을 잡고 있지 않으므로 hot 계좌 때문에 커넥션 풀이 고갈되지 않는다.
+ *
+ * 두 계좌의 락은 항상 stripe 번호 순서로 잡으므로 교착 상태가 생기지 않는다.
+ * JVM 하나 안에서만 유효하다. DB 행 잠금(ORDERED_LOCK, OPTIMISTIC 등)을 대신하지는 않는다.
+ */
+public class StripedAccountLocks {
+
+    public static final int DEFAULT_STRIPES = 64;
+
+    private final ReentrantLock[] locks;
+    private final int mask;
+
+    private long lockTimeoutMillis = 10_000;
+
+    //메트릭
+    private final LongAdder acquisitions = new LongAdder();
+    private final LongAdder contended = new LongAdder(); //바로 얻지 못하고 기다린 횟수
+    private final LongAdder waitNanos = new LongAdder();
+
+    public StripedAccountLocks() {
+        this(DEFAULT_STRIPES);
+    }
+
+    public StripedAccountLocks(int stripes) {
+        if (stripes < 1) {
+            throw new IllegalArgumentException("stripes must be positive: " + stripes);
+        }
+        //2의 제곱으로 올려서 나머지 연산 대신 mask 사용
+        int size = stripes == 1 ? 1 : Integer.highestOneBit(stripes - 1) << 1;
+        this.locks = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            locks[i] = new ReentrantLock(true); //먼저 기다린 이체가 먼저 실행되도록 공정 락
+        }
+        this.mask = size - 1;
+    }
+
+    public void setLockTimeout(long lockTimeoutMillis) {
+        this.lockTimeoutMillis = lockTimeoutMillis;
+    }
+
+    public int getStripes() {
+        return locks.length;
+    }
+
+    int stripeOf(String memberId) {
+        int h = memberId.hashCode();
+        return (h ^ (h >>> 16)) & mask;
+    }
+
+    /**
+     * 두 계좌의 stripe 를 번호 순서로 잡고 task 를 실행한다.
+     * lockTimeout 안에 얻지 못하면 CannotAcquireLockException (TransferExecutor 의 재시도 대상)
+     */
+    public void runLocked(String fromId, String toId, Runnable task) {
+        int a = stripeOf(fromId);
+        int b = stripeOf(toId);
+        ReentrantLock first = locks[Math.min(a, b)];
+        ReentrantLock second = a == b ? null : locks[Math.max(a, b)];
+
+        lock(first);
+        try {
+            if (second != null) {
+                lock(second);
+            }
+            try {
+                task.run();
+            } finally {
+                if (second != null) {
+                    second.unlock();
+                }
+            }
+        } finally {
+            first.unlock();
+        }
+    }
+
+    private void lock(ReentrantLock lock) {
+        acquisitions.increment();
+        if (lock.tryLock()) {
+            return;
+        }
+        contended.increment();
+        long start = System.nanoTime();
+        try {
+            if (!lock.tryLock(lockTimeoutMillis, TimeUnit.MILLISECONDS)) {
+                throw new CannotAcquireLockException("account lock timeout " + lockTimeoutMillis + "ms");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new CannotAcquireLockException("interrupted while waiting for account lock", e);
+        } finally {
+            waitNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public long getAcquisitionCount() {
+        return acquisitions.sum();
+    }
+
+    public long getContendedCount() {
+        return contended.sum();
+    }
+
+    public long getWaitMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(waitNanos.sum());
+    }
+}
@@ -0,0 +1,248 @@
+package hello.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 그룹 커밋
+ * 여러 스레드의 이체를 짧은 시간(window) 동안 또는 maxBatchSize 건까지 모아서 트랜잭션 하나로 커밋한다.
+ * 커밋(H2 의 디스크 쓰기) 비용을 여러 이체가 나눠 낸다.
+ *
+ * 이체마다 savepoint 를 만들어서 실패한 이체만 savepoint 로 롤백하고 나머지는 함께 커밋한다.
+ * 결과(CompletableFuture)는 커밋이 끝난 뒤에 완료된다. 커밋이 실패하면 배치의 모든 이체가 실패한다.
+ *
+ * netting 을 켜면 이체를 하나씩 실행하지 않고 회원별 증감을 합쳐서 회원마다 update 한 번으로 반영한다.
+ * (MemberServiceV4.transferAllNetted) 같은 계좌로 몰리는 이체(가맹점 입금 등)가 많을수록 문장 수가 줄어든다.
+ * 이때는 이체 방식(TransferMode)을 사용하지 않는다.
+ *
+ * savepoint 는 JDBC 커넥션의 변경만 되돌린다. 메모리 리포지토리(MvccMemberRepository 등)는 실패한 이체의 변경이
+ * 그대로 커밋되므로, MemberRepository.supportsSavepoints 가 false 이면 netting 설정과 상관없이 상계 방식을 사용한다.
+ * (상계 방식은 실패한 이체를 반영 전에 계산으로 거른다)
+ */
+@Slf4j
+public class TransferBatcher implements Closeable {
+
+    private static final long POLL_MILLIS = 100;
+
+    private final MemberServiceV4 memberService;
+    private final TransactionTemplate txTemplate;
+    private final BlockingQueue<TransferRequest> queue;
+    private final Thread worker;
+
+    private final boolean savepoints; //false 면 항상 상계 방식
+    private final int maxBatchSize;
+    private final long windowNanos;
+    private volatile TransferMode transferMode = TransferMode.DELTA;
+    private volatile boolean netting = false;
+    private volatile boolean running = true;
+
+    //메트릭
+    private final long startNanos = System.nanoTime();
+    private final LongAdder commits = new LongAdder();
+    private final LongAdder transfers = new LongAdder();
+    private final LongAdder failedTransfers = new LongAdder();
+    private final AtomicLongArray batchSizeHistogram = new AtomicLongArray(Integer.SIZE); //i 번째 칸 : 2^(i-1) < size <= 2^i
+
+    public TransferBatcher(MemberServiceV4 memberService, PlatformTransactionManager transactionManager,
+                           int maxBatchSize, long windowMillis) {
+        if (maxBatchSize < 1 || windowMillis < 0) {
+            throw new IllegalArgumentException("invalid maxBatchSize = " + maxBatchSize + ", windowMillis = " + windowMillis);
+        }
+        this.memberService = memberService;
+        this.savepoints = memberService.supportsSavepoints();
+        this.txTemplate = new TransactionTemplate(transactionManager);
+        this.maxBatchSize = maxBatchSize;
+        this.windowNanos = TimeUnit.MILLISECONDS.toNanos(windowMillis);
+        this.queue = new LinkedBlockingQueue<>(maxBatchSize * 64); //가득 차면 submit 이 기다린다. (backpressure)
+        this.worker = new Thread(this::run, "transfer-batcher");
+        this.worker.setDaemon(true);
+        this.worker.start();
+    }
+
+    public void setTransferMode(TransferMode transferMode) {
+        this.transferMode = transferMode;
+    }
+
+    public void setNetting(boolean netting) {
+        this.netting = netting;
+    }
+
+    public CompletableFuture<Void> submit(String fromId, String toId, int money) {
+        TransferRequest request = new TransferRequest(fromId, toId, money, transferMode);
+        if (!running) {
+            request.future.completeExceptionally(new IllegalStateException("TransferBatcher is closed"));
+            return request.future;
+        }
+        try {
+            queue.put(request);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            request.future.completeExceptionally(e);
+            return request.future;
+        }
+        //close 와 경쟁해서 아무도 처리하지 않게 된 요청은 여기서 실패 처리
+        if (!running && queue.remove(request)) {
+            request.future.completeExceptionally(new IllegalStateException("TransferBatcher is closed"));
+        }
+        return request.future;
+    }
+
+    private void run() {
+        List<TransferRequest> batch = new ArrayList<>(maxBatchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                TransferRequest first = queue.poll(POLL_MILLIS, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                long deadline = System.nanoTime() + windowNanos;
+                while (batch.size() < maxBatchSize) {
+                    if (queue.drainTo(batch, maxBatchSize - batch.size()) > 0) {
+                        continue;
+                    }
+                    long remaining = deadline - System.nanoTime();
+                    TransferRequest next = remaining > 0 ? queue.poll(remaining, TimeUnit.NANOSECONDS) : null;
+                    if (next == null) {
+                        break;
+                    }
+                    batch.add(next);
+                }
+                flush(batch);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (RuntimeException e) {
+                log.error("transfer batch failed", e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    private void flush(List<TransferRequest> batch) {
+        try {
+            txTemplate.executeWithoutResult(status -> {
+                if (netting || !savepoints) {
+                    applyNetted(batch);
+                    return;
+                }
+                for (TransferRequest request : batch) {
+                    Object savepoint = status.createSavepoint();
+                    try {
+                        memberService.transferInCurrentTransaction(request.fromId, request.toId, request.money, request.mode);
+                        status.releaseSavepoint(savepoint);
+                    } catch (RuntimeException e) {
+                        //이 이체만 되돌리고 배치는 계속
+                        status.rollbackToSavepoint(savepoint);
+                        status.releaseSavepoint(savepoint);
+                        request.failure = e;
+                    }
+                }
+            });
+        } catch (RuntimeException e) {
+            for (TransferRequest request : batch) {
+                request.future.completeExceptionally(request.failure != null ? request.failure : e);
+            }
+            failedTransfers.add(batch.size());
+            transfers.add(batch.size());
+            throw e;
+        }
+
+        commits.increment();
+        transfers.add(batch.size());
+        batchSizeHistogram.incrementAndGet(Integer.SIZE - Integer.numberOfLeadingZeros(batch.size() - 1));
+        for (TransferRequest request : batch) {
+            if (request.failure == null) {
+                request.future.complete(null);
+            } else {
+                failedTransfers.increment();
+                request.future.completeExceptionally(request.failure);
+            }
+        }
+    }
+
+    //실패는 반영 전에 계산으로 걸러지므로 savepoint 가 필요 없다.
+    private void applyNetted(List<TransferRequest> batch) {
+        List<AccountTransfer> transfers = new ArrayList<>(batch.size());
+        for (TransferRequest request : batch) {
+            transfers.add(new AccountTransfer(request.fromId, request.toId, request.money));
+        }
+        List<RuntimeException> failures = memberService.transferAllNetted(transfers);
+        for (int i = 0; i < batch.size(); i++) {
+            batch.get(i).failure = failures.get(i);
+        }
+    }
+
+    /**
+     * 남은 요청을 모두 처리한 뒤 종료한다.
+     */
+    @Override
+    public void close() {
+        //JDBC 호출 중에 interrupt 하지 않도록 worker 가 POLL_MILLIS 안에 running 을 확인하고 스스로 끝나게 한다.
+        running = false;
+        try {
+            worker.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        List<TransferRequest> rest = new ArrayList<>();
+        queue.drainTo(rest);
+        rest.forEach(request -> request.future.completeExceptionally(new IllegalStateException("TransferBatcher is closed")));
+    }
+
+    public long getCommitCount() {
+        return commits.sum();
+    }
+
+    public long getTransferCount() {
+        return transfers.sum();
+    }
+
+    public long getFailedTransferCount() {
+        return failedTransfers.sum();
+    }
+
+    public double getCommitsPerSecond() {
+        double seconds = (System.nanoTime() - startNanos) / 1_000_000_000.0;
+        return seconds == 0 ? 0 : commits.sum() / seconds;
+    }
+
+    /**
+     * 배치 크기 분포. i 번째 값은 크기가 (2^(i-1), 2^i] 인 배치의 수 (0 번째는 1건짜리 배치)
+     */
+    public long[] getBatchSizeHistogram() {
+        long[] histogram = new long[batchSizeHistogram.length()];
+        for (int i = 0; i < histogram.length; i++) {
+            histogram[i] = batchSizeHistogram.get(i);
+        }
+        return histogram;
+    }
+
+    private static class TransferRequest {
+        private final String fromId;
+        private final String toId;
+        private final int money;
+        private final TransferMode mode;
+        private final CompletableFuture<Void> future = new CompletableFuture<>();
+        private RuntimeException failure; //worker 스레드에서만 사용
+
+        private TransferRequest(String fromId, String toId, int money, TransferMode mode) {
+            this.fromId = fromId;
+            this.toId = toId;
+            this.money = money;
+            this.mode = mode;
+        }
+    }
+}
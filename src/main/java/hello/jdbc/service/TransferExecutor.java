@@ -0,0 +1,137 @@
+package hello.jdbc.service;
+
+import lombok.extern.slf4j.Slf4j;
+import org.springframework.dao.ConcurrencyFailureException;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * 이체 재시도
+ * 교착 상태(DeadlockLoserDataAccessException), 락 대기 시간 초과(CannotAcquireLockException)는
+ * SQLErrorCodeSQLExceptionTranslator 가 PessimisticLockingFailureException 하위 예외로 변환하고,
+ * OPTIMISTIC 이체의 version 충돌은 OptimisticLockingFailureException 이다. (둘 다 ConcurrencyFailureException)
+ * 이 예외는 트랜잭션을 다시 실행하면 성공할 수 있으므로 지터를 준 지수 백오프 후 재시도한다.
+ *
+ * 재시도마다 새 트랜잭션이 시작되어야 하므로 트랜잭션 프록시(MemberServiceV4) 바깥에서 호출해야 한다.
+ *
+ * StripedAccountLocks 를 설정하면 시도마다 두 계좌의 JVM 락을 먼저 잡고 프록시를 호출한다.
+ * 트랜잭션 프록시가 커넥션을 빌리기 전이므로 hot 계좌를 기다리는 이체가 커넥션을 잡고 있지 않는다.
+ * 백오프 중에는 락을 놓는다.
+ */
+@Slf4j
+public class TransferExecutor {
+
+    private final MemberServiceV4 memberService;
+
+    private StripedAccountLocks accountLocks; //null 이면 JVM 락 없이 바로 호출
+
+    private int maxAttempts = 5;
+    private long baseBackoffMillis = 5;
+    private long maxBackoffMillis = 200;
+
+    //메트릭
+    private final LongAdder transfers = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder failures = new LongAdder(); //재시도를 다 써도 실패한 이체
+    private final LongAdder backoffNanos = new LongAdder();
+    private final LongAdder elapsedNanos = new LongAdder();
+
+    public TransferExecutor(MemberServiceV4 memberService) {
+        this.memberService = memberService;
+    }
+
+    public void setMaxAttempts(int maxAttempts) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts must be positive: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+    }
+
+    public void setBackoffMillis(long baseBackoffMillis, long maxBackoffMillis) {
+        if (baseBackoffMillis < 0 || maxBackoffMillis < baseBackoffMillis) {
+            throw new IllegalArgumentException("invalid backoff base = " + baseBackoffMillis + ", max = " + maxBackoffMillis);
+        }
+        this.baseBackoffMillis = baseBackoffMillis;
+        this.maxBackoffMillis = maxBackoffMillis;
+    }
+
+    public void setAccountLocks(StripedAccountLocks accountLocks) {
+        this.accountLocks = accountLocks;
+    }
+
+    public void accountTransfer(String fromId, String toId, int money) {
+        execute(fromId, toId, () -> memberService.accountTransfer(fromId, toId, money));
+    }
+
+    public void accountTransfer(String fromId, String toId, int money, TransferMode mode) {
+        execute(fromId, toId, () -> memberService.accountTransfer(fromId, toId, money, mode));
+    }
+
+    private void execute(String fromId, String toId, Runnable transfer) {
+        long start = System.nanoTime();
+        transfers.increment();
+        try {
+            //바깥 트랜잭션에 참여하면 이미 롤백 전용으로 표시되므로 재시도해도 소용없다.
+            int attempts = TransactionSynchronizationManager.isActualTransactionActive() ? 1 : maxAttempts;
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    if (accountLocks == null) {
+                        transfer.run();
+                    } else {
+                        accountLocks.runLocked(fromId, toId, transfer);
+                    }
+                    return;
+                } catch (ConcurrencyFailureException e) {
+                    if (attempt >= attempts) {
+                        failures.increment();
+                        throw e;
+                    }
+                    retries.increment();
+                    log.info("transfer retry attempt = {}, cause = {}", attempt, e.getClass().getSimpleName());
+                    backoff(attempt, e);
+                }
+            }
+        } finally {
+            elapsedNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    //full jitter : 0 ~ min(max, base * 2^(attempt-1)) 사이에서 무작위로 대기. 충돌한 트랜잭션들이 같은 시점에 다시 부딪히지 않도록 한다.
+    private void backoff(int attempt, RuntimeException cause) {
+        long ceiling = Math.min(maxBackoffMillis, baseBackoffMillis << Math.min(attempt - 1, 20));
+        long sleepMillis = ceiling == 0 ? 0 : ThreadLocalRandom.current().nextLong(ceiling + 1);
+        long start = System.nanoTime();
+        try {
+            TimeUnit.MILLISECONDS.sleep(sleepMillis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            failures.increment();
+            throw cause;
+        } finally {
+            backoffNanos.add(System.nanoTime() - start);
+        }
+    }
+
+    public long getTransferCount() {
+        return transfers.sum();
+    }
+
+    public long getRetryCount() {
+        return retries.sum();
+    }
+
+    public long getFailureCount() {
+        return failures.sum();
+    }
+
+    public long getBackoffMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(backoffNanos.sum());
+    }
+
+    public long getElapsedMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(elapsedNanos.sum());
+    }
+}
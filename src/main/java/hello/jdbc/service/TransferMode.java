@@ -0,0 +1,34 @@
+package hello.jdbc.service;
+
+/**
+ * MemberServiceV4 이체 방식
+ */
+public enum TransferMode {
+    /**
+     * 두 회원을 조회하고 자바에서 계산한 잔액으로 update. 4문장, 동시 이체 시 갱신 손실이 생길 수 있다.
+     */
+    READ_MODIFY_WRITE,
+    /**
+     * 조건부 차감(withdraw) + 증감(addMoney). 2문장, 계산을 DB 가 하므로 갱신 손실이 없다.
+     */
+    DELTA,
+    /**
+     * 출금과 입금을 CASE update 한 문장으로 보낸다. 1 round trip, 변경 건수로 회원 없음/잔액 부족을 판단한다.
+     */
+    SINGLE_STATEMENT,
+    /**
+     * DB 함수 TRANSFER_V1 을 CALL 한 번으로 호출한다. 출금, 검증, 입금이 모두 DB 안에서 실행된다.
+     * MemberServiceV4.setTransferProcedure 로 MemberTransferProcedure 를 설정해야 한다.
+     */
+    PROCEDURE,
+    /**
+     * 두 회원을 memberId 순서로 select ... for update 로 잠근 뒤 계산한 잔액으로 update.
+     * 모든 이체가 같은 순서로 잠그므로 A->B, B->A 가 겹쳐도 교착 상태가 생기지 않는다.
+     */
+    ORDERED_LOCK,
+    /**
+     * 잠금 없이 조회한 뒤 version 이 그대로일 때만 update (compare-and-set).
+     * 다른 트랜잭션이 먼저 변경했으면 OptimisticLockingFailureException -> TransferExecutor 가 재시도한다.
+     */
+    OPTIMISTIC
+}
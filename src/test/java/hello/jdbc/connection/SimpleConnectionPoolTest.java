@@ -0,0 +1,172 @@
+package hello.jdbc.connection;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV3;
+import hello.jdbc.repository.MemberSchemaInitializer;
+import hello.jdbc.repository.MemberSql;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.TimeUnit;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+public class SimpleConnectionPoolTest {
+
+    SimpleConnectionPool dataSource;
+
+    @BeforeEach
+    void beforeEach() {
+        //풀의 캐시 메트릭에 섞이지 않도록 스키마는 별도 커넥션으로 준비
+        new MemberSchemaInitializer(new DriverManagerDataSource(URL, USERNAME, PASSWORD)).initialize();
+        dataSource = new SimpleConnectionPool(URL, USERNAME, PASSWORD);
+        dataSource.setMaximumPoolSize(2);
+        dataSource.setConnectionTimeout(500);
+    }
+
+    @AfterEach
+    void afterEach() {
+        dataSource.close();
+    }
+
+    @Test
+    void reuseConnection() throws SQLException {
+        //같은 스레드에서 반납 후 다시 획득하면 물리 커넥션을 재사용한다.
+        for (int i = 0; i < 10; i++) {
+            Connection con = dataSource.getConnection();
+            log.info("connection = {}, class = {}", con, con.getClass());
+            con.close();
+        }
+        assertThat(dataSource.getTotalConnections()).isEqualTo(1);
+        assertThat(dataSource.getIdleConnections()).isEqualTo(1);
+    }
+
+    @Test
+    void closedProxy() throws SQLException {
+        Connection con = dataSource.getConnection();
+        con.close();
+        assertThat(con.isClosed()).isTrue();
+        assertThatThrownBy(() -> con.prepareStatement("select 1"))
+                .isInstanceOf(SQLException.class);
+    }
+
+    @Test
+    void unwrapReturnsProxy() throws SQLException {
+        Connection con = dataSource.getConnection();
+        assertThat(con.unwrap(Connection.class)).isSameAs(con);
+        //물리 커넥션(드라이버 구현 타입)은 꺼내 주지 않는다.
+        assertThat(con.isWrapperFor(VendorConnection.class)).isFalse();
+        assertThatThrownBy(() -> con.unwrap(VendorConnection.class))
+                .isInstanceOf(SQLException.class);
+        con.close();
+    }
+
+    @Test
+    void timeout() throws SQLException {
+        Connection con1 = dataSource.getConnection();
+        Connection con2 = dataSource.getConnection();
+
+        //maximumPoolSize 를 넘으면 connectionTimeout 만큼 대기 후 예외
+        assertThatThrownBy(() -> dataSource.getConnection())
+                .isInstanceOf(SQLTransientConnectionException.class);
+
+        con1.close();
+        con2.close();
+    }
+
+    @Test
+    void handoff() throws Exception {
+        dataSource.setConnectionTimeout(5000);
+        Connection con1 = dataSource.getConnection();
+        Connection con2 = dataSource.getConnection();
+
+        CompletableFuture<Connection> waiting = CompletableFuture.supplyAsync(() -> {
+            try {
+                return dataSource.getConnection();
+            } catch (SQLException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+        Thread.sleep(200);
+        assertThat(waiting).isNotDone();
+
+        //반납된 커넥션이 대기 중인 스레드에게 바로 전달된다.
+        con1.close();
+        Connection con3 = waiting.get(1, TimeUnit.SECONDS);
+        assertThat(con3.isValid(1)).isTrue();
+        assertThat(dataSource.getTotalConnections()).isEqualTo(2);
+
+        con2.close();
+        con3.close();
+    }
+
+    @Test
+    void statementCache() throws SQLException {
+        dataSource.setStatementCacheSize(4);
+
+        for (int i = 0; i < 3; i++) {
+            Connection con = dataSource.getConnection();
+            PreparedStatement pstmt = con.prepareStatement("select cast(? as int)");
+            pstmt.setInt(1, i);
+            ResultSet rs = pstmt.executeQuery();
+            rs.next();
+            assertThat(rs.getInt(1)).isEqualTo(i);
+            rs.close();
+            pstmt.close();
+            con.close();
+        }
+
+        //처음 한 번만 prepare 하고 이후에는 캐시된 PreparedStatement 재사용
+        assertThat(dataSource.getStatementCacheMisses()).isEqualTo(1);
+        assertThat(dataSource.getStatementCacheHits()).isEqualTo(2);
+    }
+
+    @Test
+    void releaseGivesBackOpenStatement() throws SQLException {
+        dataSource.setStatementCacheSize(4);
+
+        //statement 를 닫지 않고 커넥션만 반납
+        Connection con = dataSource.getConnection();
+        PreparedStatement leaked = con.prepareStatement("select 1");
+        con.close();
+        assertThat(leaked.isClosed()).isTrue();
+
+        //반납할 때 캐시에 돌려놓았으므로 다음 대여에서 캐시를 사용한다.
+        Connection again = dataSource.getConnection();
+        again.prepareStatement("select 1").close();
+        again.close();
+        assertThat(dataSource.getStatementCacheMisses()).isEqualTo(1);
+        assertThat(dataSource.getStatementCacheHits()).isEqualTo(1);
+    }
+
+    @Test
+    void statementCatalog() throws SQLException {
+        dataSource.setStatementCacheSize(MemberSql.ALL.size());
+        dataSource.setPreparedStatementCatalog(MemberSql.ALL);
+        MemberRepositoryV3 repository = new MemberRepositoryV3(dataSource);
+
+        //커넥션 생성 시 카탈로그의 SQL 을 미리 준비하므로 CRUD 에서 새로 prepare 하지 않는다.
+        repository.save(new Member("memberCache", 10000));
+        repository.findById("memberCache");
+        repository.update("memberCache", 20000);
+        repository.delete("memberCache");
+
+        assertThat(dataSource.getStatementCacheMisses()).isEqualTo(0);
+        assertThat(dataSource.getStatementCacheHits()).isEqualTo(4);
+    }
+
+    interface VendorConnection extends Connection {
+    }
+}
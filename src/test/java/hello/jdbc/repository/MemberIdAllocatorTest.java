@@ -0,0 +1,91 @@
+package hello.jdbc.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.decorator.IdAssigningMemberRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+
+class MemberIdAllocatorTest {
+
+    static final int BLOCK_SIZE = 50;
+
+    HikariDataSource dataSource;
+    MemberIdAllocator allocatorA;
+    MemberIdAllocator allocatorB;
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        new MemberSchemaInitializer(dataSource).initialize();
+        //애플리케이션 두 개가 같은 시퀀스 테이블을 쓰는 상황
+        allocatorA = new MemberIdAllocator(dataSource, BLOCK_SIZE, 0.25, MemberIdAllocator.DEFAULT_PREFIX);
+        allocatorB = new MemberIdAllocator(dataSource, BLOCK_SIZE, 0, MemberIdAllocator.DEFAULT_PREFIX);
+    }
+
+    @AfterEach
+    void afterEach() {
+        allocatorA.close();
+        allocatorB.close();
+        dataSource.close();
+    }
+
+    @Test
+    void concurrentAllocationIsUnique() throws Exception {
+        int threads = 8;
+        int perThread = 500;
+        Set<String> ids = ConcurrentHashMap.newKeySet();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            MemberIdAllocator allocator = t % 2 == 0 ? allocatorA : allocatorB;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < perThread; i++) {
+                    ids.add(allocator.nextId());
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(ids).hasSize(threads * perThread);
+        assertThat(ids).allSatisfy(id -> assertThat(id).startsWith("id-").hasSizeLessThanOrEqualTo(10));
+        //구간마다 DB 왕복 한 번. (미리 예약한 구간 하나씩은 남을 수 있다)
+        long reservations = allocatorA.getReservationCount() + allocatorB.getReservationCount();
+        assertThat(reservations).isLessThanOrEqualTo(threads * perThread / BLOCK_SIZE + 2);
+    }
+
+    @Test
+    void saveAssignsId() {
+        MemberRepositoryV5 delegate = new MemberRepositoryV5(dataSource);
+        IdAssigningMemberRepository repository = new IdAssigningMemberRepository(delegate, allocatorA);
+
+        Member first = repository.save(new Member(null, 10000));
+        Member second = repository.save(new Member(null, 20000));
+        try {
+            assertThat(first.getMemberId()).isNotEqualTo(second.getMemberId());
+            assertThat(repository.findById(first.getMemberId()).getMoney()).isEqualTo(10000);
+            assertThat(repository.findById(second.getMemberId()).getMoney()).isEqualTo(20000);
+        } finally {
+            delegate.delete(first.getMemberId());
+            delegate.delete(second.getMemberId());
+        }
+    }
+}
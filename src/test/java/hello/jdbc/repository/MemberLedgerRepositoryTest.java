@@ -0,0 +1,93 @@
+package hello.jdbc.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+class MemberLedgerRepositoryTest {
+
+    public static final String MEMBER_A = "ledgerA";
+    public static final String MEMBER_B = "ledgerB";
+
+    HikariDataSource dataSource;
+    MemberLedgerRepository repository;
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        new MemberSchemaInitializer(dataSource).initialize();
+        repository = new MemberLedgerRepository(dataSource);
+    }
+
+    @AfterEach
+    void afterEach() {
+        repository.close();
+        repository.delete(MEMBER_A);
+        repository.delete(MEMBER_B);
+        dataSource.close();
+    }
+
+    @Test
+    void ledger() {
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.save(new Member(MEMBER_B, 0));
+
+        //원장에 추가만 하고, 조회는 스냅샷 + 원장 합계
+        assertThat(repository.addMoney(MEMBER_A, 500)).isEqualTo(1);
+        assertThat(repository.withdraw(MEMBER_A, 2000)).isEqualTo(1);
+        assertThat(repository.withdraw(MEMBER_A, 100000)).isEqualTo(0);
+        assertThat(repository.transfer(MEMBER_A, MEMBER_B, 1000)).isEqualTo(2);
+        assertThat(repository.addMoney("none", 500)).isEqualTo(0);
+
+        Member memberA = repository.findById(MEMBER_A);
+        assertThat(memberA.getMoney()).isEqualTo(7500);
+        assertThat(memberA.getVersion()).isEqualTo(3);
+        assertThat(repository.findById(MEMBER_B).getMoney()).isEqualTo(1000);
+        assertThatThrownBy(() -> repository.findById("none"))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+    }
+
+    @Test
+    void compact() {
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.addMoney(MEMBER_A, 500);
+        repository.withdraw(MEMBER_A, 2000);
+        Member before = repository.findById(MEMBER_A);
+
+        //원장을 스냅샷으로 접어도 잔액과 version 은 그대로
+        assertThat(repository.compact()).isGreaterThanOrEqualTo(2);
+        Member after = repository.findById(MEMBER_A);
+        assertThat(after).isEqualTo(before);
+
+        //version 비교(compare-and-set) 도 압축과 상관없이 동작한다.
+        assertThat(repository.update(MEMBER_A, 9000, after.getVersion())).isEqualTo(1);
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(9000);
+    }
+
+    @Test
+    void backgroundCompaction() throws InterruptedException {
+        repository.save(new Member(MEMBER_A, 0));
+        repository.setCompactionBatchSize(10);
+        for (int i = 0; i < 25; i++) {
+            repository.addMoney(MEMBER_A, 100);
+        }
+
+        repository.startCompaction(50);
+        Thread.sleep(500);
+
+        assertThat(repository.getCompactedEntries()).isGreaterThanOrEqualTo(25);
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(2500);
+    }
+}
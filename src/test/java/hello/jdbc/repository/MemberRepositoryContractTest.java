@@ -0,0 +1,152 @@
+package hello.jdbc.repository;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+
+import javax.sql.DataSource;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 배치, IN 조회, 스트리밍을 지원하는 MemberRepository 구현이 공통으로 통과해야 하는 테스트
+ * 구현마다 상속해서 리포지토리 생성, 없는 회원 예외, fetchSize 설정만 정한다.
+ */
+@Slf4j
+public abstract class MemberRepositoryContractTest<R extends MemberRepository> {
+
+    static final List<String> MEMBER_IDS = List.of("batch1", "batch2", "batch3", "batch4", "batch5");
+
+    HikariDataSource dataSource;
+    R repository;
+
+    abstract R createRepository(DataSource dataSource, int batchSize);
+
+    //findById 가 없는 회원에 던지는 예외
+    abstract Class<? extends RuntimeException> notFoundException();
+
+    abstract void setFetchSize(int fetchSize);
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        new MemberSchemaInitializer(dataSource).initialize();
+        //청크 분할을 확인하기 위해 배치 크기를 작게 설정
+        repository = createRepository(dataSource, 2);
+    }
+
+    @AfterEach
+    void afterEach() {
+        repository.deleteAll(MEMBER_IDS);
+        dataSource.close();
+    }
+
+    @Test
+    void batch() {
+        //saveAll : 5건 -> 2, 2, 1 세 번의 배치
+        repository.saveAll(List.of(
+                new Member("batch1", 1000), new Member("batch2", 2000), new Member("batch3", 3000),
+                new Member("batch4", 4000), new Member("batch5", 5000)));
+        assertThat(repository.findById("batch3").getMoney()).isEqualTo(3000);
+
+        //updateAll
+        repository.updateAll(Map.of("batch1", 10000, "batch5", 50000));
+        assertThat(repository.findById("batch1").getMoney()).isEqualTo(10000);
+        assertThat(repository.findById("batch5").getMoney()).isEqualTo(50000);
+
+        //deleteAll
+        repository.deleteAll(MEMBER_IDS);
+        assertThatThrownBy(() -> repository.findById("batch1"))
+                .isInstanceOf(notFoundException());
+    }
+
+    @Test
+    void batchDuplicateKey() {
+        repository.save(new Member("batch2", 2000));
+
+        //실패한 행의 memberId 가 예외 메시지에 포함된다.
+        assertThatThrownBy(() -> repository.saveAll(List.of(
+                new Member("batch1", 1000), new Member("batch2", 2000), new Member("batch3", 3000))))
+                .isInstanceOf(DuplicateKeyException.class)
+                .hasMessageContaining("batch2");
+    }
+
+    @Test
+    void compareAndSet() {
+        repository.save(new Member("batch1", 1000));
+        long version = repository.findById("batch1").getVersion();
+
+        //읽은 version 그대로면 성공하고 version 이 증가한다.
+        assertThat(repository.update("batch1", 2000, version)).isEqualTo(1);
+        assertThat(repository.findById("batch1").getVersion()).isEqualTo(version + 1);
+
+        //같은 version 으로 다시 시도하면 실패
+        assertThat(repository.update("batch1", 3000, version)).isEqualTo(0);
+
+        //다른 방식의 변경도 version 을 증가시킨다.
+        repository.addMoney("batch1", 500);
+        assertThat(repository.findById("batch1").getVersion()).isEqualTo(version + 2);
+        assertThat(repository.findById("batch1").getMoney()).isEqualTo(2500);
+    }
+
+    @Test
+    void findAllById() {
+        repository.saveAll(List.of(new Member("batch1", 1000), new Member("batch2", 2000), new Member("batch3", 3000)));
+
+        //3건 -> IN 절 8칸짜리 한 번. 없는 memberId 는 예외 없이 빠진다.
+        Map<String, Member> found = repository.findAllById(List.of("batch1", "batch3", "batch4", "batch1"));
+
+        assertThat(found).containsOnlyKeys("batch1", "batch3");
+        assertThat(found.get("batch3").getMoney()).isEqualTo(3000);
+    }
+
+    @Test
+    void streamAll() {
+        repository.saveAll(List.of(new Member("batch1", 1000), new Member("batch2", 2000), new Member("batch3", 3000)));
+        setFetchSize(1);
+
+        try (Stream<Member> stream = repository.streamAll()) {
+            long count = stream.filter(member -> MEMBER_IDS.contains(member.getMemberId())).count();
+            assertThat(count).isEqualTo(3);
+        }
+        //Stream 을 닫으면 커넥션이 풀에 반납된다.
+        assertThat(dataSource.getHikariPoolMXBean().getActiveConnections()).isEqualTo(0);
+    }
+
+    @Test
+    void streamAllCloseOnException() {
+        repository.saveAll(List.of(new Member("batch1", 1000), new Member("batch2", 2000)));
+
+        //읽는 중 예외가 발생하면 Stream 을 닫지 않아도 커넥션을 반납한다.
+        Stream<Member> stream = repository.streamAll();
+        assertThatThrownBy(() -> stream.forEach(member -> {
+            throw new IllegalStateException("stop");
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(dataSource.getHikariPoolMXBean().getActiveConnections()).isEqualTo(0);
+    }
+
+    @Test
+    void scan() {
+        repository.saveAll(List.of(new Member("batch1", 1000), new Member("batch2", 2000), new Member("batch3", 3000)));
+
+        long[] sum = new long[1];
+        repository.scan((memberId, money) -> {
+            if (MEMBER_IDS.contains(memberId.toString())) {
+                sum[0] += money;
+            }
+        });
+        assertThat(sum[0]).isEqualTo(6000);
+    }
+}
@@ -0,0 +1,22 @@
+package hello.jdbc.repository;
+
+import javax.sql.DataSource;
+import java.util.NoSuchElementException;
+
+public class MemberRepositoryV4_2Test extends MemberRepositoryContractTest<MemberRepositoryV4_2> {
+
+    @Override
+    MemberRepositoryV4_2 createRepository(DataSource dataSource, int batchSize) {
+        return new MemberRepositoryV4_2(dataSource, batchSize);
+    }
+
+    @Override
+    Class<? extends RuntimeException> notFoundException() {
+        return NoSuchElementException.class;
+    }
+
+    @Override
+    void setFetchSize(int fetchSize) {
+        repository.setFetchSize(fetchSize);
+    }
+}
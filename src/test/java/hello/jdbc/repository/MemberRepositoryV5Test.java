@@ -0,0 +1,23 @@
+package hello.jdbc.repository;
+
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import javax.sql.DataSource;
+
+public class MemberRepositoryV5Test extends MemberRepositoryContractTest<MemberRepositoryV5> {
+
+    @Override
+    MemberRepositoryV5 createRepository(DataSource dataSource, int batchSize) {
+        return new MemberRepositoryV5(dataSource, batchSize);
+    }
+
+    @Override
+    Class<? extends RuntimeException> notFoundException() {
+        return EmptyResultDataAccessException.class;
+    }
+
+    @Override
+    void setFetchSize(int fetchSize) {
+        repository.setFetchSize(fetchSize);
+    }
+}
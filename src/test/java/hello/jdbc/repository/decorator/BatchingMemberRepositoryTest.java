@@ -0,0 +1,109 @@
+package hello.jdbc.repository.decorator;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV5;
+import hello.jdbc.repository.MemberSchemaInitializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BatchingMemberRepositoryTest {
+
+    static final int THREADS = 8;
+    static final long ONE_SECOND_MICROS = 1_000_000;
+
+    HikariDataSource dataSource;
+    MemberRepositoryV5 delegate;
+    TransactionTemplate txTemplate;
+    ExecutorService executor;
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        new MemberSchemaInitializer(dataSource).initialize();
+        delegate = new MemberRepositoryV5(dataSource);
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        executor = Executors.newFixedThreadPool(THREADS);
+        for (int i = 0; i < THREADS; i++) {
+            delegate.delete("batch" + i);
+        }
+    }
+
+    @AfterEach
+    void afterEach() {
+        executor.shutdownNow();
+        for (int i = 0; i < THREADS; i++) {
+            delegate.delete("batch" + i);
+        }
+        dataSource.close();
+    }
+
+    @Test
+    void fullBatchIsSentAsOneQuery() throws Exception {
+        //window 가 길어도 THREADS 개가 모이면 바로 보낸다.
+        BatchingMemberRepository repository = new BatchingMemberRepository(delegate, THREADS, ONE_SECOND_MICROS);
+        for (int i = 0; i < THREADS - 1; i++) {
+            delegate.save(new Member("batch" + i, i * 1000));
+        }
+
+        List<Future<Member>> futures = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            String memberId = "batch" + i;
+            futures.add(executor.submit(() -> repository.findById(memberId)));
+        }
+
+        for (int i = 0; i < THREADS - 1; i++) {
+            Member member = futures.get(i).get();
+            assertThat(member.getMemberId()).isEqualTo("batch" + i);
+            assertThat(member.getMoney()).isEqualTo(i * 1000);
+        }
+        //없는 회원은 findById 와 같은 예외
+        assertThatThrownBy(() -> futures.get(THREADS - 1).get())
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(EmptyResultDataAccessException.class);
+        assertThat(repository.getBatchCount()).isEqualTo(1);
+        assertThat(repository.getSavedQueryCount()).isEqualTo(THREADS - 1);
+    }
+
+    @Test
+    void singleLoadIsSentAfterWindow() {
+        BatchingMemberRepository repository = new BatchingMemberRepository(delegate, THREADS, 100);
+        delegate.save(new Member("batch0", 10000));
+
+        assertThat(repository.findById("batch0").getMoney()).isEqualTo(10000);
+        assertThatThrownBy(() -> repository.findById("batch1"))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+        assertThat(repository.getBatchCount()).isEqualTo(2);
+    }
+
+    @Test
+    void transactionalReadsAreNotBatched() {
+        BatchingMemberRepository repository = new BatchingMemberRepository(delegate, THREADS, ONE_SECOND_MICROS);
+        delegate.save(new Member("batch0", 10000));
+
+        txTemplate.executeWithoutResult(status -> {
+            repository.update("batch0", 5000);
+            //트랜잭션 커넥션으로 조회하므로 커밋 전 변경이 보인다.
+            assertThat(repository.findById("batch0").getMoney()).isEqualTo(5000);
+        });
+        assertThat(repository.getBatchCount()).isEqualTo(0);
+    }
+}
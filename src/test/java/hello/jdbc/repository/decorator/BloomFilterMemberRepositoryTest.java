@@ -0,0 +1,159 @@
+package hello.jdbc.repository.decorator;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV5;
+import hello.jdbc.repository.MemberSchemaInitializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class BloomFilterMemberRepositoryTest {
+
+    public static final String MEMBER_A = "bloomA";
+    public static final String MEMBER_B = "bloomB";
+
+    HikariDataSource dataSource;
+    MemberRepositoryV5 delegate;
+    BloomFilterMemberRepository repository;
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        new MemberSchemaInitializer(dataSource).initialize();
+        delegate = new MemberRepositoryV5(dataSource);
+        deleteTestMembers();
+        repository = new BloomFilterMemberRepository(delegate, 1000, 0.01, 1 << 20);
+    }
+
+    @AfterEach
+    void afterEach() {
+        deleteTestMembers();
+        dataSource.close();
+    }
+
+    private void deleteTestMembers() {
+        delegate.streamAll()
+                .map(Member::getMemberId)
+                .filter(memberId -> memberId.startsWith("bloom"))
+                .forEach(delegate::delete);
+    }
+
+    @Test
+    void loadAndSkipDefiniteMiss() {
+        delegate.save(new Member(MEMBER_A, 10000));
+        repository.load();
+
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThatThrownBy(() -> repository.findById(MEMBER_B))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+        assertThat(repository.getSkippedLookupCount() + repository.getFalsePositiveCount()).isEqualTo(1);
+
+        //저장하면 바로 필터에 들어간다.
+        repository.save(new Member(MEMBER_B, 5000));
+        assertThat(repository.findById(MEMBER_B).getMoney()).isEqualTo(5000);
+    }
+
+    @Test
+    void saveWithNewIdAvoidsCollision() {
+        repository.load();
+        repository.save(new Member(MEMBER_A, 10000));
+
+        Member saved = repository.saveWithNewId(new Member(MEMBER_A, 500));
+        assertThat(saved.getMemberId()).isNotEqualTo(MEMBER_A).startsWith("bloomA").hasSizeLessThanOrEqualTo(10);
+        assertThat(repository.findById(saved.getMemberId()).getMoney()).isEqualTo(500);
+        assertThat(repository.getAvoidedCollisionCount()).isGreaterThanOrEqualTo(1);
+    }
+
+    @Test
+    void deleteLeavesStaleEntryUntilRebuild() {
+        repository.load();
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.delete(MEMBER_A);
+        assertThat(repository.getStaleCount()).isEqualTo(1);
+        assertThat(repository.getFilter().mightContain(MEMBER_A)).isTrue();
+
+        repository.rebuild();
+        assertThat(repository.getStaleCount()).isEqualTo(0);
+        assertThat(repository.getFilter().getMemoryBytes()).isLessThanOrEqualTo(1 << 20);
+        assertThat(repository.getFilter().getEstimatedFalsePositiveRate()).isLessThan(0.01);
+    }
+
+    @Test
+    void saveDuringRebuild() throws Exception {
+        repository.load();
+        int members = 200;
+        AtomicBoolean saving = new AtomicBoolean(true);
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        Future<?> rebuilder = executor.submit(() -> {
+            while (saving.get()) {
+                repository.rebuild();
+            }
+        });
+        Future<?> saver = executor.submit(() -> {
+            try {
+                for (int i = 0; i < members; i++) {
+                    repository.save(new Member("bloom" + i, i));
+                }
+            } finally {
+                saving.set(false);
+            }
+        });
+        saver.get();
+        rebuilder.get();
+        executor.shutdown();
+
+        //rebuild 와 겹친 save 도 새 필터에 남아서 조회가 DB 를 건너뛰지 않는다.
+        for (int i = 0; i < members; i++) {
+            assertThat(repository.findById("bloom" + i).getMoney()).isEqualTo(i);
+        }
+        assertThat(repository.getSkippedLookupCount()).isEqualTo(0);
+    }
+
+    @Test
+    void filterGrowsWithinFalsePositiveRate() {
+        ScalableBloomFilter filter = new ScalableBloomFilter(100, 0.01, 1 << 20);
+        for (int i = 0; i < 10000; i++) {
+            filter.put("m" + i);
+        }
+        assertThat(filter.getStageCount()).isGreaterThan(1);
+        for (int i = 0; i < 10000; i++) {
+            assertThat(filter.mightContain("m" + i)).isTrue();
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.mightContain("x" + i)) {
+                falsePositives++;
+            }
+        }
+        assertThat(falsePositives).isLessThan(200);
+    }
+
+    @Test
+    void filterStaysWithinMaxBytes() {
+        //첫 단계부터 상한을 넘으면 만들지 않는다.
+        assertThatThrownBy(() -> new ScalableBloomFilter(1_000_000, 0.01, 1024))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        //다음 단계가 상한을 넘으면 늘리지 않고 포화 상태가 된다.
+        ScalableBloomFilter filter = new ScalableBloomFilter(1000, 0.01, 4096);
+        for (int i = 0; i < 100000; i++) {
+            filter.put("m" + i);
+        }
+        assertThat(filter.isSaturated()).isTrue();
+        assertThat(filter.getMemoryBytes()).isLessThanOrEqualTo(4096);
+    }
+}
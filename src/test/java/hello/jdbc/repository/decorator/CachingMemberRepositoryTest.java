@@ -0,0 +1,126 @@
+package hello.jdbc.repository.decorator;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV5;
+import hello.jdbc.repository.MemberSchemaInitializer;
+import hello.jdbc.service.MemberServiceV4;
+import hello.jdbc.service.TransferMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class CachingMemberRepositoryTest {
+
+    public static final String MEMBER_A = "cacheA";
+    public static final String MEMBER_B = "cacheB";
+
+    HikariDataSource dataSource;
+    MemberRepositoryV5 delegate;
+    CachingMemberRepository repository;
+    TransactionTemplate txTemplate;
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        new MemberSchemaInitializer(dataSource).initialize();
+        delegate = new MemberRepositoryV5(dataSource);
+        repository = new CachingMemberRepository(delegate, 100);
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        delegate.delete(MEMBER_A);
+        delegate.delete(MEMBER_B);
+    }
+
+    @AfterEach
+    void afterEach() {
+        delegate.delete(MEMBER_A);
+        delegate.delete(MEMBER_B);
+        dataSource.close();
+    }
+
+    @Test
+    void readThrough() {
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.findById(MEMBER_A);
+        Member member = repository.findById(MEMBER_A);
+        assertThat(member.getMoney()).isEqualTo(10000);
+        assertThat(repository.getCache().getHitCount()).isEqualTo(1);
+        assertThat(repository.getCache().getMissCount()).isEqualTo(1);
+
+        //꺼낸 Member 를 바꿔도 캐시는 그대로
+        member.setMoney(0);
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+
+        //트랜잭션 밖의 쓰기는 바로 무효화
+        repository.addMoney(MEMBER_A, 500);
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10500);
+
+        repository.delete(MEMBER_A);
+        assertThatThrownBy(() -> repository.findById(MEMBER_A))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+    }
+
+    @Test
+    void rollbackLeavesNoStaleBalance() {
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.save(new Member(MEMBER_B, 0));
+        MemberServiceV4 memberService = new MemberServiceV4(repository);
+        repository.findById(MEMBER_A);
+        repository.findById(MEMBER_B);
+
+        assertThatThrownBy(() -> txTemplate.executeWithoutResult(status -> {
+            memberService.transferInCurrentTransaction(MEMBER_A, "ex", 2000, TransferMode.DELTA);
+        })).isInstanceOf(IllegalStateException.class);
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+
+        txTemplate.executeWithoutResult(status -> {
+            memberService.transferInCurrentTransaction(MEMBER_A, MEMBER_B, 2000, TransferMode.DELTA);
+            //트랜잭션 안의 조회는 캐시를 거치지 않고 자기 변경을 본다.
+            assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        });
+        //커밋 후 무효화
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(repository.findById(MEMBER_B).getMoney()).isEqualTo(2000);
+    }
+
+    @Test
+    void segmentedLru() {
+        SegmentedLruCache<String, Integer> cache = new SegmentedLruCache<>(10, 0);
+        cache.putIfCurrent("hot", 1, cache.generation("hot"));
+        cache.get("hot"); //두 번째 조회 -> protected
+
+        //한 번씩만 쓰이는 키가 많이 들어와도 protected 항목은 밀려나지 않는다.
+        for (int i = 0; i < 100; i++) {
+            cache.putIfCurrent("scan" + i, i, cache.generation("scan" + i));
+        }
+        assertThat(cache.get("hot")).isEqualTo(1);
+        assertThat(cache.size()).isEqualTo(10);
+        assertThat(cache.getEvictionCount()).isEqualTo(91);
+
+        //조회를 시작한 뒤 무효화되면 넣지 않는다.
+        long generation = cache.generation("hot");
+        cache.invalidate("hot");
+        assertThat(cache.putIfCurrent("hot", 2, generation)).isFalse();
+        assertThat(cache.get("hot")).isNull();
+    }
+
+    @Test
+    void ttl() throws InterruptedException {
+        SegmentedLruCache<String, Integer> cache = new SegmentedLruCache<>(10, 50);
+        cache.putIfCurrent("key", 1, cache.generation("key"));
+        assertThat(cache.get("key")).isEqualTo(1);
+        Thread.sleep(100);
+        assertThat(cache.get("key")).isNull();
+        assertThat(cache.getExpirationCount()).isEqualTo(1);
+    }
+}
@@ -0,0 +1,143 @@
+package hello.jdbc.repository.decorator;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.memory.IndexedMemberRepository;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * delegate 는 조회를 latch 로 붙잡아 두는 메모리 리포지토리. H2 는 트랜잭션 매니저에만 필요하다.
+ */
+class SingleFlightMemberRepositoryTest {
+
+    static final int THREADS = 8;
+
+    HikariDataSource dataSource;
+    TransactionTemplate txTemplate;
+    BlockingRepository delegate;
+    SingleFlightMemberRepository repository;
+    ExecutorService executor;
+
+    static class BlockingRepository extends ForwardingMemberRepository {
+        final AtomicInteger calls = new AtomicInteger();
+        final CountDownLatch entered = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+
+        BlockingRepository() {
+            super(new IndexedMemberRepository(16));
+        }
+
+        @Override
+        public Member findById(String memberId) {
+            calls.incrementAndGet();
+            entered.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            return delegate.findById(memberId);
+        }
+    }
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        delegate = new BlockingRepository();
+        repository = new SingleFlightMemberRepository(delegate, 16);
+        executor = Executors.newFixedThreadPool(THREADS);
+    }
+
+    @AfterEach
+    void afterEach() {
+        delegate.release.countDown();
+        executor.shutdownNow();
+        dataSource.close();
+    }
+
+    //leader 가 delegate 안에 있는 동안 나머지가 모두 합류하면 놓아준다.
+    private List<Future<Member>> concurrentFind(String memberId) throws InterruptedException {
+        List<Future<Member>> futures = new ArrayList<>();
+        futures.add(executor.submit(() -> repository.findById(memberId)));
+        delegate.entered.await();
+        for (int i = 1; i < THREADS; i++) {
+            futures.add(executor.submit(() -> repository.findById(memberId)));
+        }
+        while (repository.getSavedQueryCount() < THREADS - 1) {
+            Thread.sleep(1);
+        }
+        delegate.release.countDown();
+        return futures;
+    }
+
+    @Test
+    void concurrentReadsShareOneQuery() throws Exception {
+        repository.save(new Member("memberA", 10000));
+
+        List<Future<Member>> futures = concurrentFind("memberA");
+        List<Member> members = new ArrayList<>();
+        for (Future<Member> future : futures) {
+            members.add(future.get());
+        }
+
+        assertThat(members).extracting(Member::getMoney).containsOnly(10000);
+        //각자 복사본을 받는다. Member 는 @Data 라 equals 로는 구분되지 않으므로 참조로 비교한다.
+        Set<Member> distinct = Collections.newSetFromMap(new IdentityHashMap<>());
+        distinct.addAll(members);
+        assertThat(distinct).hasSize(THREADS);
+        assertThat(delegate.calls.get()).isEqualTo(1);
+        assertThat(repository.getQueryCount()).isEqualTo(1);
+        assertThat(repository.getSavedQueryCount()).isEqualTo(THREADS - 1);
+        assertThat(repository.getInFlightCount()).isEqualTo(0);
+    }
+
+    @Test
+    void exceptionIsShared() throws Exception {
+        List<Future<Member>> futures = concurrentFind("none");
+        for (Future<Member> future : futures) {
+            assertThatThrownBy(future::get)
+                    .isInstanceOf(ExecutionException.class)
+                    .hasCauseInstanceOf(EmptyResultDataAccessException.class);
+        }
+        assertThat(delegate.calls.get()).isEqualTo(1);
+    }
+
+    @Test
+    void transactionalReadsAreNotCoalesced() {
+        delegate.release.countDown();
+        repository.save(new Member("memberA", 10000));
+
+        txTemplate.executeWithoutResult(status -> {
+            repository.findById("memberA");
+            repository.findById("memberA");
+        });
+        assertThat(delegate.calls.get()).isEqualTo(2);
+        assertThat(repository.getQueryCount()).isEqualTo(0);
+        assertThat(repository.getSavedQueryCount()).isEqualTo(0);
+    }
+}
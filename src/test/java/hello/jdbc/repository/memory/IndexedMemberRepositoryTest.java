@@ -0,0 +1,124 @@
+package hello.jdbc.repository.memory;
+
+import hello.jdbc.domain.Member;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class IndexedMemberRepositoryTest {
+
+    IndexedMemberRepository repository = new IndexedMemberRepository(1000);
+
+    @Test
+    void crud() {
+        repository.save(new Member("memberA", 10000));
+        repository.save(new Member("memberB", 0));
+        assertThatThrownBy(() -> repository.save(new Member("memberA", 0)))
+                .isInstanceOf(DuplicateKeyException.class);
+
+        assertThat(repository.addMoney("memberA", 500)).isEqualTo(1);
+        assertThat(repository.withdraw("memberA", 2000)).isEqualTo(1);
+        assertThat(repository.withdraw("memberA", 100000)).isEqualTo(0);
+        assertThat(repository.transfer("memberA", "memberB", 1000)).isEqualTo(2);
+        assertThat(repository.transfer("memberA", "none", 1000)).isEqualTo(0);
+        assertThat(repository.addMoney("none", 500)).isEqualTo(0);
+
+        Member memberA = repository.findById("memberA");
+        assertThat(memberA.getMoney()).isEqualTo(7500);
+        assertThat(memberA.getVersion()).isEqualTo(3);
+        assertThat(repository.update("memberA", 100, 2)).isEqualTo(0);
+        assertThat(repository.update("memberA", 100, 3)).isEqualTo(1);
+        assertThat(repository.findById("memberA").getVersion()).isEqualTo(4);
+
+        //삭제 후 같은 memberId 로 다시 저장하면 version 0 부터
+        repository.delete("memberB");
+        assertThatThrownBy(() -> repository.findById("memberB"))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+        repository.save(new Member("memberB", 300));
+        assertThat(repository.findById("memberB").getMoney()).isEqualTo(300);
+        assertThat(repository.findById("memberB").getVersion()).isEqualTo(0);
+    }
+
+    @Test
+    void scan() {
+        repository.save(new Member("memberA", 100));
+        repository.save(new Member("회원", 200)); //ASCII 가 아닌 memberId
+        repository.save(new Member("memberC", 300));
+        repository.delete("memberC");
+
+        List<String> memberIds = new ArrayList<>();
+        AtomicInteger sum = new AtomicInteger();
+        repository.scan((memberId, money) -> {
+            memberIds.add(memberId.toString());
+            sum.addAndGet(money);
+        });
+        assertThat(memberIds).containsExactlyInAnyOrder("memberA", "회원");
+        assertThat(sum.get()).isEqualTo(300);
+        assertThat(repository.streamAll().count()).isEqualTo(2);
+    }
+
+    @Test
+    void full() {
+        IndexedMemberRepository small = new IndexedMemberRepository(2);
+        small.save(new Member("memberA", 0));
+        small.save(new Member("memberB", 0));
+        assertThatThrownBy(() -> small.save(new Member("memberC", 0)))
+                .isInstanceOf(IllegalStateException.class);
+    }
+
+    @Test
+    void tooLongMemberId() {
+        String tooLong = "m".repeat(256);
+        assertThatThrownBy(() -> repository.save(new Member(tooLong, 0)))
+                .isInstanceOf(IllegalArgumentException.class);
+
+        //실패한 저장이 슬롯을 차지한 채로 남지 않는다. (같은 슬롯을 지나는 조회가 멈추지 않음)
+        assertThatThrownBy(() -> repository.findById(tooLong))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+        repository.save(new Member("memberA", 100));
+        assertThat(repository.findById("memberA").getMoney()).isEqualTo(100);
+        assertThat(repository.streamAll().count()).isEqualTo(1);
+    }
+
+    @Test
+    void concurrent() throws Exception {
+        repository.save(new Member("memberA", 0));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        AtomicInteger saved = new AtomicInteger();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    repository.addMoney("memberA", 1);
+                }
+                //모든 스레드가 같은 memberId 를 저장 -> 한 번만 성공
+                for (int i = 0; i < 100; i++) {
+                    try {
+                        repository.save(new Member("dup" + i, i));
+                        saved.incrementAndGet();
+                    } catch (DuplicateKeyException e) {
+                        //다른 스레드가 먼저 저장
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(repository.findById("memberA").getMoney()).isEqualTo(80000);
+        assertThat(saved.get()).isEqualTo(100);
+        assertThat(repository.findById("dup99").getMoney()).isEqualTo(99);
+    }
+}
@@ -0,0 +1,292 @@
+package hello.jdbc.repository.memory;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberSchemaInitializer;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.transaction.CannotCreateTransactionException;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.sql.DataSource;
+import java.nio.file.Path;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+@Slf4j
+class JournaledMemberRepositoryTest {
+
+    public static final String MEMBER_A = "jrnlA";
+    public static final String MEMBER_B = "jrnlB";
+
+    @TempDir
+    Path journalDirectory;
+
+    HikariDataSource dataSource;
+    JdbcTemplate template;
+    JournaledMemberRepository repository;
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        new MemberSchemaInitializer(dataSource).initialize();
+        template = new JdbcTemplate(dataSource);
+        deleteRows();
+        repository = open();
+    }
+
+    @AfterEach
+    void afterEach() {
+        repository.close();
+        deleteRows();
+        dataSource.close();
+    }
+
+    private JournaledMemberRepository open() {
+        return new JournaledMemberRepository(dataSource, journalDirectory, 64 * 1024, FsyncPolicy.EVERY_WRITE, 0);
+    }
+
+    private void deleteRows() {
+        template.update("delete from member where member_id in (?, ?)", MEMBER_A, MEMBER_B);
+    }
+
+    private FailingDataSource openFailing() {
+        FailingDataSource failingDataSource = new FailingDataSource(dataSource);
+        repository.close();
+        repository = new JournaledMemberRepository(failingDataSource, journalDirectory, 64 * 1024, FsyncPolicy.EVERY_WRITE, 0);
+        return failingDataSource;
+    }
+
+    private Integer moneyInTable(String memberId) {
+        return template.query("select money from member where member_id = ?",
+                rs -> rs.next() ? rs.getInt(1) : null, memberId);
+    }
+
+    @Test
+    void crud() {
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.save(new Member(MEMBER_B, 0));
+        assertThatThrownBy(() -> repository.save(new Member(MEMBER_A, 0)))
+                .isInstanceOf(DuplicateKeyException.class);
+
+        assertThat(repository.addMoney(MEMBER_A, 500)).isEqualTo(1);
+        assertThat(repository.withdraw(MEMBER_A, 2000)).isEqualTo(1);
+        assertThat(repository.withdraw(MEMBER_A, 100000)).isEqualTo(0);
+        assertThat(repository.transfer(MEMBER_A, MEMBER_B, 1000)).isEqualTo(2);
+        assertThat(repository.transfer(MEMBER_A, "none", 1000)).isEqualTo(0);
+        assertThat(repository.addMoney("none", 500)).isEqualTo(0);
+
+        Member memberA = repository.findById(MEMBER_A);
+        assertThat(memberA.getMoney()).isEqualTo(7500);
+        assertThat(repository.findById(MEMBER_B).getMoney()).isEqualTo(1000);
+
+        //compare-and-set
+        assertThat(repository.update(MEMBER_A, 100, memberA.getVersion() - 1)).isEqualTo(0);
+        assertThat(repository.update(MEMBER_A, 100, memberA.getVersion())).isEqualTo(1);
+        //version 은 전역 시계 값이므로 1 이 아니라 증가만 확인한다. (MemberRepository 계약)
+        assertThat(repository.findById(MEMBER_A).getVersion()).isGreaterThan(memberA.getVersion());
+
+        repository.delete(MEMBER_B);
+        assertThatThrownBy(() -> repository.findById(MEMBER_B))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+    }
+
+    @Test
+    void addMoneyOverflow() {
+        repository.save(new Member(MEMBER_A, Integer.MAX_VALUE - 10));
+
+        //int 범위를 넘는 잔액은 예외, 잔액은 그대로
+        assertThatThrownBy(() -> repository.addMoney(MEMBER_A, 100))
+                .isInstanceOf(ArithmeticException.class);
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(Integer.MAX_VALUE - 10);
+    }
+
+    @Test
+    void checkpoint() {
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.save(new Member(MEMBER_B, 0));
+        repository.transfer(MEMBER_A, MEMBER_B, 3000);
+        //체크포인트 전에는 테이블에 반영되지 않는다.
+        assertThat(moneyInTable(MEMBER_A)).isNull();
+
+        repository.checkpoint();
+        assertThat(moneyInTable(MEMBER_A)).isEqualTo(7000);
+        assertThat(moneyInTable(MEMBER_B)).isEqualTo(3000);
+
+        repository.delete(MEMBER_B);
+        repository.checkpoint();
+        assertThat(moneyInTable(MEMBER_B)).isNull();
+        assertThat(repository.getCheckpointCount()).isEqualTo(2);
+    }
+
+    @Test
+    void recoverFromJournal() {
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.save(new Member(MEMBER_B, 0));
+        repository.checkpoint();
+        repository.transfer(MEMBER_A, MEMBER_B, 3000);
+        repository.delete(MEMBER_B);
+        repository.save(new Member(MEMBER_B, 500));
+        repository.addMoney(MEMBER_B, 100);
+        long version = repository.findById(MEMBER_B).getVersion();
+
+        //close(체크포인트) 없이 장애 -> 테이블(마지막 체크포인트) + 저널 재생
+        JournaledMemberRepository recovered = open();
+        repository = recovered;
+        assertThat(recovered.findById(MEMBER_A).getMoney()).isEqualTo(7000);
+        assertThat(recovered.findById(MEMBER_B).getMoney()).isEqualTo(600);
+        assertThat(recovered.findById(MEMBER_B).getVersion()).isEqualTo(version);
+
+        //복구한 상태는 바로 테이블에 저장된다.
+        assertThat(moneyInTable(MEMBER_A)).isEqualTo(7000);
+        assertThat(moneyInTable(MEMBER_B)).isEqualTo(600);
+
+        //복구 후의 변경도 이어서 기록된다.
+        recovered.addMoney(MEMBER_A, 1000);
+        repository = open();
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+    }
+
+    @Test
+    void journalFull() {
+        repository.save(new Member(MEMBER_A, 0));
+        //64KB 저널이 여러 번 가득 차도록 기록 -> 체크포인트 후 이어서 기록
+        for (int i = 0; i < 5000; i++) {
+            repository.addMoney(MEMBER_A, 1);
+        }
+        assertThat(repository.getCheckpointCount()).isGreaterThan(0);
+
+        repository = open();
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(5000);
+    }
+
+    @Test
+    void rollback() {
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.save(new Member(MEMBER_B, 0));
+        TransactionTemplate txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        assertThatThrownBy(() -> txTemplate.executeWithoutResult(status -> {
+            repository.transfer(MEMBER_A, MEMBER_B, 2000);
+            repository.delete(MEMBER_A);
+            throw new IllegalStateException("이체중 예외 발생");
+        })).isInstanceOf(IllegalStateException.class);
+
+        //롤백되면 역순으로 보상 (삭제 복원 -> 입금 취소 -> 출금 취소)
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(repository.findById(MEMBER_B).getMoney()).isEqualTo(0);
+        assertThat(repository.getRolledBackCount()).isEqualTo(3);
+
+        txTemplate.executeWithoutResult(status -> repository.transfer(MEMBER_A, MEMBER_B, 2000));
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(repository.findById(MEMBER_B).getMoney()).isEqualTo(2000);
+    }
+
+    @Test
+    void failedCheckpointRetried() {
+        FailingDataSource failingDataSource = openFailing();
+        repository.save(new Member(MEMBER_A, 10000));
+
+        failingDataSource.failing = true;
+        assertThatThrownBy(() -> repository.checkpoint()).isInstanceOf(CannotCreateTransactionException.class);
+        assertThat(moneyInTable(MEMBER_A)).isNull();
+
+        //DB 가 돌아오면 실패한 체크포인트에서 꺼낸 회원도 다음 체크포인트에 저장된다.
+        failingDataSource.failing = false;
+        repository.checkpoint();
+        assertThat(moneyInTable(MEMBER_A)).isEqualTo(10000);
+        assertThat(repository.getCheckpointCount()).isEqualTo(1);
+    }
+
+    @Test
+    void failedCheckpointKeepsJournal() {
+        FailingDataSource failingDataSource = openFailing();
+        repository.save(new Member(MEMBER_A, 10000));
+
+        failingDataSource.failing = true;
+        assertThatThrownBy(() -> repository.checkpoint()).isInstanceOf(CannotCreateTransactionException.class);
+        repository.save(new Member(MEMBER_B, 0));
+        //MEMBER_A 가 기록된 이전 파일을 다시 rotate 해서 지우면 안 된다.
+        assertThatThrownBy(() -> repository.checkpoint()).isInstanceOf(CannotCreateTransactionException.class);
+        failingDataSource.failing = false;
+
+        //체크포인트 없이 장애 -> 두 파일 모두 재생
+        repository = open();
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(repository.findById(MEMBER_B).getMoney()).isEqualTo(0);
+    }
+
+    @Test
+    void journalFullWhileCheckpointFails() {
+        FailingDataSource failingDataSource = openFailing();
+        repository.save(new Member(MEMBER_A, 0));
+
+        //64KB 저널이 가득 차면 체크포인트가 실패하므로 변경도 실패한다.
+        failingDataSource.failing = true;
+        int applied = 0;
+        try {
+            for (int i = 0; i < 10000; i++) {
+                repository.addMoney(MEMBER_A, 1);
+                applied++;
+            }
+        } catch (CannotCreateTransactionException e) {
+            log.info("journal full after {} changes", applied);
+        }
+        assertThat(applied).isLessThan(10000);
+
+        //실패한 변경은 보이지 않는다.
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(applied);
+
+        //체크포인트도, 재생도 실패한 변경을 살리지 않는다.
+        failingDataSource.failing = false;
+        repository.checkpoint();
+        assertThat(moneyInTable(MEMBER_A)).isEqualTo(applied);
+        repository = open();
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(applied);
+    }
+
+    @Test
+    void checkpointInsideRolledBackTransaction() {
+        repository.save(new Member(MEMBER_A, 10000));
+        TransactionTemplate txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+
+        assertThatThrownBy(() -> txTemplate.executeWithoutResult(status -> {
+            repository.checkpoint();
+            throw new IllegalStateException("체크포인트 후 예외 발생");
+        })).isInstanceOf(IllegalStateException.class);
+
+        //체크포인트는 호출한 트랜잭션과 따로 커밋된다.
+        assertThat(moneyInTable(MEMBER_A)).isEqualTo(10000);
+    }
+
+    static class FailingDataSource extends DelegatingDataSource {
+        volatile boolean failing;
+
+        FailingDataSource(DataSource targetDataSource) {
+            super(targetDataSource);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (failing) {
+                throw new SQLException("checkpoint failure test");
+            }
+            return super.getConnection();
+        }
+    }
+}
@@ -0,0 +1,145 @@
+package hello.jdbc.repository.memory;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.service.MemberServiceV4;
+import hello.jdbc.service.TransferMode;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 트랜잭션 동기화만 사용하므로 H2 는 트랜잭션 매니저에만 필요하다.
+ */
+class MvccMemberRepositoryTest {
+
+    HikariDataSource dataSource;
+    TransactionTemplate txTemplate;
+    MvccMemberRepository repository;
+    MemberServiceV4 memberService;
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        repository = new MvccMemberRepository();
+        memberService = new MemberServiceV4(repository);
+    }
+
+    @AfterEach
+    void afterEach() {
+        repository.close();
+        dataSource.close();
+    }
+
+    @Test
+    void repeatableReadSnapshot() {
+        repository.save(new Member("memberA", 10000));
+        repository.save(new Member("memberB", 10000));
+
+        try (MvccMemberRepository.Snapshot snapshot = repository.snapshot()) {
+            txTemplate.executeWithoutResult(status ->
+                    memberService.transferInCurrentTransaction("memberA", "memberB", 2000, TransferMode.DELTA));
+            repository.delete("memberB");
+            repository.save(new Member("memberC", 500));
+
+            //스냅샷은 연 시점의 상태를 계속 본다.
+            assertThat(snapshot.findById("memberA").getMoney()).isEqualTo(10000);
+            assertThat(snapshot.findById("memberB").getMoney()).isEqualTo(10000);
+            assertThatThrownBy(() -> snapshot.findById("memberC"))
+                    .isInstanceOf(EmptyResultDataAccessException.class);
+            assertThat(snapshot.sumMoney()).isEqualTo(20000);
+
+            //열린 스냅샷이 보는 버전은 정리되지 않는다.
+            repository.collectGarbage();
+            assertThat(snapshot.findById("memberB").getMoney()).isEqualTo(10000);
+        }
+
+        assertThat(repository.findById("memberA").getMoney()).isEqualTo(8000);
+        assertThatThrownBy(() -> repository.findById("memberB"))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+
+        //스냅샷을 닫으면 이전 버전과 삭제된 회원이 정리된다.
+        assertThat(repository.collectGarbage()).isGreaterThan(0);
+        assertThat(repository.getOpenSnapshotCount()).isEqualTo(0);
+    }
+
+    @Test
+    void uncommittedChangesAreInvisible() {
+        repository.save(new Member("memberA", 10000));
+        repository.save(new Member("memberB", 0));
+
+        assertThatThrownBy(() -> txTemplate.executeWithoutResult(status -> {
+            memberService.transferInCurrentTransaction("memberA", "memberB", 2000, TransferMode.DELTA);
+            //자기 트랜잭션은 변경을 보고, 스냅샷은 커밋된 상태만 본다.
+            assertThat(repository.findById("memberA").getMoney()).isEqualTo(8000);
+            try (MvccMemberRepository.Snapshot snapshot = repository.snapshot()) {
+                assertThat(snapshot.findById("memberA").getMoney()).isEqualTo(10000);
+            }
+            throw new IllegalStateException("이체중 예외 발생");
+        })).isInstanceOf(IllegalStateException.class);
+
+        //롤백되면 버리고 잠금도 풀린다.
+        assertThat(repository.findById("memberA").getMoney()).isEqualTo(10000);
+        assertThat(repository.withdraw("memberA", 1000)).isEqualTo(1);
+    }
+
+    @Test
+    void consistentSumDuringTransfers() throws Exception {
+        int accounts = 20;
+        for (int i = 0; i < accounts; i++) {
+            repository.save(new Member("mvcc" + i, 10000));
+        }
+
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        AtomicBoolean stop = new AtomicBoolean();
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            futures.add(executor.submit(() -> {
+                ThreadLocalRandom random = ThreadLocalRandom.current();
+                while (!stop.get()) {
+                    String fromId = "mvcc" + random.nextInt(accounts);
+                    String toId = "mvcc" + random.nextInt(accounts);
+                    try {
+                        txTemplate.executeWithoutResult(status ->
+                                memberService.transferInCurrentTransaction(fromId, toId, 100, TransferMode.SINGLE_STATEMENT));
+                    } catch (IllegalStateException e) {
+                        //같은 계좌 또는 잔액 부족
+                    }
+                    repository.collectGarbage();
+                }
+            }));
+        }
+
+        //이체 도중(출금만 된 상태)을 보지 않으므로 합계가 항상 같다.
+        for (int i = 0; i < 200; i++) {
+            try (MvccMemberRepository.Snapshot snapshot = repository.snapshot()) {
+                assertThat(snapshot.sumMoney()).isEqualTo(accounts * 10000L);
+            }
+        }
+        stop.set(true);
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+        assertThat(repository.getCommitCount()).isGreaterThan(accounts);
+    }
+}
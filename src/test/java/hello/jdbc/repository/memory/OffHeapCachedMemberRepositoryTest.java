@@ -0,0 +1,85 @@
+package hello.jdbc.repository.memory;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepositoryV5;
+import hello.jdbc.repository.MemberSchemaInitializer;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OffHeapCachedMemberRepositoryTest {
+
+    public static final String MEMBER_A = "offA";
+    public static final String MEMBER_B = "offB";
+
+    HikariDataSource dataSource;
+    MemberRepositoryV5 delegate;
+    OffHeapCachedMemberRepository repository;
+    TransactionTemplate txTemplate;
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        new MemberSchemaInitializer(dataSource).initialize();
+        delegate = new MemberRepositoryV5(dataSource);
+        repository = new OffHeapCachedMemberRepository(delegate, 16);
+        txTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+        delegate.delete(MEMBER_A);
+        delegate.delete(MEMBER_B);
+    }
+
+    @AfterEach
+    void afterEach() {
+        delegate.delete(MEMBER_A);
+        delegate.delete(MEMBER_B);
+        dataSource.close();
+    }
+
+    @Test
+    void cache() {
+        repository.save(new Member(MEMBER_A, 10000));
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(repository.getMissCount()).isEqualTo(1);
+        assertThat(repository.getHitCount()).isEqualTo(1);
+
+        //쓰기는 캐시를 지운다.
+        repository.addMoney(MEMBER_A, 500);
+        Member memberA = repository.findById(MEMBER_A);
+        assertThat(memberA.getMoney()).isEqualTo(10500);
+        assertThat(memberA.getVersion()).isEqualTo(delegate.findById(MEMBER_A).getVersion());
+
+        repository.delete(MEMBER_A);
+        assertThatThrownBy(() -> repository.findById(MEMBER_A))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+    }
+
+    @Test
+    void rollback() {
+        repository.save(new Member(MEMBER_A, 10000));
+        repository.save(new Member(MEMBER_B, 0));
+        repository.findById(MEMBER_A);
+
+        assertThatThrownBy(() -> txTemplate.executeWithoutResult(status -> {
+            repository.transfer(MEMBER_A, MEMBER_B, 2000);
+            //트랜잭션 안의 조회는 캐시를 거치지 않고 자기 변경을 본다.
+            assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+            throw new IllegalStateException("이체중 예외 발생");
+        })).isInstanceOf(IllegalStateException.class);
+
+        //롤백 후에도 캐시에 커밋되지 않은 잔액이 남지 않는다.
+        assertThat(repository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(repository.findById(MEMBER_B).getMoney()).isEqualTo(0);
+    }
+}
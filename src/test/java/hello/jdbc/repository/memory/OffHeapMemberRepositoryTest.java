@@ -0,0 +1,96 @@
+package hello.jdbc.repository.memory;
+
+import hello.jdbc.domain.Member;
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class OffHeapMemberRepositoryTest {
+
+    OffHeapMemberRepository repository = new OffHeapMemberRepository(16);
+
+    @Test
+    void crud() {
+        repository.save(new Member("memberA", 10000));
+        repository.save(new Member("memberB", 0));
+        assertThatThrownBy(() -> repository.save(new Member("memberA", 0)))
+                .isInstanceOf(DuplicateKeyException.class);
+
+        assertThat(repository.addMoney("memberA", 500)).isEqualTo(1);
+        assertThat(repository.withdraw("memberA", 2000)).isEqualTo(1);
+        assertThat(repository.withdraw("memberA", 100000)).isEqualTo(0);
+        assertThat(repository.transfer("memberA", "memberB", 1000)).isEqualTo(2);
+        assertThat(repository.transfer("memberA", "none", 1000)).isEqualTo(0);
+
+        Member memberA = repository.findById("memberA");
+        assertThat(memberA.getMoney()).isEqualTo(7500);
+        assertThat(memberA.getVersion()).isEqualTo(3);
+        assertThat(repository.update("memberA", 100, 2)).isEqualTo(0);
+        assertThat(repository.update("memberA", 100, 3)).isEqualTo(1);
+
+        repository.delete("memberB");
+        assertThatThrownBy(() -> repository.findById("memberB"))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+    }
+
+    @Test
+    void compact() {
+        //초기 크기보다 많이 저장 -> 인덱스, 슬랩 확장
+        for (int i = 0; i < 100000; i++) {
+            repository.save(new Member("m" + i, i));
+        }
+        for (int i = 0; i < 100000; i += 2) {
+            repository.delete("m" + i);
+        }
+        OffHeapMemberStore store = repository.getStore();
+        long before = store.offHeapBytes();
+        assertThat(store.deletedCount()).isEqualTo(50000);
+
+        assertThat(repository.compact()).isEqualTo(50000);
+        assertThat(store.deletedCount()).isEqualTo(0);
+        assertThat(store.size()).isEqualTo(50000);
+        assertThat(store.offHeapBytes()).isLessThan(before);
+
+        //압축 후에도 같은 회원을 찾고, 삭제한 회원은 다시 저장할 수 있다.
+        assertThat(repository.findById("m99999").getMoney()).isEqualTo(99999);
+        assertThatThrownBy(() -> repository.findById("m0"))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+        repository.save(new Member("m0", 7));
+        assertThat(repository.findById("m0").getMoney()).isEqualTo(7);
+    }
+
+    @Test
+    void concurrentAddMoney() throws Exception {
+        repository.save(new Member("memberA", 0));
+        ExecutorService executor = Executors.newFixedThreadPool(8);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < 8; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < 10000; i++) {
+                    repository.addMoney("memberA", 1);
+                    //저장(구조 변경)과 잔액 변경이 섞여도 잃는 변경이 없어야 한다.
+                    if (i % 10 == 0) {
+                        repository.save(new Member("t" + thread + "-" + i, 0));
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        assertThat(repository.findById("memberA").getMoney()).isEqualTo(80000);
+        assertThat(repository.getStore().size()).isEqualTo(1 + 8 * 1000);
+    }
+}
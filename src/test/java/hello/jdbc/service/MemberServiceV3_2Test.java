@@ -2,16 +2,21 @@ package hello.jdbc.service;
 
 import hello.jdbc.domain.Member;
 import hello.jdbc.repository.MemberRepositoryV3;
+import hello.jdbc.repository.MemberSchemaInitializer;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.DisplayName;
 import org.junit.jupiter.api.Test;
 import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
 import org.springframework.jdbc.datasource.DriverManagerDataSource;
 import org.springframework.transaction.PlatformTransactionManager;
 
+import javax.sql.DataSource;
+import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static hello.jdbc.connection.ConnectionConst.*;
 import static org.assertj.core.api.Assertions.assertThat;
@@ -31,6 +36,7 @@ public class MemberServiceV3_2Test {
     @BeforeEach
     void beforeEach() {
         DriverManagerDataSource dataSource = new DriverManagerDataSource(URL, USERNAME, PASSWORD);
+        new MemberSchemaInitializer(dataSource).initialize();
         memberRepository = new MemberRepositoryV3(dataSource);
 
         //JDBC 기술을 사용하므로, JDBC용 트랜잭션 매니저( DataSourceTransactionManager )를 선택해서 서비스에 주입한다.
@@ -87,4 +93,32 @@ public class MemberServiceV3_2Test {
         assertThat(findMemberB.getMoney()).isEqualTo(10000);
     }
 
+    @Test
+    @DisplayName("이체 한 번에 물리 커넥션 하나")
+    void accountTransferSingleConnection() throws SQLException {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //DriverManagerDataSource 는 getConnection() 마다 물리 커넥션을 새로 맺는다.
+        AtomicInteger connectionCount = new AtomicInteger();
+        DataSource countingDataSource = new DelegatingDataSource(new DriverManagerDataSource(URL, USERNAME, PASSWORD)) {
+            @Override
+            public Connection getConnection() throws SQLException {
+                connectionCount.incrementAndGet();
+                return super.getConnection();
+            }
+        };
+        MemberServiceV3_2 service = new MemberServiceV3_2(new DataSourceTransactionManager(countingDataSource),
+                new MemberRepositoryV3(countingDataSource));
+
+        //when
+        service.accountTransfer(MEMBER_A, MEMBER_B, 2000);
+
+        //then : findById 까지 트랜잭션 커넥션을 사용한다.
+        assertThat(connectionCount.get()).isEqualTo(1);
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+    }
+
 }
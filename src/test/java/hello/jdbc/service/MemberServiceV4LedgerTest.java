@@ -0,0 +1,161 @@
+package hello.jdbc.service;
+
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberLedgerRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.DisplayName;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.dao.EmptyResultDataAccessException;
+
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * MemberServiceV4 를 그대로 두고 리포지토리만 원장 방식(MemberLedgerRepository)으로 교체
+ */
+@Slf4j
+@SpringBootTest
+class MemberServiceV4LedgerTest {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_EX = "ex";
+
+    @Autowired
+    private MemberLedgerRepository memberRepository;
+
+    @Autowired
+    private MemberServiceV4 memberService;
+
+    @TestConfiguration
+    static class TestConfig {
+
+        private final DataSource dataSource;
+        public TestConfig(DataSource dataSource) {
+            this.dataSource = dataSource;
+        }
+        @Bean
+        MemberLedgerRepository memberRepository() {
+            return new MemberLedgerRepository(dataSource);
+        }
+        @Bean
+        MemberServiceV4 memberServiceV4() {
+            return new MemberServiceV4(memberRepository());
+        }
+    }
+
+    @AfterEach
+    void afterEach() {
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        memberRepository.delete(MEMBER_EX);
+    }
+
+    @Test
+    @DisplayName("정상 이체 - 원장")
+    void accountTransfer() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when : 기본 모드(READ_MODIFY_WRITE) 포함
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 1000);
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 1000, TransferMode.DELTA);
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 1000, TransferMode.SINGLE_STATEMENT);
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 1000, TransferMode.OPTIMISTIC);
+
+        //then : 압축 전후 모두 같은 잔액
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(6000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(14000);
+        memberRepository.compact();
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(6000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(14000);
+    }
+
+    @Test
+    @DisplayName("읽고 덮어쓰는 이체 + 동시 입금 - 원장")
+    void readModifyWriteWithConcurrentCredits() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        int rounds = 50;
+
+        //when : 잠그고 읽은 잔액으로 update 하는 이체와, 잠금을 기다리지 않는 입금이 겹친다.
+        ExecutorService executor = Executors.newFixedThreadPool(4);
+        List<Future<?>> futures = new ArrayList<>();
+        futures.add(executor.submit(() -> {
+            for (int i = 0; i < rounds; i++) {
+                memberService.accountTransfer(MEMBER_A, MEMBER_B, 10, TransferMode.ORDERED_LOCK);
+            }
+        }));
+        futures.add(executor.submit(() -> {
+            for (int i = 0; i < rounds; i++) {
+                //같은 방향이라 잠금 순서(A -> B)가 ORDERED_LOCK 과 같다.
+                memberService.accountTransfer(MEMBER_A, MEMBER_B, 10, TransferMode.READ_MODIFY_WRITE);
+            }
+        }));
+        for (String memberId : List.of(MEMBER_A, MEMBER_B)) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < rounds; i++) {
+                    memberRepository.addMoney(memberId, 1);
+                }
+            }));
+        }
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        //then : 이체는 총액을 바꾸지 않고, 입금은 하나도 사라지지 않는다.
+        int total = memberRepository.findById(MEMBER_A).getMoney() + memberRepository.findById(MEMBER_B).getMoney();
+        assertThat(total).isEqualTo(20000 + 2 * rounds);
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000 - 2 * rounds * 10 + rounds);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(10000 + 2 * rounds * 10 + rounds);
+    }
+
+    @Test
+    @DisplayName("회원 삭제 - 원장")
+    void deleteWithLedger() {
+        //given : 압축되지 않은 원장이 남은 회원
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 1000, TransferMode.DELTA);
+
+        //when : 원장과 member 를 함께 삭제
+        memberRepository.delete(MEMBER_B);
+
+        //then : 같은 memberId 로 다시 저장해도 이전 원장이 더해지지 않는다.
+        assertThatThrownBy(() -> memberRepository.findById(MEMBER_B))
+                .isInstanceOf(EmptyResultDataAccessException.class);
+        memberRepository.save(new Member(MEMBER_B, 500));
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(500);
+    }
+
+    @Test
+    @DisplayName("이체중 예외 발생 - 원장")
+    void accountTransferEx() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+
+        //when : 출금 원장이 추가된 뒤 예외 -> 원장 추가도 롤백
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_EX, 2000, TransferMode.DELTA))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+    }
+}
@@ -4,6 +4,7 @@ import hello.jdbc.domain.Member;
 import hello.jdbc.repository.MemberRepository;
 import hello.jdbc.repository.MemberRepositoryV4_2;
 import hello.jdbc.repository.MemberRepositoryV5;
+import hello.jdbc.repository.MemberTransferProcedure;
 import lombok.extern.slf4j.Slf4j;
 import org.junit.jupiter.api.AfterEach;
 import org.junit.jupiter.api.DisplayName;
@@ -13,8 +14,17 @@ import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
 import org.springframework.boot.test.context.TestConfiguration;
 import org.springframework.context.annotation.Bean;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DataAccessException;
 
 import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
 
 import static org.assertj.core.api.Assertions.assertThat;
 import static org.assertj.core.api.Assertions.assertThatThrownBy;
@@ -39,6 +49,9 @@ public class MemberServiceV4Test {
     @Autowired
     private MemberServiceV4 memberService;
 
+    @Autowired
+    private TransferExecutor transferExecutor;
+
     @TestConfiguration
     static class TestConfig {
 
@@ -54,8 +67,20 @@ public class MemberServiceV4Test {
             return new MemberRepositoryV5(dataSource);
         }
         @Bean
+        MemberTransferProcedure memberTransferProcedure() {
+            //TRANSFER_V1 함수는 JdbcApplication 의 MemberSchemaInitializer 가 설치한다.
+            return new MemberTransferProcedure(dataSource);
+        }
+        @Bean
         MemberServiceV4 memberServiceV4() {
-            return new MemberServiceV4(memberRepository());
+            MemberServiceV4 memberService = new MemberServiceV4(memberRepository());
+            memberService.setTransferProcedure(memberTransferProcedure());
+            return memberService;
+        }
+        @Bean
+        TransferExecutor transferExecutor(MemberServiceV4 memberServiceV4) {
+            //트랜잭션 프록시를 주입받아야 재시도마다 새 트랜잭션이 시작된다.
+            return new TransferExecutor(memberServiceV4);
         }
     }
     @AfterEach
@@ -119,4 +144,340 @@ public class MemberServiceV4Test {
         assertThat(findMemberB.getMoney()).isEqualTo(10000);
     }
 
+    @Test
+    @DisplayName("정상 이체 - DELTA")
+    void accountTransferDelta() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000, TransferMode.DELTA);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+    }
+
+    @Test
+    @DisplayName("잔액 부족 - DELTA")
+    void accountTransferDeltaInsufficient() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 1000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000, TransferMode.DELTA))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(1000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    @DisplayName("이체중 예외 발생 - DELTA")
+    void accountTransferDeltaEx() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+
+        //when : 차감 후 예외 -> 롤백
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_EX, 2000, TransferMode.DELTA))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    @DisplayName("정상 이체 - SINGLE_STATEMENT")
+    void accountTransferSingleStatement() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000, TransferMode.SINGLE_STATEMENT);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+    }
+
+    @Test
+    @DisplayName("잔액 부족 - SINGLE_STATEMENT")
+    void accountTransferSingleStatementInsufficient() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 1000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when : 입금 계좌만 변경되어 1건 -> 롤백
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000, TransferMode.SINGLE_STATEMENT))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(1000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    @DisplayName("이체중 예외 발생 - SINGLE_STATEMENT")
+    void accountTransferSingleStatementEx() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+
+        //when
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_EX, 2000, TransferMode.SINGLE_STATEMENT))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    @DisplayName("정상 이체 - PROCEDURE")
+    void accountTransferProcedure() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000, TransferMode.PROCEDURE);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+    }
+
+    @Test
+    @DisplayName("잔액 부족 - PROCEDURE")
+    void accountTransferProcedureInsufficient() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 1000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000, TransferMode.PROCEDURE))
+                .isInstanceOf(DataAccessException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(1000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    @DisplayName("이체중 예외 발생 - PROCEDURE")
+    void accountTransferProcedureEx() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+
+        //when : DB 함수 안에서 차감 후 예외 -> 롤백
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_EX, 2000, TransferMode.PROCEDURE))
+                .isInstanceOf(DataAccessException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    @DisplayName("정상 이체 - ORDERED_LOCK")
+    void accountTransferOrderedLock() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when : B -> A 도 A, B 순서로 잠근다.
+        memberService.accountTransfer(MEMBER_B, MEMBER_A, 2000, TransferMode.ORDERED_LOCK);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(12000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(8000);
+    }
+
+    @Test
+    @DisplayName("이체중 예외 발생 - ORDERED_LOCK")
+    void accountTransferOrderedLockEx() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+
+        //when
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_EX, 2000, TransferMode.ORDERED_LOCK))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    @DisplayName("동시 이체 A->B, B->A - ORDERED_LOCK")
+    void accountTransferOrderedLockConcurrent() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when : 양방향 이체를 같은 횟수만큼 동시에 실행
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            boolean aToB = i % 2 == 0;
+            results.add(pool.submit(() -> transferExecutor.accountTransfer(
+                    aToB ? MEMBER_A : MEMBER_B, aToB ? MEMBER_B : MEMBER_A, 100, TransferMode.ORDERED_LOCK)));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+        log.info("transfers = {}, retries = {}, backoff = {}ms",
+                transferExecutor.getTransferCount(), transferExecutor.getRetryCount(), transferExecutor.getBackoffMillis());
+
+        //then : 갱신 손실, 교착 상태 없이 원래 잔액
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(10000);
+        assertThat(transferExecutor.getFailureCount()).isEqualTo(0);
+    }
+
+    @Test
+    @DisplayName("정상 이체 - OPTIMISTIC")
+    void accountTransferOptimistic() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+
+        //when
+        memberService.accountTransfer(MEMBER_A, MEMBER_B, 2000, TransferMode.OPTIMISTIC);
+
+        //then
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(12000);
+    }
+
+    @Test
+    @DisplayName("이체중 예외 발생 - OPTIMISTIC")
+    void accountTransferOptimisticEx() {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+        long version = memberRepository.findById(MEMBER_A).getVersion();
+
+        //when
+        assertThatThrownBy(() -> memberService.accountTransfer(MEMBER_A, MEMBER_EX, 2000, TransferMode.OPTIMISTIC))
+                .isInstanceOf(IllegalStateException.class);
+
+        //then : 롤백되어 version 도 그대로
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_A).getVersion()).isEqualTo(version);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+    }
+
+    @Test
+    @DisplayName("동시 이체 - OPTIMISTIC, 충돌하면 재시도")
+    void accountTransferOptimisticConcurrent() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        transferExecutor.setMaxAttempts(50);
+
+        //when : 같은 계좌에 동시에 이체하면 version 충돌이 나고 재시도된다.
+        ExecutorService pool = Executors.newFixedThreadPool(4);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 40; i++) {
+            results.add(pool.submit(() -> transferExecutor.accountTransfer(MEMBER_A, MEMBER_B, 100, TransferMode.OPTIMISTIC)));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+        log.info("transfers = {}, retries = {}", transferExecutor.getTransferCount(), transferExecutor.getRetryCount());
+
+        //then : 갱신 손실 없음
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(6000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(14000);
+    }
+
+    @Test
+    @DisplayName("hot 계좌 동시 이체 - StripedAccountLocks")
+    void accountTransferStripedLocksConcurrent() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        StripedAccountLocks accountLocks = new StripedAccountLocks();
+        TransferExecutor executor = new TransferExecutor(memberService);
+        executor.setAccountLocks(accountLocks);
+
+        //when : 잠금 없는 READ_MODIFY_WRITE 로 같은 두 계좌에 몰아서 이체. JVM 락이 줄 세우므로 갱신 손실이 없어야 한다.
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 100; i++) {
+            boolean aToB = i % 4 != 0;
+            results.add(pool.submit(() -> executor.accountTransfer(
+                    aToB ? MEMBER_A : MEMBER_B, aToB ? MEMBER_B : MEMBER_A, 100, TransferMode.READ_MODIFY_WRITE)));
+        }
+        for (Future<?> result : results) {
+            result.get();
+        }
+        pool.shutdown();
+        log.info("acquisitions = {}, contended = {}, wait = {}ms",
+                accountLocks.getAcquisitionCount(), accountLocks.getContendedCount(), accountLocks.getWaitMillis());
+
+        //then : A->B 75번, B->A 25번
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000 - 5000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(10000 + 5000);
+        assertThat(executor.getFailureCount()).isEqualTo(0);
+        assertThat(accountLocks.getAcquisitionCount()).isGreaterThanOrEqualTo(100);
+        assertThat(accountLocks.getContendedCount()).isGreaterThan(0);
+    }
+
+    @Test
+    @DisplayName("계좌 락 대기 시간 초과 - StripedAccountLocks")
+    void accountTransferStripedLocksTimeout() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        StripedAccountLocks accountLocks = new StripedAccountLocks();
+        accountLocks.setLockTimeout(100);
+        TransferExecutor executor = new TransferExecutor(memberService);
+        executor.setAccountLocks(accountLocks);
+        executor.setMaxAttempts(2);
+        executor.setBackoffMillis(1, 5);
+
+        //다른 스레드가 두 계좌의 락을 잡고 놓지 않는다.
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        Thread holder = new Thread(() -> accountLocks.runLocked(MEMBER_A, MEMBER_B, () -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        holder.start();
+        assertThat(locked.await(5, TimeUnit.SECONDS)).isTrue();
+
+        //when : 재시도까지 락을 얻지 못하면 CannotAcquireLockException
+        try {
+            assertThatThrownBy(() -> executor.accountTransfer(MEMBER_A, MEMBER_B, 2000, TransferMode.READ_MODIFY_WRITE))
+                    .isInstanceOf(CannotAcquireLockException.class);
+        } finally {
+            release.countDown();
+            holder.join();
+        }
+
+        //then : 이체는 실행되지 않았고, 기다린 시간이 메트릭에 남는다.
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(10000);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(10000);
+        assertThat(executor.getRetryCount()).isEqualTo(1);
+        assertThat(executor.getFailureCount()).isEqualTo(1);
+        assertThat(accountLocks.getContendedCount()).isEqualTo(2);
+        assertThat(accountLocks.getWaitMillis()).isGreaterThanOrEqualTo(2 * 100 - 10);
+    }
+
 }
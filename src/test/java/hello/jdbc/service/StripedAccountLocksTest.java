@@ -0,0 +1,76 @@
+package hello.jdbc.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.CannotAcquireLockException;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+class StripedAccountLocksTest {
+
+    @Test
+    void stripes() {
+        //2의 제곱으로 올림
+        assertThat(new StripedAccountLocks(1).getStripes()).isEqualTo(1);
+        assertThat(new StripedAccountLocks(5).getStripes()).isEqualTo(8);
+        assertThat(new StripedAccountLocks(64).getStripes()).isEqualTo(64);
+    }
+
+    @Test
+    void noDeadlock() throws Exception {
+        StripedAccountLocks locks = new StripedAccountLocks(16);
+        int[] counter = new int[1];
+
+        //A->B, B->A 가 겹쳐도 stripe 순서로 잡으므로 교착 상태가 없다.
+        ExecutorService pool = Executors.newFixedThreadPool(8);
+        List<Future<?>> results = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            boolean aToB = i % 2 == 0;
+            results.add(pool.submit(() -> locks.runLocked(aToB ? "memberA" : "memberB", aToB ? "memberB" : "memberA",
+                    () -> counter[0]++)));
+        }
+        for (Future<?> result : results) {
+            result.get(5, TimeUnit.SECONDS);
+        }
+        pool.shutdown();
+
+        assertThat(counter[0]).isEqualTo(1000);
+        assertThat(locks.getAcquisitionCount()).isGreaterThanOrEqualTo(1000);
+    }
+
+    @Test
+    void lockTimeout() throws Exception {
+        StripedAccountLocks locks = new StripedAccountLocks(16);
+        locks.setLockTimeout(100);
+        CountDownLatch locked = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+
+        Thread holder = new Thread(() -> locks.runLocked("memberA", "memberB", () -> {
+            locked.countDown();
+            try {
+                release.await();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }));
+        holder.start();
+        locked.await();
+
+        //같은 계좌를 기다리다 시간 초과, 대기 시간이 기록된다.
+        assertThatThrownBy(() -> locks.runLocked("memberB", "memberA", () -> { }))
+                .isInstanceOf(CannotAcquireLockException.class);
+        assertThat(locks.getContendedCount()).isEqualTo(1);
+        assertThat(locks.getWaitMillis()).isGreaterThanOrEqualTo(100);
+
+        release.countDown();
+        holder.join();
+    }
+}
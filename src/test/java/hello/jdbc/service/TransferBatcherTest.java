@@ -0,0 +1,159 @@
+package hello.jdbc.service;
+
+import com.zaxxer.hikari.HikariDataSource;
+import hello.jdbc.domain.Member;
+import hello.jdbc.repository.MemberRepository;
+import hello.jdbc.repository.MemberRepositoryV5;
+import hello.jdbc.repository.MemberSchemaInitializer;
+import hello.jdbc.repository.memory.MvccMemberRepository;
+import lombok.extern.slf4j.Slf4j;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import static hello.jdbc.connection.ConnectionConst.*;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 그룹 커밋 - 여러 이체를 트랜잭션 하나로 커밋하고, 실패한 이체는 savepoint 로 되돌린다.
+ */
+@Slf4j
+class TransferBatcherTest {
+
+    public static final String MEMBER_A = "memberA";
+    public static final String MEMBER_B = "memberB";
+    public static final String MEMBER_EX = "ex";
+
+    HikariDataSource dataSource;
+    MemberRepository memberRepository;
+    TransferBatcher batcher;
+
+    @BeforeEach
+    void beforeEach() {
+        dataSource = new HikariDataSource();
+        dataSource.setJdbcUrl(URL);
+        dataSource.setUsername(USERNAME);
+        dataSource.setPassword(PASSWORD);
+        new MemberSchemaInitializer(dataSource).initialize();
+        memberRepository = new MemberRepositoryV5(dataSource);
+        MemberServiceV4 memberService = new MemberServiceV4(memberRepository);
+        //window 를 넉넉히 줘서 한 배치로 모이도록
+        batcher = new TransferBatcher(memberService, new DataSourceTransactionManager(dataSource), 16, 200);
+    }
+
+    @AfterEach
+    void afterEach() {
+        batcher.close();
+        memberRepository.delete(MEMBER_A);
+        memberRepository.delete(MEMBER_B);
+        memberRepository.delete(MEMBER_EX);
+        dataSource.close();
+    }
+
+    @Test
+    void groupCommit() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 10000));
+        memberRepository.save(new Member(MEMBER_B, 10000));
+        memberRepository.save(new Member(MEMBER_EX, 10000));
+
+        //when : 정상 이체 사이에 실패하는 이체(이체중 예외, 잔액 부족)를 섞는다.
+        List<CompletableFuture<Void>> ok = new ArrayList<>();
+        ok.add(batcher.submit(MEMBER_A, MEMBER_B, 1000));
+        CompletableFuture<Void> ex = batcher.submit(MEMBER_A, MEMBER_EX, 1000);
+        ok.add(batcher.submit(MEMBER_B, MEMBER_A, 500));
+        CompletableFuture<Void> insufficient = batcher.submit(MEMBER_A, MEMBER_B, 100000);
+        ok.add(batcher.submit(MEMBER_A, MEMBER_B, 1000));
+
+        //then : 실패한 이체만 실패하고 나머지는 함께 커밋
+        for (CompletableFuture<Void> future : ok) {
+            future.get(5, TimeUnit.SECONDS);
+        }
+        assertThatThrownBy(() -> ex.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> insufficient.get(5, TimeUnit.SECONDS))
+                .isInstanceOf(ExecutionException.class)
+                .hasCauseInstanceOf(IllegalStateException.class);
+
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(8500);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(11500);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+
+        log.info("commits = {}, histogram = {}", batcher.getCommitCount(), Arrays.toString(batcher.getBatchSizeHistogram()));
+        assertThat(batcher.getTransferCount()).isEqualTo(5);
+        assertThat(batcher.getFailedTransferCount()).isEqualTo(2);
+        assertThat(batcher.getCommitCount()).isLessThan(5);
+    }
+
+    @Test
+    void netting() throws Exception {
+        //given
+        memberRepository.save(new Member(MEMBER_A, 1000));
+        memberRepository.save(new Member(MEMBER_B, 1000));
+        memberRepository.save(new Member(MEMBER_EX, 0));
+        batcher.setNetting(true);
+
+        //when : 순서대로 계산하면 두 번째 이체 시점에 A 의 잔액은 400 -> 잔액 부족
+        CompletableFuture<Void> first = batcher.submit(MEMBER_A, MEMBER_B, 600);
+        CompletableFuture<Void> second = batcher.submit(MEMBER_A, MEMBER_B, 600);
+        CompletableFuture<Void> third = batcher.submit(MEMBER_B, MEMBER_A, 500);
+        CompletableFuture<Void> fourth = batcher.submit(MEMBER_A, MEMBER_B, 600);
+        CompletableFuture<Void> ex = batcher.submit(MEMBER_B, MEMBER_EX, 100);
+
+        //then : A = 1000 - 600 + 500 - 600 = 300, B = 1000 + 600 - 500 + 600 = 1700
+        first.get(5, TimeUnit.SECONDS);
+        third.get(5, TimeUnit.SECONDS);
+        fourth.get(5, TimeUnit.SECONDS);
+        assertThatThrownBy(() -> second.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(IllegalStateException.class);
+        assertThatThrownBy(() -> ex.get(5, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(IllegalStateException.class);
+
+        assertThat(memberRepository.findById(MEMBER_A).getMoney()).isEqualTo(300);
+        assertThat(memberRepository.findById(MEMBER_B).getMoney()).isEqualTo(1700);
+        assertThat(memberRepository.findById(MEMBER_EX).getMoney()).isEqualTo(0);
+    }
+
+    @Test
+    void memoryRepositoryFallsBackToNetting() throws Exception {
+        //given : savepoint 로 되돌릴 수 없는 메모리 리포지토리. 트랜잭션 매니저는 스프링 트랜잭션 동기화에만 쓴다.
+        MvccMemberRepository mvcc = new MvccMemberRepository();
+        mvcc.save(new Member(MEMBER_A, 10000));
+        mvcc.save(new Member(MEMBER_B, 10000));
+        mvcc.save(new Member(MEMBER_EX, 10000));
+        TransferBatcher mvccBatcher = new TransferBatcher(new MemberServiceV4(mvcc), new DataSourceTransactionManager(dataSource), 16, 200);
+        try {
+            //when : DELTA 방식이면 출금한 뒤 이체중 예외가 발생하는 이체
+            CompletableFuture<Void> ok = mvccBatcher.submit(MEMBER_A, MEMBER_B, 1000);
+            CompletableFuture<Void> ex = mvccBatcher.submit(MEMBER_A, MEMBER_EX, 1000);
+            ok.get(5, TimeUnit.SECONDS);
+            assertThatThrownBy(() -> ex.get(5, TimeUnit.SECONDS))
+                    .hasCauseInstanceOf(IllegalStateException.class);
+
+            //then : 실패한 이체의 출금이 커밋되지 않는다.
+            assertThat(mvcc.findById(MEMBER_A).getMoney()).isEqualTo(9000);
+            assertThat(mvcc.findById(MEMBER_B).getMoney()).isEqualTo(11000);
+            assertThat(mvcc.findById(MEMBER_EX).getMoney()).isEqualTo(10000);
+        } finally {
+            mvccBatcher.close();
+            mvcc.close();
+        }
+    }
+
+    @Test
+    void closed() {
+        batcher.close();
+        assertThatThrownBy(() -> batcher.submit(MEMBER_A, MEMBER_B, 1000).get(1, TimeUnit.SECONDS))
+                .hasCauseInstanceOf(IllegalStateException.class);
+    }
+}
@@ -0,0 +1,96 @@
+package hello.jdbc.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.dao.CannotAcquireLockException;
+import org.springframework.dao.DeadlockLoserDataAccessException;
+import org.springframework.dao.OptimisticLockingFailureException;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+/**
+ * 재시도 정책만 확인하므로 DB 없이 MemberServiceV4 를 상속한 가짜 서비스로 테스트
+ */
+class TransferExecutorTest {
+
+    @Test
+    void retryDeadlock() {
+        AtomicInteger calls = new AtomicInteger();
+        MemberServiceV4 memberService = new MemberServiceV4(null) {
+            @Override
+            public void accountTransfer(String fromId, String toId, int money) {
+                if (calls.incrementAndGet() <= 2) {
+                    throw new DeadlockLoserDataAccessException("deadlock", null);
+                }
+            }
+        };
+        TransferExecutor executor = new TransferExecutor(memberService);
+        executor.setBackoffMillis(1, 5);
+
+        executor.accountTransfer("memberA", "memberB", 1000);
+
+        assertThat(calls.get()).isEqualTo(3);
+        assertThat(executor.getTransferCount()).isEqualTo(1);
+        assertThat(executor.getRetryCount()).isEqualTo(2);
+        assertThat(executor.getFailureCount()).isEqualTo(0);
+    }
+
+    @Test
+    void retryOptimisticConflict() {
+        AtomicInteger calls = new AtomicInteger();
+        MemberServiceV4 memberService = new MemberServiceV4(null) {
+            @Override
+            public void accountTransfer(String fromId, String toId, int money, TransferMode mode) {
+                if (calls.incrementAndGet() == 1) {
+                    throw new OptimisticLockingFailureException("version conflict");
+                }
+            }
+        };
+        TransferExecutor executor = new TransferExecutor(memberService);
+        executor.setBackoffMillis(1, 5);
+
+        executor.accountTransfer("memberA", "memberB", 1000, TransferMode.OPTIMISTIC);
+
+        assertThat(calls.get()).isEqualTo(2);
+        assertThat(executor.getRetryCount()).isEqualTo(1);
+    }
+
+    @Test
+    void retryExhausted() {
+        MemberServiceV4 memberService = new MemberServiceV4(null) {
+            @Override
+            public void accountTransfer(String fromId, String toId, int money) {
+                throw new CannotAcquireLockException("lock timeout");
+            }
+        };
+        TransferExecutor executor = new TransferExecutor(memberService);
+        executor.setMaxAttempts(3);
+        executor.setBackoffMillis(1, 5);
+
+        assertThatThrownBy(() -> executor.accountTransfer("memberA", "memberB", 1000))
+                .isInstanceOf(CannotAcquireLockException.class);
+        assertThat(executor.getRetryCount()).isEqualTo(2);
+        assertThat(executor.getFailureCount()).isEqualTo(1);
+    }
+
+    @Test
+    void noRetryBusinessException() {
+        AtomicInteger calls = new AtomicInteger();
+        MemberServiceV4 memberService = new MemberServiceV4(null) {
+            @Override
+            public void accountTransfer(String fromId, String toId, int money) {
+                calls.incrementAndGet();
+                throw new IllegalStateException("이체중 예외 발생");
+            }
+        };
+        TransferExecutor executor = new TransferExecutor(memberService);
+
+        //잠금 충돌이 아닌 예외는 재시도하지 않는다.
+        assertThatThrownBy(() -> executor.accountTransfer("memberA", "ex", 1000))
+                .isInstanceOf(IllegalStateException.class);
+        assertThat(calls.get()).isEqualTo(1);
+        assertThat(executor.getRetryCount()).isEqualTo(0);
+    }
+}